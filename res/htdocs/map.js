@@ -74,6 +74,12 @@
   
   // a list of all the images
   var imageInfos = new ArrayList()
+  // the images by their id
+  var imageInfoById = {}
+  // the id of the selection of images registered with Geotag
+  var selectionId = -1
+  // the bounds of all images [south, west, north, east] - sent by Geotag
+  var imagesBounds = null
   
   // ImageInfo class
   function ImageInfo(id) {
@@ -90,6 +96,15 @@
   
   // change active image, pan to it and change title
   function setActiveImage(image) {
+    if (image.locationMarker == null) {
+      // not seen yet, as it wasn't on the visible part of the map
+      requestImageInfos("ids=" + image.id, 0, function() {
+        if (image.locationMarker != null) {
+          setActiveImage(image)
+        }
+      })
+      return
+    }
   	activeImage = image
 	map.panTo(activeImage.locationMarker.getPosition())
     setTitle(activeImage.locationMarker)
@@ -253,48 +268,41 @@
     return directionMarker
   }
   
-  // ask Geotag about the images to be displayed
-  function requestImageInfos(imageInfoList) {
-  	// request information about the image
-    var URL = "/imageinfo/imageinfo.xml?ids="
-    for (var index = 0; index < imageInfoList.size(); index++) {
-    	URL += index == 0 ? "" : ","
-    	URL += imageInfoList.get(index).id
-    }
-    console.log("Requesting image infos")
+  // ask Geotag about the images to be displayed - the parameters select the
+  // images, there can be thousands, so they are sent in the body of a POST
+  // request. The answer comes in pages, each page is requested in turn.
+  // Markers are only created for images not seen before.
+  function requestImageInfos(parameters, offset, whenDone) {
+    var URL = "/imageinfo/imageinfo.json"
+    console.log("Requesting image infos from "+offset)
     var imageInfoRequest = new XMLHttpRequest();
-    imageInfoRequest.open("GET", URL, true)
+    imageInfoRequest.open("POST", URL, true)
+    imageInfoRequest.setRequestHeader("Content-Type", "application/x-www-form-urlencoded")
     imageInfoRequest.onreadystatechange = function() {
       // only interested if the request has completed
       if (imageInfoRequest.readyState == 4) {
         // parse the information
-        //console.log(imageInfoRequest);
-        xmlDocument = imageInfoRequest.responseXML;
-        infos = xmlDocument.documentElement.getElementsByTagName("image")
-        console.log("ImageInfos: "+infos.length)
+        var response = JSON.parse(imageInfoRequest.responseText)
+        if (response.bounds) {
+          imagesBounds = response.bounds
+        }
+        infos = response.images
+        console.log("ImageInfos: "+infos.length+" of "+response.total)
         for (var index = 0; index < infos.length; index++) {
           info = infos[index]
-          id = parseFloat(info.getAttribute("id"))
           // find the imageInfo with that id
-          imageInfo = null
-          for (var index2 = 0; index2 < imageInfoList.size(); index2++) {
-          	if (imageInfoList.get(index2).id == id) {
-          		imageInfo = imageInfoList.get(index2)
-          		break
-          	}
-          }
+          imageInfo = imageInfoById[info.id]
           // store information with the imageInfo
-          if (imageInfo != null) {
-            imageInfo.filename = info.getAttribute("name")
-            imageInfo.width = parseInt(info.getAttribute("width"))
-            imageInfo.height = parseInt(info.getAttribute("height"))
+          if (imageInfo != null && imageInfo.locationMarker == null) {
+            imageInfo.filename = info.name
+            imageInfo.width = info.width
+            imageInfo.height = info.height
             imageInfo.hasThumbnail = (this.width != 0 && this.height != 0)
-            imageInfo.latitude = parseFloat(info.getAttribute("latitude"))
-            imageInfo.longitude = parseFloat(info.getAttribute("longitude"))
-            imageInfo.direction = parseFloat(info.getAttribute("direction"))
+            imageInfo.latitude = info.latitude
+            imageInfo.longitude = info.longitude
+            imageInfo.direction = info.direction
             // create the location marker for this image
             imageInfo.locationMarker = createLocationMarker(imageInfo)
-            console.log("Marker created")
             // Do the same for the direction marker...
             imageInfo.directionMarker = createDirectionMarker(imageInfo)
             // ...and the line between them
@@ -315,10 +323,50 @@
             }
           }
         }
+        if (response.next >= 0) {
+          requestImageInfos(parameters, response.next, whenDone)
+        } else if (whenDone) {
+          whenDone()
+        }
       }
     }
-    imageInfoRequest.send(null)
-  }  
+    imageInfoRequest.send(parameters + "&offset=" + offset)
+  }
+  
+  // ask Geotag about the ids of the selected images - only the ids, the
+  // rest is requested for the images on the visible part of the map
+  function requestSelection(whenDone) {
+    var URL = "/imageinfo/selection.json?selection=" + selectionId
+    var selectionRequest = new XMLHttpRequest()
+    selectionRequest.open("GET", URL, true)
+    selectionRequest.onreadystatechange = function() {
+      // only interested if the request has completed
+      if (selectionRequest.readyState == 4) {
+        if (selectionRequest.status == 200) {
+          var imageIds = JSON.parse(selectionRequest.responseText).ids
+          for (var image = 0; image < imageIds.length; image++) {
+            var id = imageIds[image]
+            var imageInfo = new ImageInfo(id)
+            imageInfos.add(imageInfo)
+            imageInfoById[id] = imageInfo
+          }
+        }
+        whenDone()
+      }
+    }
+    selectionRequest.send(null)
+  }
+
+  // ask Geotag about the images on the visible part of the map
+  function requestVisibleImageInfos() {
+    var bounds = map.getBounds()
+    if (selectionId < 0 || bounds == null) {
+      return
+    }
+    requestImageInfos("selection=" + selectionId
+      + "&south=" + bounds.getSouthWest().lat() + "&west=" + bounds.getSouthWest().lng()
+      + "&north=" + bounds.getNorthEast().lat() + "&east=" + bounds.getNorthEast().lng(), 0)
+  }
   
   // parse the URL arguments
   function Arguments() {
@@ -339,12 +387,8 @@
       if (name == "longitude") {
         this.longitude = parseFloat(value)
       }
-      if (name == "images") {
-      	imageIds = value.split("_")
-      	for (var image = 0; image < imageIds.length; image++) {
-      		id = parseInt(imageIds[image])
-      		imageInfos.add(new ImageInfo(id))
-      	}
+      if (name == "selection") {
+        selectionId = parseInt(value)
       }
       if (name == "zoom") {
         this.zoom = Math.abs(parseInt(value))
@@ -412,9 +456,9 @@
   
   function mapProjectionReady() {
     console.log("New projection: "+map.getProjection()) 
-    if (activeImage == null) {
-      requestImageInfos(imageInfos)
-    }
+    // only the images on the map are needed - thousands of markers
+    // elsewhere would just slow the browser down
+    requestVisibleImageInfos()
   }
   
   
@@ -431,8 +475,12 @@
   };
   var map = new google.maps.Map(document.getElementById("map"), mapOptions)
   //map.addListener("projection_changed", mapProjectionReady)
-  map.addListener("idle", mapProjectionReady)
-  //requestImageInfos(imageInfos)
+  // the images can only be requested once their ids are known
+  requestSelection(function() {
+    map.addListener("idle", mapProjectionReady)
+    // the map might have been idle before
+    requestVisibleImageInfos()
+  })
   // move map to desired location and zoom level
 
   // now the language dependent bits
@@ -703,29 +751,14 @@
 
   // handle the 'show all' menu item
   showAllImages = function() {
-    // First we need to find the bounds of the images
+    // First we need the bounds of the images - Geotag sends those, as
+    // not all images might have been loaded
     // this only makes sense if there is more than one image
-    if (imageInfos.size() > 0) {
-      var minLatitude = 90
-      var maxLatitude = -90
-      var minLongitude = 180
-      var maxLongitude = -180
-      for (var i= 0; i < imageInfos.size(); i++) {
-        var imageInfo = imageInfos.get(i)
-        var latLng = imageInfo.locationMarker.getPosition()
-        if (latLng.lat() > maxLatitude) {
-          maxLatitude = latLng.lat()
-        }
-        if (latLng.lat() < minLatitude) {
-          minLatitude = latLng.lat()
-        }
-        if (latLng.lng() > maxLongitude) {
-          maxLongitude = latLng.lng()
-        }
-        if (latLng.lng() < minLongitude) {
-          minLongitude = latLng.lng()
-        }
-      }
+    if (imageInfos.size() > 0 && imagesBounds != null) {
+      var minLatitude = imagesBounds[0]
+      var minLongitude = imagesBounds[1]
+      var maxLatitude = imagesBounds[2]
+      var maxLongitude = imagesBounds[3]
       var southWest = new google.maps.LatLng(minLatitude, minLongitude)
       var northEast = new google.maps.LatLng(maxLatitude, maxLongitude)
       var bounds = new google.maps.LatLngBounds(southWest, northEast)
@@ -779,6 +812,34 @@
     console.log("Tracks removed: "+removed);
   }
   
+  // decode a track in the encoded polyline format used by Google Maps:
+  // the differences between points in 1e-5 degrees, sign in the lowest bit,
+  // in groups of five bits per character
+  function decodePolyline(encoded) {
+    var points = []
+    var index = 0
+    var latitude = 0
+    var longitude = 0
+    while (index < encoded.length) {
+      var values = []
+      for (var valueIndex = 0; valueIndex < 2; valueIndex++) {
+        var result = 0
+        var shift = 0
+        var bits
+        do {
+          bits = encoded.charCodeAt(index++) - 63
+          result += (bits & 0x1f) * Math.pow(2, shift)
+          shift += 5
+        } while (bits >= 0x20)
+        values[valueIndex] = (result % 2 == 1) ? -(result + 1) / 2 : result / 2
+      }
+      latitude += values[0]
+      longitude += values[1]
+      points.push(new google.maps.LatLng(latitude / 1e5, longitude / 1e5))
+    }
+    return points
+  }
+  
   requestTracks = function() {
     // collect information about the map
     var bounds = map.getBounds()
@@ -789,7 +850,7 @@
     var width = map.getDiv().offsetWidth 
     var height = map.getDiv().offsetHeight
     // tell Geotag about it
-    var tracksURL = "/tracks/tracks.kml?south="
+    var tracksURL = "/tracks/tracks.json?south="
       + south + "&west=" + west + "&north=" + north + "&east=" + east
       + "&width=" +width + "&height=" + height
     console.log("Request "+tracksURL)
@@ -801,20 +862,12 @@
       if (tracksRequest.readyState == 4) {
         removeTracks()
         var numPoints = 0
-        console.log("Response: "+tracksRequest.responseText)
-        // parse the document
-        var xmlDocument = tracksRequest.responseXML
-        // get the tracks
-        var tracks = xmlDocument.documentElement.getElementsByTagName("track")
+        // get the tracks - each one is an encoded polyline
+        var tracks = JSON.parse(tracksRequest.responseText).tracks
         // loop through the tracks
         for (var trackIndex = 0; trackIndex < tracks.length; trackIndex++) {
-          var points = tracks[trackIndex].getElementsByTagName("point")
-          var linePoints = []
-          for (var pointIndex = 0; pointIndex < points.length; pointIndex++ ) {
-            numPoints ++
-            linePoints[pointIndex] = new google.maps.LatLng(parseFloat(points[pointIndex].getAttribute("latitude")),
-                             parseFloat(points[pointIndex].getAttribute("longitude")))
-          }
+          var linePoints = decodePolyline(tracks[trackIndex])
+          numPoints += linePoints.length
           tracksDisplayed[trackIndex] =  new google.maps.Polyline({
             path: linePoints,
             geodesic: true,
@@ -1,15 +1,14 @@
 
 package fi.iki.elonen;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URLEncoder;
@@ -20,9 +19,13 @@ import java.util.Locale;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A simple, tiny, nicely embeddable HTTP 1.0 server in Java
+ * A simple, tiny, nicely embeddable HTTP 1.1 server in Java
  * 
  * <p>
  * NanoHTTPD version 1.1, Copyright &copy; 2001,2005-2007 Jarno Elonen
@@ -40,7 +43,9 @@ import java.util.TimeZone;
  * <li> Supports parameter parsing of GET and POST methods </li>
  * <li> Supports both dynamic content and file serving </li>
  * <li> Never caches anything </li>
- * <li> Doesn't limit bandwidth, request time or simultaneous connections </li>
+ * <li> Doesn't limit bandwidth or request time </li>
+ * <li> Handles connections with a limited pool of threads, keeps connections
+ * open for further (also pipelined) requests </li>
  * <li> Default code serves files and shows all HTTP parameters and headers</li>
  * <li> File server supports directory listing, index.html and index.htm </li>
  * <li> File server does the 301 redirection trick for directories without '/'</li>
@@ -135,6 +140,16 @@ public class NanoHTTPD {
       this.data = new ByteArrayInputStream(txt.getBytes());
     }
 
+    /**
+     * Constructor for content that is written directly to the connection
+     * while it is created.
+     */
+    public Response(String status, String mimeType, ContentWriter writer) {
+      this.status = status;
+      this.mimeType = mimeType;
+      this.writer = writer;
+    }
+
     /**
      * Adds given line to the header.
      */
@@ -157,22 +172,46 @@ public class NanoHTTPD {
      */
     public InputStream data;
 
+    /**
+     * Writes the data of the response instead of the InputStream, may be null.
+     */
+    public ContentWriter writer;
+
     /**
      * Headers for the HTTP response. Use addHeader() to add lines.
      */
     public Properties header = new Properties();
   }
 
+  /**
+   * Writes the data of a response directly to the connection, so large
+   * responses don't have to be kept in memory before they are sent.
+   */
+  public interface ContentWriter {
+    /**
+     * Writes the data. The stream may be closed when done, but that doesn't
+     * close the connection.
+     */
+    void writeTo(OutputStream out) throws IOException;
+  }
+
   /**
    * Some HTTP response status codes
    */
   public static final String HTTP_OK = "200 OK",
       HTTP_REDIRECT = "301 Moved Permanently",
+      HTTP_NOT_MODIFIED = "304 Not Modified",
       HTTP_FORBIDDEN = "403 Forbidden", HTTP_NOTFOUND = "404 Not Found",
       HTTP_BADREQUEST = "400 Bad Request",
+      HTTP_ENTITYTOOLARGE = "413 Request Entity Too Large",
       HTTP_INTERNALERROR = "500 Internal Server Error",
       HTTP_NOTIMPLEMENTED = "501 Not Implemented";
 
+  /**
+   * The largest POST body accepted - the whole body is kept in memory
+   */
+  public static final int MAX_POST_SIZE = 1024 * 1024;
+
   /**
    * Common mime types for dynamic content
    */
@@ -180,6 +219,43 @@ public class NanoHTTPD {
       MIME_HTML = "text/html",
       MIME_DEFAULT_BINARY = "application/octet-stream";
 
+  /**
+   * The maximum number of connections handled at the same time - further
+   * connections wait until a thread becomes available
+   */
+  private static final int MAX_THREADS = 16;
+
+  /**
+   * Idle threads go away after this many seconds
+   */
+  private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+  /**
+   * A connection kept open is closed if no further request arrives within
+   * this many milliseconds, so it doesn't block a thread for long
+   */
+  private static final int KEEP_ALIVE_TIMEOUT = 5000;
+
+  /**
+   * The maximum number of requests handled on one connection
+   */
+  private static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+
+  /**
+   * The maximum length of a request header line
+   */
+  private static final int MAX_LINE_LENGTH = 65536;
+
+  /**
+   * The end of a line in the HTTP protocol
+   */
+  private static final byte[] CRLF = { '\r', '\n' };
+
+  /**
+   * The end of a chunked response
+   */
+  private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
   // ==================================================
   // Socket & server code
   // ==================================================
@@ -193,11 +269,23 @@ public class NanoHTTPD {
     myTcpPort = port;
 
     final ServerSocket ss = new ServerSocket(myTcpPort);
+    // connections are handled by a limited number of threads, which go away
+    // when there is nothing to do
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS,
+        MAX_THREADS, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "HTTP session");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
     Thread t = new Thread(new Runnable() {
       public void run() {
         try {
           while (true)
-            new HTTPSession(ss.accept());
+            executor.execute(new HTTPSession(ss.accept()));
         } catch (IOException ioe) {
         }
       }
@@ -250,25 +338,53 @@ public class NanoHTTPD {
   }
 
   /**
-   * Handles one session, i.e. parses the HTTP request and returns the response.
+   * Handles one connection, i.e. parses the HTTP requests and returns the
+   * responses. With HTTP/1.1 (or a keep-alive request) several requests are
+   * read one after the other from the same connection.
    */
   private class HTTPSession implements Runnable {
     public HTTPSession(Socket s) {
       mySocket = s;
-      Thread t = new Thread(this);
-      t.setDaemon(true);
-      t.start();
     }
 
     public void run() {
       try {
+        mySocket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
         InputStream is = mySocket.getInputStream();
         if (is == null)
           return;
-        BufferedReader in = new BufferedReader(new InputStreamReader(is));
+        in = new BufferedInputStream(is);
+        out = new BufferedOutputStream(mySocket.getOutputStream());
+        boolean keepAlive = true;
+        int requests = 0;
+        while (keepAlive) {
+          requests++;
+          keepAlive = handleRequest(requests < MAX_KEEP_ALIVE_REQUESTS);
+        }
+      } catch (IOException ioe) {
+        // the connection has been closed or timed out
+      } finally {
+        try {
+          mySocket.close();
+        } catch (Throwable t) {
+        }
+      }
+    }
 
-        // Read the request line
-        StringTokenizer st = new StringTokenizer(in.readLine());
+    /**
+     * Reads one request and sends the response.
+     * 
+     * @return True if the connection is to be kept open for more requests
+     */
+    private boolean handleRequest(boolean keepAliveAllowed) throws IOException {
+      try {
+        // Read the request line - skip empty lines between requests
+        String requestLine = readLine();
+        while (requestLine != null && requestLine.trim().length() == 0)
+          requestLine = readLine();
+        if (requestLine == null)
+          return false;
+        StringTokenizer st = new StringTokenizer(requestLine);
         if (!st.hasMoreTokens())
           sendError(HTTP_BADREQUEST,
               "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
@@ -290,42 +406,62 @@ public class NanoHTTPD {
         }
 
         // If there's another token, it's protocol version,
-        // followed by HTTP headers. Ignore version but parse headers.
-        // NOTE: this now forces header names uppercase since they are
+        // followed by HTTP headers.
+        // NOTE: this now forces header names lowercase since they are
         // case insensitive and vary by client.
         Properties header = new Properties();
+        String version = "HTTP/0.9";
         if (st.hasMoreTokens()) {
-          String line = in.readLine();
-          while (line.trim().length() > 0) {
+          version = st.nextToken();
+          String line = readLine();
+          while (line != null && line.trim().length() > 0) {
             int p = line.indexOf(':');
-            header.put(line.substring(0, p).trim().toLowerCase(), line
-                .substring(p + 1).trim());
-            line = in.readLine();
+            if (p >= 0)
+              header.put(line.substring(0, p).trim().toLowerCase(), line
+                  .substring(p + 1).trim());
+            line = readLine();
           }
         }
+        String connection = header.getProperty("connection", "").toLowerCase();
+        boolean http11 = version.equals("HTTP/1.1");
+        boolean keepAlive = keepAliveAllowed
+            && (http11 ? connection.indexOf("close") < 0 : connection
+                .indexOf("keep-alive") >= 0);
 
         // If the method is POST, there may be parameters
-        // in data section, too, read it:
+        // in data section, too, read it. The body must be read exactly,
+        // the next request might follow it on the same connection.
         if (method.equalsIgnoreCase("POST")) {
-          long size = 0x7FFFFFFFFFFFFFFFl;
           String contentLength = header.getProperty("content-length");
+          int size = -1;
           if (contentLength != null) {
             try {
-              size = Integer.parseInt(contentLength);
+              size = Integer.parseInt(contentLength.trim());
             } catch (NumberFormatException ex) {
             }
           }
-          String postLine = "";
-          char buf[] = new char[512];
-          int read = in.read(buf);
-          while (read >= 0 && size > 0 && !postLine.endsWith("\r\n")) {
-            size -= read;
-            postLine += String.valueOf(buf, 0, read);
-            if (size > 0)
-              read = in.read(buf);
+          if (size > MAX_POST_SIZE)
+            sendError(HTTP_ENTITYTOOLARGE,
+                "REQUEST ENTITY TOO LARGE: The body is limited to "
+                    + MAX_POST_SIZE + " bytes.");
+          String postLine;
+          if (size >= 0) {
+            byte[] body = new byte[size];
+            int offset = 0;
+            while (offset < size) {
+              int read = in.read(body, offset, size - offset);
+              if (read < 0)
+                break;
+              offset += read;
+            }
+            postLine = new String(body, 0, offset);
+          } else {
+            // no length given - the body ends with the line
+            postLine = readLine();
+            keepAlive = false;
           }
-          postLine = postLine.trim();
-          decodeParms(postLine, parms);
+          if (postLine != null)
+            decodeParms(postLine.trim(), parms);
         }
 
         // Ok, now do the serve()
@@ -334,18 +470,42 @@ public class NanoHTTPD {
           sendError(HTTP_INTERNALERROR,
               "SERVER INTERNAL ERROR: Serve() returned a null response.");
         else
-          sendResponse(r.status, r.mimeType, r.header, r.data);
-
-        in.close();
-      } catch (IOException ioe) {
+          keepAlive = sendResponse(r.status, r.mimeType, r.header, r.data,
+              r.writer, http11, keepAlive);
+        return keepAlive;
+      } catch (InterruptedException ie) {
+        // Thrown by sendError, the connection is closed.
+        return false;
+      } catch (RuntimeException e) {
+        e.printStackTrace();
         try {
-          sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: "
-              + ioe.getMessage());
+          sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: "
+              + e.getMessage());
         } catch (Throwable t) {
         }
-      } catch (InterruptedException ie) {
-        // Thrown by sendError, ignore and exit the thread.
+        return false;
+      }
+    }
+
+    /**
+     * Reads a line of the request header, which is plain ASCII.
+     * 
+     * @return The line without the line terminator or null at the end of the
+     *         stream
+     */
+    private String readLine() throws IOException {
+      StringBuffer line = new StringBuffer();
+      int c = in.read();
+      if (c < 0)
+        return null;
+      while (c >= 0 && c != '\n') {
+        if (c != '\r')
+          line.append((char) c);
+        if (line.length() > MAX_LINE_LENGTH)
+          throw new IOException("Request line too long");
+        c = in.read();
       }
+      return line.toString();
     }
 
     /**
@@ -405,66 +565,210 @@ public class NanoHTTPD {
     private void sendError(String status, String msg)
         throws InterruptedException {
       sendResponse(status, MIME_PLAINTEXT, null, new ByteArrayInputStream(msg
-          .getBytes()));
+          .getBytes()), null, false, false);
       throw new InterruptedException();
     }
 
     /**
-     * Sends given response to the socket.
+     * Sends given response to the socket. The length of the response is sent
+     * along if it is known, otherwise the response is sent in chunks
+     * (HTTP/1.1) or the connection is closed afterwards. The data comes from
+     * the writer if there is one, otherwise from the InputStream.
+     * 
+     * @return True if the connection can be kept open
      */
-    private void sendResponse(String status, String mime, Properties header,
-        InputStream data) {
+    private boolean sendResponse(String status, String mime,
+        Properties header, InputStream data, ContentWriter writer,
+        boolean http11, boolean keepAlive) {
       try {
         if (status == null)
           throw new Error("sendResponse(): Status can't be null.");
-
-        OutputStream out = mySocket.getOutputStream();
-        PrintWriter pw = new PrintWriter(out);
-        pw.print("HTTP/1.0 " + status + " \r\n");
+        String contentLength = null;
+        if (header != null) {
+          Enumeration<Object> e = header.keys();
+          while (e.hasMoreElements()) {
+            String key = (String) e.nextElement();
+            if (key.equalsIgnoreCase("Content-Length"))
+              contentLength = header.getProperty(key);
+          }
+        }
+        // the length is only added if the header doesn't contain it
+        boolean addLength = contentLength == null;
+        if (contentLength == null && data instanceof ByteArrayInputStream)
+          contentLength = Integer.toString(data.available());
+        if (contentLength == null && data == null && writer == null)
+          contentLength = "0";
+        boolean chunked = contentLength == null && http11 && keepAlive;
+        if (contentLength == null && !chunked)
+          keepAlive = false;
+
+        StringBuffer head = new StringBuffer();
+        head.append(http11 ? "HTTP/1.1 " : "HTTP/1.0 ").append(status)
+            .append(" \r\n");
 
         if (mime != null)
-          pw.print("Content-Type: " + mime + "\r\n");
+          head.append("Content-Type: ").append(mime).append("\r\n");
 
         if (header == null || header.getProperty("Date") == null)
-          pw.print("Date: " + gmtFrmt.format(new Date()) + "\r\n");
+          head.append("Date: ").append(formatDate(new Date())).append("\r\n");
 
         if (header != null) {
           Enumeration e = header.keys();
           while (e.hasMoreElements()) {
             String key = (String) e.nextElement();
             String value = header.getProperty(key);
-            pw.print(key + ": " + value + "\r\n");
+            head.append(key).append(": ").append(value).append("\r\n");
           }
         }
+        if (addLength && contentLength != null)
+          head.append("Content-Length: ").append(contentLength).append("\r\n");
+        if (chunked)
+          head.append("Transfer-Encoding: chunked\r\n");
+        if (keepAlive) {
+          if (!http11)
+            head.append("Connection: keep-alive\r\n");
+        } else {
+          head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
 
-        pw.print("\r\n");
-        pw.flush();
-
+        if (writer != null) {
+          ContentOutputStream contentOut = new ContentOutputStream(out,
+              chunked);
+          try {
+            writer.writeTo(contentOut);
+          } catch (RuntimeException e) {
+            // the header has been sent already, all we can do is to close
+            // the connection, so the client notices the incomplete response
+            e.printStackTrace();
+            return false;
+          }
+          contentOut.finish();
+          out.flush();
+          return keepAlive;
+        }
         if (data != null) {
-          byte[] buff = new byte[2048];
+          byte[] buff = new byte[8192];
           while (true) {
-            int read = data.read(buff, 0, 2048);
+            int read = data.read(buff, 0, buff.length);
             if (read <= 0)
               break;
-            out.write(buff, 0, read);
+            if (chunked) {
+              out.write((Integer.toHexString(read) + "\r\n")
+                  .getBytes("ISO-8859-1"));
+              out.write(buff, 0, read);
+              out.write(CRLF);
+            } else {
+              out.write(buff, 0, read);
+            }
           }
+          data.close();
         }
+        if (chunked)
+          out.write(LAST_CHUNK);
         out.flush();
-        out.close();
-        if (data != null)
-          data.close();
+        return keepAlive;
       } catch (IOException ioe) {
         // Couldn't write? No can do.
-        try {
-          mySocket.close();
-        } catch (Throwable t) {
-        }
+        return false;
       }
     }
 
     private Socket mySocket;
+
+    private InputStream in;
+
+    private OutputStream out;
   };
 
+  /**
+   * The stream handed to a ContentWriter. It collects the data in chunks,
+   * which are sent with their length if the response is chunked, and it
+   * doesn't close the connection when it is closed.
+   */
+  private static class ContentOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    private final boolean chunked;
+
+    private final byte[] buffer = new byte[8192];
+
+    private int count = 0;
+
+    private boolean finished = false;
+
+    ContentOutputStream(OutputStream out, boolean chunked) {
+      this.out = out;
+      this.chunked = chunked;
+    }
+
+    public void write(int b) throws IOException {
+      if (finished)
+        throw new IOException("Stream closed");
+      if (count == buffer.length)
+        sendBuffer();
+      buffer[count++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (finished)
+        throw new IOException("Stream closed");
+      while (len > 0) {
+        if (count == buffer.length)
+          sendBuffer();
+        int length = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, length);
+        count += length;
+        off += length;
+        len -= length;
+      }
+    }
+
+    public void flush() throws IOException {
+      sendBuffer();
+      out.flush();
+    }
+
+    public void close() throws IOException {
+      sendBuffer();
+    }
+
+    /**
+     * Sends what is left and ends the data.
+     */
+    void finish() throws IOException {
+      if (!finished) {
+        sendBuffer();
+        if (chunked)
+          out.write(LAST_CHUNK);
+        finished = true;
+      }
+    }
+
+    private void sendBuffer() throws IOException {
+      if (count == 0)
+        return;
+      if (chunked) {
+        out.write((Integer.toHexString(count) + "\r\n").getBytes("ISO-8859-1"));
+        out.write(buffer, 0, count);
+        out.write(CRLF);
+      } else {
+        out.write(buffer, 0, count);
+      }
+      count = 0;
+    }
+  }
+
+  /**
+   * Formats a date for the Date header - the formatter isn't thread safe.
+   */
+  private static String formatDate(Date date) {
+    synchronized (gmtFrmt) {
+      return gmtFrmt.format(date);
+    }
+  }
+
   /**
    * URL-encodes everything between "/"-characters. Encodes spaces as '%20'
    * instead of '+'.
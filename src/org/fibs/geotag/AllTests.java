@@ -21,12 +21,15 @@ package org.fibs.geotag;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
+import org.fibs.geotag.image.RawImageFileTest;
 import org.fibs.geotag.track.KmlTest;
+import org.fibs.geotag.track.TrackMatcherTest;
 import org.fibs.geotag.track.TrackStoreTest;
 import org.fibs.geotag.util.Ascii2NativeTest;
 import org.fibs.geotag.util.BoundsTypeUtilTest;
 import org.fibs.geotag.util.CommandLineTokenizerTest;
 import org.fibs.geotag.util.CoordinatesTest;
+import org.fibs.geotag.util.ExifTimeTest;
 import org.fibs.geotag.util.FileUtilTest;
 import org.fibs.geotag.util.FontUtilTest;
 
@@ -48,6 +51,9 @@ public class AllTests extends TestSuite {
     suite.addTestSuite(CoordinatesTest.class);
     suite.addTestSuite(Ascii2NativeTest.class);
     suite.addTestSuite(CommandLineTokenizerTest.class);
+    suite.addTestSuite(ExifTimeTest.class);
+    suite.addTestSuite(TrackMatcherTest.class);
+    suite.addTestSuite(RawImageFileTest.class);
     return suite;
   }
 }
@@ -35,6 +35,7 @@ import org.fibs.geotag.gui.WhatNext;
 import org.fibs.geotag.gui.flattr.FlattrImageLoader;
 import org.fibs.geotag.i18n.Messages_po;
 import org.fibs.geotag.util.Constants;
+import org.fibs.geotag.util.JaxbRegistry;
 import org.fibs.geotag.util.LocaleUtil;
 import org.fibs.geotag.util.Util;
 import org.xnap.commons.i18n.I18n;
@@ -164,6 +165,8 @@ public final class Geotag {
     // log java version
     logJavaVersion();
     logLocale();
+    // creating the JAXB contexts takes a while - do it in the background
+    JaxbRegistry.warmUp();
     try {
       UIManager.setLookAndFeel(new Plastic3DLookAndFeel());
     } catch (Exception e) {
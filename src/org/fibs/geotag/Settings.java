@@ -54,6 +54,10 @@ public final class Settings {
     PREVIEW_HEIGHT,
     /** Preference key for thumbnail size (longest side in pixels) . */
     THUMBNAIL_SIZE,
+    /** Preference key for the size of the thumbnail cache on disk in MB. */
+    THUMBNAIL_CACHE_SIZE,
+    /** Preference key for the memory used for thumbnails in MB. */
+    THUMBNAIL_MEMORY_SIZE,
     /** Preferences key for showing thumbnails in tooltips. */
     TUMBNAILS_IN_TOOLTIPS,
     /** Preference key for storing the last single file the user chose. */
@@ -68,6 +72,10 @@ public final class Settings {
     EXIFTOOL_PATH,
     /** Preferences key for additional exiftool arguments. */
     EXIFTOOL_ARGUMENTS,
+    /** Preferences key for the number of exiftool processes kept running. */
+    EXIFTOOL_POOL_SIZE,
+    /** Preferences key for the exiftool command timeout in seconds. */
+    EXIFTOOL_TIMEOUT,
     /** Preference key for storing the path to the GPSBabel executable. */
     GPSBABEL_PATH,
     /** Preferences key for the protocol used by GPSBabel (the argument for -i). */
@@ -19,20 +19,25 @@
 package org.fibs.geotag.data;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.ImageIcon;
 
 import org.fibs.geotag.geonames.Location;
+import org.fibs.geotag.image.ThumbnailStore;
 import org.fibs.geotag.util.Constants;
+import org.fibs.geotag.util.ExifTime;
 
 /**
  * A class holding the information we have for an image.
@@ -86,23 +91,27 @@ public class ImageInfo implements Comparable<ImageInfo> {
     AVAILABLE,
   }
 
-  /** A HashMap containing the data. We use the file path as the key. */
-  private static HashMap<String, ImageInfo> values = new HashMap<String, ImageInfo>();
-
-  /** The date format pattern used. */
-  private static final String DATE_FORMAT_PATTERN = "yyyy:MM:dd HH:mm:ss"; //$NON-NLS-1$
+  /** The numeric values that have cached display strings. */
+  public enum DISPLAY {
+    /** The latitude. */
+    LATITUDE,
+    /** The longitude. */
+    LONGITUDE,
+    /** The altitude. */
+    ALTITUDE,
+    /** The direction. */
+    DIRECTION
+  }
 
-  /** Defines how date/time is formatted in EXIF terms. 
-   * Do not use static date formats. They are not thread safe
-   * and should not be shared.
+  /**
+   * A HashMap containing the data. We use the file path as the key. The
+   * references are weak, so images no longer used anywhere can be garbage
+   * collected.
    */
-  private final SimpleDateFormat dateFormat = new SimpleDateFormat(
-      DATE_FORMAT_PATTERN);
+  private static HashMap<String, WeakReference<ImageInfo>> values = new HashMap<String, WeakReference<ImageInfo>>();
 
-  // don't forget to set the time zone for the DateFormat as well
-  {
-    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
-  }
+  /** The date format pattern used. */
+  private static final String DATE_FORMAT_PATTERN = ExifTime.PATTERN;
 
   /** we keep track of number of instances created. */
   private static int instancesCreated = 0;
@@ -116,12 +125,12 @@ public class ImageInfo implements Comparable<ImageInfo> {
   /** The image filename without the path. */
   private String name;
 
-  /** A thumbnail of the image. */
-  private ImageIcon thumbnail;
-
   /** Ehat do we know about availability of a thumbnail image. */
   private THUMBNAIL_STATUS thumbNailStatus = THUMBNAIL_STATUS.UNKNOWN;
 
+  /** Counts the changes of the thumbnail, so copies can be recognised as old. */
+  private volatile int thumbnailVersion = 0;
+
   /** The image width in pixels. */
   private int width;
 
@@ -131,21 +140,63 @@ public class ImageInfo implements Comparable<ImageInfo> {
   /** The CameraDate entry. */
   private String cameraDate;
 
+  /**
+   * The camera date in milliseconds since 1970, as if the camera was set to
+   * GMT. {@link ExifTime#NO_TIME} if unknown.
+   */
+  private long cameraTime = ExifTime.NO_TIME;
+
   /** THE GPSLatitude EXIF entry. */
   private String gpsLatitude;
 
+  /** The GPSLatitude as a number - NaN if not available. */
+  private double latitude = Double.NaN;
+
   /** The GPSLongitude EXIF entry. */
   private String gpsLongitude;
 
+  /** The GPSLongitude as a number - NaN if not available. */
+  private double longitude = Double.NaN;
+
   /** The GPSAltitude EXIF entry. */
   private String gpsAltitude;
 
+  /** The GPSAltitude in metres - NaN if not available. */
+  private double altitude = Double.NaN;
+
   /** The GPSImgDirection EXIF entry. */
   private String gpsImgDirection;
 
+  /** The GPSImgDirection as a number - NaN if not available. */
+  private double direction = Double.NaN;
+
+  /**
+   * The strings used to display the numeric values, indexed by
+   * {@link DISPLAY} - null until the first one is set.
+   */
+  private String[] displayStrings;
+
+  /** The values the display strings were created from. */
+  private double[] displayValues;
+
+  /** The display generation the display strings were created for. */
+  private int displayStringsGeneration;
+
+  /** Changes whenever the way numeric values are displayed changes. */
+  private static volatile int displayGeneration = 0;
+
+  /** Changes whenever the location of an image changes. */
+  private static AtomicInteger locationGeneration = new AtomicInteger();
+
   /** The GPSDateTime EXIF entry. */
   private String gpsDateTime;
 
+  /**
+   * The GPSDateTime in milliseconds since 1970. {@link ExifTime#NO_TIME} if
+   * unknown.
+   */
+  private long gpsTime = ExifTime.NO_TIME;
+
   /** Nearby locations we have found. */
   private List<Location> nearbyLocations;
 
@@ -170,12 +221,11 @@ public class ImageInfo implements Comparable<ImageInfo> {
   /** Where does the location data come from. */
   private DATA_SOURCE source = DATA_SOURCE.NONE;
 
-  /** The correct time as a {@link Calendar} for convenience. */
-  private Calendar exactTimeGMT = Calendar.getInstance(TimeZone
-      .getTimeZone("GMT")); //$NON-NLS-1$
-
-  /** A list of instances, used to retrieve an instance by sequenceNumber. */
-  private static List<ImageInfo> instances = new ArrayList<ImageInfo>();
+  /**
+   * A list of (weak references to) instances, used to retrieve an instance by
+   * sequenceNumber.
+   */
+  private static List<WeakReference<ImageInfo>> instances = new ArrayList<WeakReference<ImageInfo>>();
 
   /**
    * Construct an image info object for an image.
@@ -184,14 +234,17 @@ public class ImageInfo implements Comparable<ImageInfo> {
    *          The file containing the image
    */
   public ImageInfo(File file) {
-    // first we create an id for this ImageInfo;
-    instancesCreated++;
-    sequenceNumber = instancesCreated;
-    instances.add(this);
     // first some trivial information about the image
     this.name = file.getName();
     this.path = file.getPath();
-    values.put(path, this);
+    WeakReference<ImageInfo> reference = new WeakReference<ImageInfo>(this);
+    synchronized (instances) {
+      // first we create an id for this ImageInfo;
+      instancesCreated++;
+      sequenceNumber = instancesCreated;
+      instances.add(reference);
+      values.put(path, reference);
+    }
   }
 
   /**
@@ -203,18 +256,22 @@ public class ImageInfo implements Comparable<ImageInfo> {
    * @return The time difference in seconds
    */
   public int calculateOffset(String gmtDateString, String localDateString) {
-    int offset = 0;
-    if (gmtDateString != null && localDateString != null) {
-      try {
-        Date gmtDate = dateFormat.parse(gmtDateString);
-        Date localDate = dateFormat.parse(localDateString);
+    return calculateOffset(ExifTime.parse(gmtDateString), ExifTime
+        .parse(localDateString));
+  }
 
-        offset = (int) ((localDate.getTime() - gmtDate.getTime()) / (double) Constants.ONE_SECOND_IN_MILLIS);
-      } catch (ParseException e) {
-        e.printStackTrace();
-      }
+  /**
+   * Calculate the difference between local time and GMT time.
+   * 
+   * @param gmtTime
+   * @param localTime
+   * @return The time difference in seconds - 0 if one of the times is unknown
+   */
+  private static int calculateOffset(long gmtTime, long localTime) {
+    if (gmtTime == ExifTime.NO_TIME || localTime == ExifTime.NO_TIME) {
+      return 0;
     }
-    return offset;
+    return (int) ((localTime - gmtTime) / Constants.ONE_SECOND_IN_MILLIS);
   }
 
   /**
@@ -226,14 +283,12 @@ public class ImageInfo implements Comparable<ImageInfo> {
    * @return The adjusted time as a string
    */
   public String subtractOffset(String localDateString, int offset) {
-    try {
-      Date date = dateFormat.parse(localDateString);
-      date.setTime(date.getTime() - offset * Constants.ONE_SECOND_IN_MILLIS);
-      return dateFormat.format(date);
-    } catch (ParseException e) {
-      e.printStackTrace();
+    long time = ExifTime.parse(localDateString);
+    if (time == ExifTime.NO_TIME) {
+      System.err.println("Unparseable date: " + localDateString); //$NON-NLS-1$
+      return ""; //$NON-NLS-1$
     }
-    return ""; //$NON-NLS-1$
+    return ExifTime.format(time - offset * Constants.ONE_SECOND_IN_MILLIS);
   }
 
   /**
@@ -244,9 +299,9 @@ public class ImageInfo implements Comparable<ImageInfo> {
    */
   @Override
   public int compareTo(ImageInfo imageInfo) {
-    // the GPSDateTime shouldn't be null, but we check anyway
-    if (getGpsDateTime() != null && imageInfo.getGpsDateTime() != null) {
-      return getGpsDateTime().compareTo(imageInfo.getGpsDateTime());
+    // the GPSDateTime shouldn't be unknown, but we check anyway
+    if (gpsTime != ExifTime.NO_TIME && imageInfo.gpsTime != ExifTime.NO_TIME) {
+      return gpsTime < imageInfo.gpsTime ? -1 : (gpsTime == imageInfo.gpsTime ? 0 : 1);
     }
     // if that fails, compare the name
     return getName().compareTo(imageInfo.getName());
@@ -264,11 +319,22 @@ public class ImageInfo implements Comparable<ImageInfo> {
    * 
    * @param sequenceNumer
    *          The sequenceNumber of the {@link ImageInfo} wanted
-   * @return The {@link ImageInfo} with the given sequenceNumber
+   * @return The {@link ImageInfo} with the given sequenceNumber or null if it
+   *         is no longer in use
    */
   public static ImageInfo getImageInfo(int sequenceNumer) {
-    /* sequence numbers start at 1, array indices start at 0 */
-    return instances.get(sequenceNumer - 1);
+    synchronized (instances) {
+      /* sequence numbers start at 1, array indices start at 0 */
+      return instances.get(sequenceNumer - 1).get();
+    }
+  }
+
+  /**
+   * @return A number that changes whenever the location of an image changes,
+   *         so data derived from the locations can be recognised as old
+   */
+  public static int getLocationGeneration() {
+    return locationGeneration.get();
   }
 
   /**
@@ -280,8 +346,13 @@ public class ImageInfo implements Comparable<ImageInfo> {
    */
   public static List<ImageInfo> getImagesInfos(Filter filter) {
     List<ImageInfo> result = new ArrayList<ImageInfo>();
-    for (ImageInfo imageInfo : instances) {
-      if (filter.accept(imageInfo)) {
+    List<WeakReference<ImageInfo>> references;
+    synchronized (instances) {
+      references = new ArrayList<WeakReference<ImageInfo>>(instances);
+    }
+    for (WeakReference<ImageInfo> reference : references) {
+      ImageInfo imageInfo = reference.get();
+      if (imageInfo != null && filter.accept(imageInfo)) {
         result.add(imageInfo);
       }
     }
@@ -296,7 +367,17 @@ public class ImageInfo implements Comparable<ImageInfo> {
    * @return The ImageInfo for that file, or null if not found
    */
   public static ImageInfo getImageInfo(String filePath) {
-    return values.get(filePath);
+    synchronized (instances) {
+      WeakReference<ImageInfo> reference = values.get(filePath);
+      if (reference == null) {
+        return null;
+      }
+      ImageInfo imageInfo = reference.get();
+      if (imageInfo == null) {
+        values.remove(filePath);
+      }
+      return imageInfo;
+    }
   }
 
   /**
@@ -381,11 +462,19 @@ public class ImageInfo implements Comparable<ImageInfo> {
     this.thumbNailStatus = thumbNailStatus;
   }
 
+  /**
+   * @return True if a thumbnail is available - it might have to be reloaded
+   *         though.
+   */
+  public boolean hasThumbnail() {
+    return thumbNailStatus == THUMBNAIL_STATUS.AVAILABLE;
+  }
+
   /**
    * @return the thumbnail
    */
   public ImageIcon getThumbnail() {
-    return thumbnail;
+    return ThumbnailStore.get(this);
   }
 
   /**
@@ -393,7 +482,20 @@ public class ImageInfo implements Comparable<ImageInfo> {
    *          the thumbnail to set
    */
   public void setThumbnail(ImageIcon thumbnail) {
-    this.thumbnail = thumbnail;
+    thumbnailVersion++;
+    if (thumbnail == null) {
+      ThumbnailStore.remove(this);
+    } else {
+      ThumbnailStore.put(this, thumbnail);
+    }
+  }
+
+  /**
+   * @return The version of the thumbnail - it changes whenever a new
+   *         thumbnail is set
+   */
+  public int getThumbnailVersion() {
+    return thumbnailVersion;
   }
 
   /**
@@ -431,7 +533,7 @@ public class ImageInfo implements Comparable<ImageInfo> {
    *         Returns <code>Double.NaN</code> if the difference is undefined.
    */
   public int getOffset() {
-    return calculateOffset(getGpsDateTime(), getCameraDate());
+    return calculateOffset(gpsTime, cameraTime);
   }
 
   /**
@@ -476,6 +578,7 @@ public class ImageInfo implements Comparable<ImageInfo> {
    */
   void setCameraDate(String cameraDate) {
     this.cameraDate = cameraDate;
+    cameraTime = ExifTime.parse(cameraDate);
   }
 
   /**
@@ -485,6 +588,13 @@ public class ImageInfo implements Comparable<ImageInfo> {
     return gpsLatitude;
   }
 
+  /**
+   * @return the latitude - NaN if not available
+   */
+  public double getLatitude() {
+    return latitude;
+  }
+
   /**
    * This has package visibility to force the use of undo-able edits.
    * 
@@ -494,8 +604,10 @@ public class ImageInfo implements Comparable<ImageInfo> {
    *          Where the position information comes from
    */
   void setGpsLatitude(String latitude, DATA_SOURCE source) {
-    this.gpsLatitude = latitude;
+    this.latitude = parse(latitude);
+    this.gpsLatitude = Double.isNaN(this.latitude) ? null : latitude;
     this.source = source;
+    locationGeneration.incrementAndGet();
   }
 
   /**
@@ -505,6 +617,13 @@ public class ImageInfo implements Comparable<ImageInfo> {
     return gpsLongitude;
   }
 
+  /**
+   * @return the longitude - NaN if not available
+   */
+  public double getLongitude() {
+    return longitude;
+  }
+
   /**
    * This has package visibility to force the use of undo-able edits.
    * 
@@ -514,8 +633,10 @@ public class ImageInfo implements Comparable<ImageInfo> {
    *          Where the position data comes from
    */
   void setGpsLongitude(String longitude, DATA_SOURCE source) {
-    this.gpsLongitude = longitude;
+    this.longitude = parse(longitude);
+    this.gpsLongitude = Double.isNaN(this.longitude) ? null : longitude;
     this.source = source;
+    locationGeneration.incrementAndGet();
   }
 
   /**
@@ -525,6 +646,13 @@ public class ImageInfo implements Comparable<ImageInfo> {
     return gpsAltitude;
   }
 
+  /**
+   * @return the altitude in metres - NaN if not available
+   */
+  public double getAltitude() {
+    return altitude;
+  }
+
   /**
    * This has package visibility to force the use of undo-able edits.
    * 
@@ -534,7 +662,8 @@ public class ImageInfo implements Comparable<ImageInfo> {
    *          Where the position data comes from
    */
   void setGpsAltitudeInMetres(String altitude, DATA_SOURCE source) {
-    gpsAltitude = altitude;
+    this.altitude = parse(altitude);
+    gpsAltitude = Double.isNaN(this.altitude) ? null : altitude;
     this.source = source;
   }
 
@@ -544,19 +673,113 @@ public class ImageInfo implements Comparable<ImageInfo> {
    * @return the GPS image direction
    */
   public String getGpsImgDirection() {
-    // return null if the image direction is NaN
-    if (gpsImgDirection != null && "NaN".equals(gpsImgDirection)) { //$NON-NLS-1$
-      return null;
-    }
     return gpsImgDirection;
   }
 
+  /**
+   * @return the GPS image direction - NaN if not available
+   */
+  public double getDirection() {
+    return direction;
+  }
+
   /**
    * @param direction
    *          The direction to set
    */
   void setGpsImgDirection(String direction) {
-    gpsImgDirection = direction;
+    this.direction = parse(direction);
+    // a direction of NaN means there is no direction
+    gpsImgDirection = Double.isNaN(this.direction) ? null : direction;
+  }
+
+  /**
+   * @param value
+   * @return The value as a number - NaN if it is null or not a number
+   */
+  private static double parse(String value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * @param display
+   * @return The numeric value shown by the display string
+   */
+  private double getDisplayValue(DISPLAY display) {
+    switch (display) {
+      case LATITUDE:
+        return latitude;
+      case LONGITUDE:
+        return longitude;
+      case ALTITUDE:
+        return altitude;
+      case DIRECTION:
+        return direction;
+      default:
+        return Double.NaN;
+    }
+  }
+
+  /**
+   * Get a cached display string. It is only returned if the value hasn't
+   * changed since the string was set, and the display settings haven't changed
+   * either.
+   * 
+   * @param display
+   *          The value to be displayed
+   * @return The display string or null if there is none
+   */
+  public String getDisplayString(DISPLAY display) {
+    // take local copies, the strings might be replaced by another thread
+    String[] strings = displayStrings;
+    double[] stringValues = displayValues;
+    if (strings == null || displayStringsGeneration != displayGeneration) {
+      return null;
+    }
+    int index = display.ordinal();
+    if (Double.compare(stringValues[index], getDisplayValue(display)) != 0) {
+      return null;
+    }
+    return strings[index];
+  }
+
+  /**
+   * Cache the string used to display a value.
+   * 
+   * @param display
+   *          The value displayed
+   * @param value
+   *          The numeric value the string was created from
+   * @param string
+   *          The display string
+   */
+  public void setDisplayString(DISPLAY display, double value, String string) {
+    int generation = displayGeneration;
+    if (displayStrings == null || displayStringsGeneration != generation) {
+      String[] strings = new String[DISPLAY.values().length];
+      double[] stringValues = new double[strings.length];
+      Arrays.fill(stringValues, Double.NaN);
+      displayValues = stringValues;
+      displayStrings = strings;
+      displayStringsGeneration = generation;
+    }
+    displayValues[display.ordinal()] = value;
+    displayStrings[display.ordinal()] = string;
+  }
+
+  /**
+   * Must be called when a setting changes that affects the display strings.
+   * All cached display strings will be created again.
+   */
+  public static void displaySettingsChanged() {
+    displayGeneration++;
   }
 
   /**
@@ -574,16 +797,17 @@ public class ImageInfo implements Comparable<ImageInfo> {
    */
   void setGpsDateTime(String dateTime) {
     if (dateTime != null) {
-      try {
-        Date parsedDate = dateFormat.parse(dateTime);
-        exactTimeGMT.setTime(parsedDate);
-        // only set the gpsDateTime if parsing doesn't fail
+      long time = ExifTime.parse(dateTime);
+      // only set the gpsDateTime if parsing doesn't fail
+      if (time != ExifTime.NO_TIME) {
+        gpsTime = time;
         this.gpsDateTime = dateTime;
-      } catch (ParseException e) {
-        e.printStackTrace();
+      } else {
+        System.err.println("Unparseable date: " + dateTime); //$NON-NLS-1$
       }
     } else {
       this.gpsDateTime = null;
+      gpsTime = ExifTime.NO_TIME;
     }
   }
 
@@ -600,8 +824,7 @@ public class ImageInfo implements Comparable<ImageInfo> {
         // parse the date as local time zone
         Date date = format.parse(cameraDate);
         // and format it back to GMT
-        format.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
-        String gmtTime = format.format(date);
+        String gmtTime = ExifTime.format(date.getTime());
         // update
         new UpdateGPSDateTime(this, gmtTime);
       } catch (ParseException e) {
@@ -614,7 +837,19 @@ public class ImageInfo implements Comparable<ImageInfo> {
    * @return the GPS time as a calendar
    */
   public Calendar getTimeGMT() {
-    return exactTimeGMT;
+    Calendar timeGMT = Calendar.getInstance(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+    if (gpsTime != ExifTime.NO_TIME) {
+      timeGMT.setTimeInMillis(gpsTime);
+    }
+    return timeGMT;
+  }
+
+  /**
+   * @return the GPS time in milliseconds since 1970 - {@link ExifTime#NO_TIME}
+   *         if unknown
+   */
+  public long getGpsTime() {
+    return gpsTime;
   }
 
   /**
@@ -765,16 +1000,6 @@ public class ImageInfo implements Comparable<ImageInfo> {
     return DATE_FORMAT_PATTERN;
   }
 
-  /**
-   * Make the date format available to the outside world. Can be quite useful
-   * for debugging.
-   * 
-   * @return The standard GMT date format used in this class
-   */
-  public SimpleDateFormat getDateFormat() {
-    return dateFormat;
-  }
-
   /**
    * A class used for filtering image infos. Used for example to retrieve all
    * images with coordinates.
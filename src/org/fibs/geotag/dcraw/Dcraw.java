@@ -142,10 +142,7 @@ public final class Dcraw {
       try {
         process.waitFor();
         // wait until the gobbler is done gobbling
-        final int sleeptime = 10;
-        while (gobbler.isAlive()) {
-          Thread.sleep(sleeptime);
-        }
+        gobbler.join();
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
@@ -18,15 +18,7 @@
 
 package org.fibs.geotag.exif;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -37,7 +29,6 @@ import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.image.FileTypes;
 import org.fibs.geotag.util.CommandLineTokenizer;
 import org.fibs.geotag.util.FileUtil;
-import org.fibs.geotag.util.InputStreamGobbler;
 
 /**
  * A class for writing EXIF information.
@@ -97,95 +88,21 @@ public class ExifWriter {
    * @param imageInfo
    * @param xmp
    *          Determines if data is written to image or XMP file
-   * @return True if the exiftool process was called successfully
+   * @return True if exiftool was called successfully
    */
   private boolean write(ImageInfo imageInfo, boolean xmp) {
-    boolean success = false;
-    // create a temporary file for the arguments
-    File argumentsFile = null;
-    OutputStream argumentsOutputStream = null;
-    Writer argumentsWriter = null;
-    try {
-      argumentsFile = File.createTempFile("args", null); //$NON-NLS-1$
-      argumentsFile.deleteOnExit();
-      argumentsOutputStream = new FileOutputStream(argumentsFile);
-      argumentsWriter = new OutputStreamWriter(argumentsOutputStream, "UTF-8"); //$NON-NLS-1$
-    } catch (IOException e) {
-      e.printStackTrace();
-      if (argumentsOutputStream != null) {
-        try {
-          argumentsOutputStream.close();
-        } catch (IOException e1) {
-          e1.printStackTrace();
-        }
-      }
-      return false;
-    } 
-    // first we build the command
-    List<String> command = new ArrayList<String>();
-    // the command name
-    String exiftool = Settings.get(SETTING.EXIFTOOL_PATH, "exiftool"); //$NON-NLS-1$
-    command.add(exiftool);
-    command.add("-@"); //$NON-NLS-1$
-    command.add(argumentsFile.getPath());
-
     List<String> arguments = null;
     if (xmp) {
       arguments = xmpArguments(imageInfo);
     } else {
       arguments = exifArguments(imageInfo);
     }
-
-    try {
-      for (String argument : arguments) {
-        argumentsWriter.write(argument + "\n"); //$NON-NLS-1$
-      }
-
-    } catch (UnsupportedEncodingException e1) {
-      e1.printStackTrace();
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    try {
-      argumentsWriter.flush();
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
-    try {
-      argumentsWriter.close();
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
-    try {
-      if (argumentsOutputStream != null) {
-        argumentsOutputStream.close();
-      }
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
-
-    ProcessBuilder processBuilder = new ProcessBuilder(command);
-    try {
-      Process process = processBuilder.redirectErrorStream(true).start();
-      // now start a thread that reads the input stream of the process and
-      // writes it to stdout
-      ByteArrayOutputStream exiftoolOutput = new ByteArrayOutputStream();
-      new InputStreamGobbler(process, exiftoolOutput).start();
-      // we wait for the process to finish
-      process.waitFor();
-      System.out.println(exiftoolOutput.toString());
-      success = !exiftoolOutput.toString().contains(
-          "files weren't updated due to errors"); //$NON-NLS-1$
-      exiftoolOutput.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+    String exiftoolOutput = Exiftool.execute(arguments);
+    if (exiftoolOutput == null) {
+      return false;
     }
-    return success;
+    System.out.println(exiftoolOutput);
+    return !exiftoolOutput.contains("files weren't updated due to errors"); //$NON-NLS-1$
   }
 
   /**
@@ -213,26 +130,26 @@ public class ExifWriter {
     // the GPSVersion needs to be set to 2.2.0.0
     arguments.add("-GPSVersionID=2 2 0 0"); //$NON-NLS-1$
     // the latitude
-    if (imageInfo.getGpsLatitude() != null) {
-      double latitude = Double.parseDouble(imageInfo.getGpsLatitude());
+    double latitude = imageInfo.getLatitude();
+    if (!Double.isNaN(latitude)) {
       arguments.add("-GPSLatitudeRef=" + (latitude >= 0.0 ? 'N' : 'S')); //$NON-NLS-1$
       arguments.add("-GPSLatitude=" + Math.abs(latitude)); //$NON-NLS-1$
     }
     // the longitude
-    if (imageInfo.getGpsLongitude() != null) {
-      double longitude = Double.parseDouble(imageInfo.getGpsLongitude());
+    double longitude = imageInfo.getLongitude();
+    if (!Double.isNaN(longitude)) {
       arguments.add("-GPSLongitudeRef=" + (longitude >= 0.0 ? 'E' : 'W')); //$NON-NLS-1$
       arguments.add("-GPSLongitude=" + Math.abs(longitude)); //$NON-NLS-1$
     }
     // the altitude
-    if (imageInfo.getGpsAltitude() != null) {
-      double altitude = Double.parseDouble(imageInfo.getGpsAltitude());
+    double altitude = imageInfo.getAltitude();
+    if (!Double.isNaN(altitude)) {
       arguments.add("-GPSAltitudeRef=" + (altitude >= 0.0 ? '0' : '1')); //$NON-NLS-1$
       arguments.add("-GPSAltitude=" + Math.abs(altitude)); //$NON-NLS-1$
     }
     // the direction if we have one
-    if (imageInfo.getGpsImgDirection() != null) {
-      double direction = Double.parseDouble(imageInfo.getGpsImgDirection());
+    double direction = imageInfo.getDirection();
+    if (!Double.isNaN(direction)) {
       arguments.add("-GPSImgDirection=" + direction); //$NON-NLS-1$
       arguments.add("-GPSImgDirectionRef=T"); //$NON-NLS-1$
     }
@@ -317,26 +234,26 @@ public class ExifWriter {
     // the GPSVersion needs to be set to 2.2.0.0
     arguments.add("-XMP:GPSVersionID=2.2.0.0"); //$NON-NLS-1$
     // the latitude
-    if (imageInfo.getGpsLatitude() != null) {
-      double latitude = Double.parseDouble(imageInfo.getGpsLatitude());
+    double latitude = imageInfo.getLatitude();
+    if (!Double.isNaN(latitude)) {
       // No LatitudeRef or LongitudeRef in XMP - used signed values
       arguments.add("-XMP:GPSLatitude=" + latitude); //$NON-NLS-1$
     }
     // the longitude
-    if (imageInfo.getGpsLongitude() != null) {
-      double longitude = Double.parseDouble(imageInfo.getGpsLongitude());
+    double longitude = imageInfo.getLongitude();
+    if (!Double.isNaN(longitude)) {
       arguments.add("-XMP:GPSLongitude=" + longitude); //$NON-NLS-1$
     }
     // the altitude
-    if (imageInfo.getGpsAltitude() != null) {
-      double altitude = Double.parseDouble(imageInfo.getGpsAltitude());
+    double altitude = imageInfo.getAltitude();
+    if (!Double.isNaN(altitude)) {
       // Strangely the AltitudeRef is still used in XMP
       arguments.add("-XMP:GPSAltitudeRef=" + (altitude >= 0.0 ? '0' : '1')); //$NON-NLS-1$
       arguments.add("-XMP:GPSAltitude=" + Math.abs(altitude)); //$NON-NLS-1$
     }
     // the direction if we have one
-    if (imageInfo.getGpsImgDirection() != null) {
-      double direction = Double.parseDouble(imageInfo.getGpsImgDirection());
+    double direction = imageInfo.getDirection();
+    if (!Double.isNaN(direction)) {
       arguments.add("-XMP:GPSImgDirection=" + direction); //$NON-NLS-1$
       arguments.add("-XMP:GPSImgDirectionRef=T"); //$NON-NLS-1$
     }
@@ -19,7 +19,12 @@
 package org.fibs.geotag.exif;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -76,10 +81,151 @@ public final class Exiftool {
     return false;
   }
 
+  /**
+   * The arguments telling exiftool that file names are UTF-8 encoded, as they
+   * are when passed in an argument file or on the standard input instead of
+   * the command line.
+   * 
+   * @return The arguments - none if exiftool is too old to understand them
+   */
+  static List<String> fileNameCharsetArguments() {
+    List<String> arguments = new ArrayList<String>();
+    // -charset filename was introduced in exiftool 9.79
+    if (versionAtLeast(9, 79)) {
+      arguments.add("-charset"); //$NON-NLS-1$
+      arguments.add("filename=utf8"); //$NON-NLS-1$
+    }
+    return arguments;
+  }
+
+  /**
+   * @return true if exiftool sessions should be used
+   */
+  private static boolean useSessions() {
+    // -stay_open was introduced in exiftool 8.42
+    return ExiftoolPool.getPoolSize() > 0 && versionAtLeast(8, 42);
+  }
+
+  /**
+   * Execute exiftool with the given arguments. If possible the command is
+   * sent to a running exiftool session, otherwise a new exiftool process is
+   * started that reads its arguments from a temporary file.
+   * 
+   * @param arguments
+   *          The exiftool arguments
+   * @return The output of exiftool or null if it couldn't be run
+   */
+  public static String execute(List<String> arguments) {
+    return execute(arguments, null);
+  }
+
+  /**
+   * Execute exiftool with the given arguments, keeping the error messages
+   * apart from the output.
+   * 
+   * @param arguments
+   *          The exiftool arguments
+   * @param errors
+   *          The error messages of exiftool are appended here - they are
+   *          written to System.err if this is null
+   * @return The output of exiftool or null if it couldn't be run
+   */
+  public static String execute(List<String> arguments, StringBuilder errors) {
+    try {
+      if (useSessions()) {
+        return ExiftoolPool.execute(arguments, errors);
+      }
+      return executeProcess(arguments, errors);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  /**
+   * Start a new exiftool process to execute a single command.
+   * 
+   * @param arguments
+   *          The exiftool arguments
+   * @param errors
+   *          The error messages of exiftool are appended here - they are
+   *          written to System.err if this is null
+   * @return The output of exiftool or null if it couldn't be run
+   * @throws InterruptedException
+   */
+  private static String executeProcess(List<String> arguments,
+      StringBuilder errors) throws InterruptedException {
+    // the arguments are passed in a temporary file
+    File argumentsFile = null;
+    Writer argumentsWriter = null;
+    try {
+      argumentsFile = File.createTempFile("args", null); //$NON-NLS-1$
+      argumentsFile.deleteOnExit();
+      argumentsWriter = new OutputStreamWriter(new FileOutputStream(
+          argumentsFile), "UTF-8"); //$NON-NLS-1$
+      for (String argument : fileNameCharsetArguments()) {
+        argumentsWriter.write(argument + "\n"); //$NON-NLS-1$
+      }
+      for (String argument : arguments) {
+        argumentsWriter.write(argument + "\n"); //$NON-NLS-1$
+      }
+    } catch (UnsupportedEncodingException e) {
+      e.printStackTrace();
+      return null;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      if (argumentsWriter != null) {
+        try {
+          argumentsWriter.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    List<String> command = new ArrayList<String>();
+    command.add(Settings.get(SETTING.EXIFTOOL_PATH, "exiftool")); //$NON-NLS-1$
+    command.add("-@"); //$NON-NLS-1$
+    command.add(argumentsFile.getPath());
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    try {
+      Process process = processBuilder.start();
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      InputStreamGobbler gobbler = new InputStreamGobbler(process, outputStream);
+      gobbler.start();
+      // the errors are kept apart, they might otherwise end up in the middle
+      // of the output for another file
+      ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+      InputStreamGobbler errorGobbler = new InputStreamGobbler(process
+          .getErrorStream(), errorStream);
+      errorGobbler.start();
+      process.waitFor();
+      // make sure we have seen all of the output
+      gobbler.join();
+      errorGobbler.join();
+      String errorText = errorStream.toString("UTF-8"); //$NON-NLS-1$
+      if (errors != null) {
+        errors.append(errorText);
+      } else {
+        System.err.print(errorText);
+      }
+      return outputStream.toString("UTF-8"); //$NON-NLS-1$
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      argumentsFile.delete();
+    }
+    return null;
+  }
+
   /**
    * check if exiftool can be executed and set the available field accordingly.
    */
   public static void checkExiftoolAvailable() {
+    // the path or the version might have changed
+    ExiftoolPool.shutdown();
     boolean found = true; // set to false if we fail to run it
     // first we build the command
     List<String> command = new ArrayList<String>();
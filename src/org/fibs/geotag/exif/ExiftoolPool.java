@@ -0,0 +1,208 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.exif;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.fibs.geotag.Settings;
+import org.fibs.geotag.Settings.SETTING;
+import org.fibs.geotag.util.Constants;
+
+/**
+ * A pool of {@link ExiftoolSession}s shared by everyone reading or writing
+ * image data with exiftool. Sessions are started on demand up to the
+ * configured pool size and replaced when they crash or time out.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class ExiftoolPool {
+
+  /**
+   * hide constructor.
+   */
+  private ExiftoolPool() {
+    // hide constructor
+  }
+
+  /** Default value for the number of exiftool sessions. */
+  public static final int DEFAULT_POOL_SIZE = 2;
+
+  /** Maximum value for the number of exiftool sessions. */
+  public static final int MAX_POOL_SIZE = 16;
+
+  /** Default value for the exiftool command timeout in seconds. */
+  public static final int DEFAULT_TIMEOUT = 60;
+
+  /** The sessions currently not in use. */
+  private static BlockingQueue<ExiftoolSession> idleSessions = new LinkedBlockingQueue<ExiftoolSession>();
+
+  /** All sessions currently running, idle or not. */
+  private static List<ExiftoolSession> sessions = new ArrayList<ExiftoolSession>();
+
+  /** Set once the shutdown hook has been registered. */
+  private static boolean shutdownHookAdded = false;
+
+  /**
+   * @return The configured number of sessions - zero if sessions are disabled
+   */
+  public static int getPoolSize() {
+    return Settings.get(SETTING.EXIFTOOL_POOL_SIZE, DEFAULT_POOL_SIZE);
+  }
+
+  /**
+   * Execute an exiftool command in one of the pooled sessions. If the session
+   * crashes while executing the command, the command is retried once in a
+   * fresh session.
+   *
+   * @param arguments
+   *          The exiftool arguments
+   * @param errors
+   *          The error messages of exiftool are appended here - they are
+   *          written to System.err if this is null
+   * @return The output of exiftool or null if the command failed
+   * @throws InterruptedException
+   *           If interrupted while waiting for a session
+   */
+  public static String execute(List<String> arguments, StringBuilder errors)
+      throws InterruptedException {
+    long timeout = Settings.get(SETTING.EXIFTOOL_TIMEOUT, DEFAULT_TIMEOUT)
+        * Constants.ONE_SECOND_IN_MILLIS;
+    for (int attempt = 0; attempt < 2; attempt++) {
+      ExiftoolSession session = acquire();
+      if (session == null) {
+        return null;
+      }
+      try {
+        String output = session.execute(arguments, timeout, errors);
+        release(session);
+        return output;
+      } catch (IOException e) {
+        System.err.println("ExiftoolPool: " + e.getMessage()); //$NON-NLS-1$
+        discard(session);
+        if (!session.hasTerminated()) {
+          // exiftool didn't crash, no point in trying again
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get an idle session, starting a new one if the pool isn't full yet.
+   *
+   * @return The session or null if exiftool can't be started
+   * @throws InterruptedException
+   */
+  private static ExiftoolSession acquire() throws InterruptedException {
+    for (;;) {
+      ExiftoolSession session = idleSessions.poll();
+      if (session != null) {
+        return session;
+      }
+      synchronized (ExiftoolPool.class) {
+        if (sessions.size() < Math.max(1, getPoolSize())) {
+          try {
+            session = new ExiftoolSession(Settings.get(SETTING.EXIFTOOL_PATH,
+                "exiftool")); //$NON-NLS-1$
+          } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+          }
+          sessions.add(session);
+          addShutdownHook();
+          return session;
+        }
+      }
+      // wait for someone else to finish - but check again from time to time,
+      // as a broken session might have been removed in the meantime
+      session = idleSessions.poll(Constants.ONE_SECOND_IN_MILLIS,
+          TimeUnit.MILLISECONDS);
+      if (session != null) {
+        return session;
+      }
+    }
+  }
+
+  /**
+   * Return a session to the pool.
+   *
+   * @param session
+   */
+  private static void release(ExiftoolSession session) {
+    synchronized (ExiftoolPool.class) {
+      if (!sessions.contains(session)) {
+        // the pool has been shut down in the meantime
+        session.close();
+        return;
+      }
+    }
+    idleSessions.add(session);
+  }
+
+  /**
+   * Remove a broken session from the pool.
+   *
+   * @param session
+   */
+  private static void discard(ExiftoolSession session) {
+    session.close();
+    synchronized (ExiftoolPool.class) {
+      sessions.remove(session);
+    }
+  }
+
+  /**
+   * Terminate all sessions. New sessions will be started when needed, so this
+   * can also be used to pick up a changed exiftool path.
+   */
+  public static void shutdown() {
+    List<ExiftoolSession> closing;
+    synchronized (ExiftoolPool.class) {
+      closing = new ArrayList<ExiftoolSession>(sessions);
+      sessions.clear();
+      idleSessions.clear();
+    }
+    for (ExiftoolSession session : closing) {
+      session.close();
+    }
+  }
+
+  /**
+   * Make sure no exiftool processes are left running when we exit.
+   */
+  private static void addShutdownHook() {
+    if (shutdownHookAdded) {
+      return;
+    }
+    shutdownHookAdded = true;
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        shutdown();
+      }
+    });
+  }
+}
@@ -20,15 +20,16 @@ package org.fibs.geotag.exif;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import org.fibs.geotag.Settings;
-import org.fibs.geotag.Settings.SETTING;
 import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.data.UpdateCameraDate;
 import org.fibs.geotag.data.UpdateCityName;
@@ -51,9 +52,15 @@ import org.fibs.geotag.util.Units.ALTITUDE;
  */
 public class ExiftoolReader implements ExifReader {
 
+  /** exiftool starts the output for each file with this text. */
+  private static final String FILE_HEADER = "======== "; //$NON-NLS-1$
+
   /** exiftag error lines start with this text. */
   private static final String ERROR_TAG = "Error:"; //$NON-NLS-1$
 
+  /** exiftool ends error messages with this text and the file name. */
+  private static final String ERROR_FILE_SEPARATOR = " - "; //$NON-NLS-1$
+
   /** exiftool DateTimeOriginal output lines start with this text. */
   private static final String DATE_TIME_ORIGINAL_TAG = "DateTimeOriginal: "; //$NON-NLS-1$
 
@@ -221,32 +228,183 @@ public class ExiftoolReader implements ExifReader {
    */
   @Override
   public ImageInfo readExifData(File file, ImageInfo reuseImageInfo) {
-    ImageInfo imageInfo = reuseImageInfo;
-    // First we build the command line
-    List<String> command = new ArrayList<String>();
-    command.add(Settings.get(SETTING.EXIFTOOL_PATH, "exiftool")); //$NON-NLS-1$
-    String[] arguments = exifToolArguments();
+    // First we build the arguments
+    List<String> arguments = new ArrayList<String>();
+    String[] tagArguments = exifToolArguments();
     if (FileTypes.fileType(file) == FileTypes.XMP) {
-      arguments = exifToolXmpArguments();
+      tagArguments = exifToolXmpArguments();
     }
-    for (String argument : arguments) {
-      command.add(argument);
+    for (String argument : tagArguments) {
+      arguments.add(argument);
     }
     // add the filename
-    command.add(file.getPath());
-    ProcessBuilder processBuilder = new ProcessBuilder(command);
-    try {
-      Process process = processBuilder.redirectErrorStream(true).start();
-      // process.waitFor();
-      InputStream stream = process.getInputStream();
-      // InputStream stream = new FileInputStream(outFile);
-      imageInfo = readExifData(file, stream, imageInfo);
-      stream.close();
-      return imageInfo;
-    } catch (IOException e) {
-      e.printStackTrace();
+    arguments.add(file.getPath());
+    StringBuilder errors = new StringBuilder();
+    String output = Exiftool.execute(arguments, errors);
+    System.err.print(errors);
+    if (output == null) {
+      return null;
+    }
+    // there is only one file, so any error is about this one
+    for (String line : errors.toString().split("\n")) { //$NON-NLS-1$
+      if (line.startsWith(ERROR_TAG)) {
+        return null;
+      }
+    }
+    return readExifData(file, new StringReader(output), reuseImageInfo);
+  }
+
+  /**
+   * Read EXIF data from several files with a single exiftool command.
+   * 
+   * @param files
+   *          The files to be examined
+   * @param reuseImageInfos
+   *          The ImageInfos to be reused for each file (entries can be null),
+   *          or null if none should be reused
+   * @return The {@link ImageInfo}s for the files in the same order as the
+   *         files, with null entries for files that couldn't be read
+   */
+  public List<ImageInfo> readExifData(List<File> files,
+      List<ImageInfo> reuseImageInfos) {
+    List<ImageInfo> results = new ArrayList<ImageInfo>(Collections.nCopies(
+        files.size(), (ImageInfo) null));
+    // XMP files need different arguments, so they are read separately
+    List<Integer> xmpIndices = new ArrayList<Integer>();
+    List<Integer> otherIndices = new ArrayList<Integer>();
+    for (int index = 0; index < files.size(); index++) {
+      if (FileTypes.fileType(files.get(index)) == FileTypes.XMP) {
+        xmpIndices.add(Integer.valueOf(index));
+      } else {
+        otherIndices.add(Integer.valueOf(index));
+      }
+    }
+    readExifData(files, reuseImageInfos, otherIndices, exifToolArguments(),
+        results);
+    readExifData(files, reuseImageInfos, xmpIndices, exifToolXmpArguments(),
+        results);
+    return results;
+  }
+
+  /**
+   * Read EXIF data from a subset of files with a single exiftool command.
+   * 
+   * @param files
+   *          All files to be examined
+   * @param reuseImageInfos
+   *          The ImageInfos to be reused or null
+   * @param indices
+   *          The indices of the files to be read with this command
+   * @param tagArguments
+   *          The exiftool arguments for those files
+   * @param results
+   *          The list to store the results in
+   */
+  private void readExifData(List<File> files, List<ImageInfo> reuseImageInfos,
+      List<Integer> indices, String[] tagArguments, List<ImageInfo> results) {
+    if (indices.size() == 0) {
+      return;
+    }
+    if (indices.size() == 1) {
+      // exiftool doesn't write a header line for a single file
+      int index = indices.get(0).intValue();
+      results.set(index, readExifData(files.get(index),
+          reuseImageInfo(reuseImageInfos, index)));
+      return;
+    }
+    List<String> arguments = new ArrayList<String>();
+    for (String argument : tagArguments) {
+      arguments.add(argument);
     }
-    return null;
+    // exiftool reports the file names as given, so we can find them again
+    Map<String, Integer> fileIndices = new HashMap<String, Integer>();
+    for (Integer index : indices) {
+      String path = files.get(index.intValue()).getPath();
+      arguments.add(path);
+      fileIndices.put(path.replace('\\', '/'), index);
+    }
+    StringBuilder errors = new StringBuilder();
+    String output = Exiftool.execute(arguments, errors);
+    System.err.print(errors);
+    if (output == null) {
+      if (Exiftool.isAvailable() && !Thread.currentThread().isInterrupted()) {
+        // the command failed or timed out - read the files one at a time, so
+        // only the files causing trouble fail
+        for (Integer index : indices) {
+          results.set(index.intValue(), readExifData(files.get(index
+              .intValue()), reuseImageInfo(reuseImageInfos, index.intValue())));
+        }
+      }
+      return;
+    }
+    // the error messages name the file they are about
+    Set<Integer> failed = new HashSet<Integer>();
+    for (String line : errors.toString().split("\n")) { //$NON-NLS-1$
+      if (line.startsWith(ERROR_TAG)) {
+        String text = line.replace('\\', '/');
+        for (Map.Entry<String, Integer> entry : fileIndices.entrySet()) {
+          if (text.endsWith(ERROR_FILE_SEPARATOR + entry.getKey())) {
+            failed.add(entry.getValue());
+          }
+        }
+      }
+    }
+    // split the output at the header lines
+    int current = -1;
+    StringBuilder section = new StringBuilder();
+    for (String line : output.split("\n")) { //$NON-NLS-1$
+      if (line.startsWith(FILE_HEADER)) {
+        readSection(files, reuseImageInfos, current, section, results);
+        String path = line.substring(FILE_HEADER.length()).replace('\\', '/');
+        Integer index = fileIndices.get(path);
+        current = index == null || failed.contains(index) ? -1 : index
+            .intValue();
+        section.setLength(0);
+      } else if (line.startsWith(ERROR_TAG)) {
+        // the errors making a file unreadable name the file, see above -
+        // this one is not fatal for the file whose output we are reading
+        System.err.println(line);
+      } else {
+        section.append(line).append('\n');
+      }
+    }
+    readSection(files, reuseImageInfos, current, section, results);
+  }
+
+  /**
+   * Parse the exiftool output for one of several files.
+   * 
+   * @param files
+   *          All files examined
+   * @param reuseImageInfos
+   *          The ImageInfos to be reused or null
+   * @param index
+   *          The index of the file the output belongs to, -1 if unknown
+   * @param section
+   *          The exiftool output for the file
+   * @param results
+   *          The list to store the result in
+   */
+  private void readSection(List<File> files, List<ImageInfo> reuseImageInfos,
+      int index, StringBuilder section, List<ImageInfo> results) {
+    if (index == -1) {
+      if (section.length() > 0) {
+        System.out.print(section);
+      }
+      return;
+    }
+    results.set(index, readExifData(files.get(index), new StringReader(section
+        .toString()), reuseImageInfo(reuseImageInfos, index)));
+  }
+
+  /**
+   * @param reuseImageInfos
+   *          The ImageInfos to be reused or null
+   * @param index
+   * @return The ImageInfo to be reused for the file with the given index
+   */
+  private ImageInfo reuseImageInfo(List<ImageInfo> reuseImageInfos, int index) {
+    return reuseImageInfos == null ? null : reuseImageInfos.get(index);
   }
 
   /**
@@ -255,13 +413,13 @@ public class ExiftoolReader implements ExifReader {
    * 
    * @param file
    *          The file being examined by exiftool
-   * @param stream
-   *          The stream containing the output of exiftool
+   * @param output
+   *          The output of exiftool
    * @param reuseImageInfo
    *          Reuse this ImageInfo for results if not null
    * @return The {@link ImageInfo} for the file
    */
-  private ImageInfo readExifData(File file, InputStream stream,
+  private ImageInfo readExifData(File file, Reader output,
       ImageInfo reuseImageInfo) {
     // The ImageInfo object holding information about the current file
     ImageInfo imageInfo = reuseImageInfo;
@@ -271,8 +429,7 @@ public class ExiftoolReader implements ExifReader {
         imageInfo = new ImageInfo(file);
       }
     }
-    BufferedReader reader = new BufferedReader(new InputStreamReader(stream,
-        Charset.forName("UTF-8"))); //$NON-NLS-1$
+    BufferedReader reader = new BufferedReader(output);
     try {
       // forever (or until we break out of the loop
       for (;;) {
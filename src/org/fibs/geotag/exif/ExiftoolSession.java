@@ -0,0 +1,318 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.exif;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single long running exiftool process started with
+ * <code>-stay_open True -@ -</code>. Commands are written to the standard
+ * input of the process, each one terminated by <code>-execute</code>, and the
+ * output of each command is read up to the <code>{ready}</code> line exiftool
+ * writes once the command has finished. This saves starting a new Perl
+ * interpreter for every image. The error messages are read from the error
+ * stream of the process and kept apart from the output, so they can't end up
+ * in the middle of the output for an unrelated file.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public class ExiftoolSession {
+
+  /** exiftool writes this line (followed by the command number) when done. */
+  private static final String READY = "{ready"; //$NON-NLS-1$
+
+  /** How long to wait for exiftool to exit after asking it to. */
+  private static final long EXIT_WAIT_MILLIS = 2000;
+
+  /** How often to check if exiftool has exited. */
+  private static final long EXIT_POLL_MILLIS = 50;
+
+  /** How often the error stream is checked while waiting for output. */
+  private static final long ERROR_POLL_MILLIS = 100;
+
+  /** Marks the end of the process output in the line queue. */
+  private static final String END_OF_STREAM = new String("EOF"); //$NON-NLS-1$
+
+  /** The exiftool process. */
+  private Process process;
+
+  /** The writer used to send commands to the process. */
+  private Writer writer;
+
+  /** The error stream of the process. */
+  private InputStream errorStream;
+
+  /** The lines read from the process by the {@link LineReader}. */
+  private BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+  /** The number of the last command sent - echoed in the ready line. */
+  private int commandNumber = 0;
+
+  /** Set to false once the process died, timed out or was closed. */
+  private volatile boolean alive = true;
+
+  /** Set to true if the process terminated unexpectedly. */
+  private boolean terminated = false;
+
+  /**
+   * Start a new exiftool process.
+   *
+   * @param exiftool
+   *          The path of the exiftool executable
+   * @throws IOException
+   *           If the process can't be started
+   */
+  public ExiftoolSession(String exiftool) throws IOException {
+    List<String> command = new ArrayList<String>();
+    command.add(exiftool);
+    command.add("-stay_open"); //$NON-NLS-1$
+    command.add("True"); //$NON-NLS-1$
+    // read the arguments from stdin
+    command.add("-@"); //$NON-NLS-1$
+    command.add("-"); //$NON-NLS-1$
+    List<String> commonArguments = Exiftool.fileNameCharsetArguments();
+    if (commonArguments.size() > 0) {
+      // added to every command
+      command.add("-common_args"); //$NON-NLS-1$
+      command.addAll(commonArguments);
+    }
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    process = processBuilder.start();
+    writer = new OutputStreamWriter(process.getOutputStream(), Charset
+        .forName("UTF-8")); //$NON-NLS-1$
+    errorStream = process.getErrorStream();
+    new LineReader().start();
+  }
+
+  /**
+   * @return true if the session can still be used
+   */
+  public boolean isAlive() {
+    return alive;
+  }
+
+  /**
+   * @return true if the process terminated while executing a command
+   */
+  public boolean hasTerminated() {
+    return terminated;
+  }
+
+  /**
+   * Execute one exiftool command.
+   *
+   * @param arguments
+   *          The arguments for exiftool, one per list entry
+   * @param timeoutMillis
+   *          The time to wait for exiftool to finish the command
+   * @param errors
+   *          The error messages of exiftool for that command are appended
+   *          here - they are written to System.err if this is null
+   * @return The output of exiftool for that command
+   * @throws IOException
+   *           If the process died or the command timed out. The session can't
+   *           be used after that.
+   */
+  public String execute(List<String> arguments, long timeoutMillis,
+      StringBuilder errors) throws IOException {
+    if (!alive) {
+      throw new IOException("exiftool session closed"); //$NON-NLS-1$
+    }
+    commandNumber++;
+    String readyLine = READY + commandNumber + '}';
+    try {
+      for (String argument : arguments) {
+        writer.write(argument);
+        writer.write('\n');
+      }
+      writer.write("-execute" + commandNumber + '\n'); //$NON-NLS-1$
+      writer.flush();
+    } catch (IOException e) {
+      kill();
+      throw e;
+    }
+    StringBuilder output = new StringBuilder();
+    ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    try {
+      for (;;) {
+        // keep reading the errors, so exiftool never blocks writing them
+        readErrors(errorOutput);
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          kill();
+          throw new IOException("exiftool timed out"); //$NON-NLS-1$
+        }
+        String line = lines.poll(Math.min(remaining, ERROR_POLL_MILLIS),
+            TimeUnit.MILLISECONDS);
+        if (line == null) {
+          continue;
+        }
+        if (line == END_OF_STREAM) {
+          terminated = true;
+          kill();
+          throw new IOException("exiftool terminated"); //$NON-NLS-1$
+        }
+        if (line.equals(readyLine)) {
+          // exiftool writes the errors before the ready line, so they are
+          // all there by now
+          readErrors(errorOutput);
+          break;
+        }
+        output.append(line).append('\n');
+      }
+    } catch (InterruptedException e) {
+      // we can't tell where exiftool is at, so we give up on it
+      kill();
+      Thread.currentThread().interrupt();
+      throw new IOException("exiftool command interrupted"); //$NON-NLS-1$
+    }
+    String errorText = errorOutput.toString("UTF-8"); //$NON-NLS-1$
+    if (errors != null) {
+      errors.append(errorText);
+    } else {
+      System.err.print(errorText);
+    }
+    return output.toString();
+  }
+
+  /**
+   * Read what is available from the error stream without blocking.
+   *
+   * @param errorOutput
+   *          The errors read are appended to this stream
+   */
+  private void readErrors(ByteArrayOutputStream errorOutput) {
+    try {
+      int available = errorStream.available();
+      while (available > 0) {
+        byte[] buffer = new byte[available];
+        int read = errorStream.read(buffer);
+        if (read < 0) {
+          break;
+        }
+        errorOutput.write(buffer, 0, read);
+        available = errorStream.available();
+      }
+    } catch (IOException e) {
+      // the process is gone - this will be noticed when reading the output
+    }
+  }
+
+  /**
+   * Ask exiftool to terminate and make sure the process is gone. exiftool is
+   * given a moment to exit by itself before the process is destroyed.
+   */
+  public synchronized void close() {
+    if (!alive) {
+      return;
+    }
+    alive = false;
+    try {
+      writer.write("-stay_open\nFalse\n"); //$NON-NLS-1$
+      writer.flush();
+      writer.close();
+      long deadline = System.currentTimeMillis() + EXIT_WAIT_MILLIS;
+      while (!hasExited() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(EXIT_POLL_MILLIS);
+      }
+    } catch (IOException e) {
+      // the process is probably gone already
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!hasExited()) {
+      process.destroy();
+    }
+  }
+
+  /**
+   * Destroy the process straight away - used when exiftool is not expected
+   * to react to commands any more.
+   */
+  private synchronized void kill() {
+    alive = false;
+    process.destroy();
+  }
+
+  /**
+   * @return true if the process has exited
+   */
+  private boolean hasExited() {
+    try {
+      process.exitValue();
+      return true;
+    } catch (IllegalThreadStateException e) {
+      return false;
+    }
+  }
+
+  /**
+   * A thread reading the process output line by line into the line queue.
+   */
+  private class LineReader extends Thread {
+
+    /**
+     * Create a daemon thread, so it won't keep the program running.
+     */
+    public LineReader() {
+      setDaemon(true);
+    }
+
+    /**
+     * @see java.lang.Thread#run()
+     */
+    @Override
+    public void run() {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(process
+          .getInputStream(), Charset.forName("UTF-8"))); //$NON-NLS-1$
+      try {
+        for (;;) {
+          String line = reader.readLine();
+          if (line == null) {
+            break;
+          }
+          lines.add(line);
+        }
+      } catch (IOException e) {
+        // treat like end of stream
+      } finally {
+        lines.add(END_OF_STREAM);
+        try {
+          reader.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+}
@@ -26,7 +26,6 @@ import java.io.OutputStream;
 import java.lang.reflect.Method;
 
 import javax.swing.JOptionPane;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 
@@ -36,6 +35,7 @@ import org.fibs.geotag.Settings.SETTING;
 import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.util.Airy;
 import org.fibs.geotag.util.ClassLoaderUtil;
+import org.fibs.geotag.util.JaxbRegistry;
 import org.fibs.geotag.util.OperatingSystem;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
@@ -88,20 +88,16 @@ public final class GoogleEarthLauncher {
     double longitude = Airy.LONGITUDE;
     final double defaultAltitude = 100;
     double altitude = defaultAltitude;
-    if (imageInfo.hasLocation()) {
-      try {
-        latitude = Double.parseDouble(imageInfo.getGpsLatitude());
-        longitude = Double.parseDouble(imageInfo.getGpsLongitude());
-        altitude = Double.parseDouble(imageInfo.getGpsAltitude());
-      } catch (NumberFormatException e) {
-        e.printStackTrace();
+    if (imageInfo.hasLocation() && !Double.isNaN(imageInfo.getLatitude())
+        && !Double.isNaN(imageInfo.getLongitude())) {
+      latitude = imageInfo.getLatitude();
+      longitude = imageInfo.getLongitude();
+      if (!Double.isNaN(imageInfo.getAltitude())) {
+        altitude = imageInfo.getAltitude();
       }
     }
     // first we create a KML file
-    // get the correct context
     try {
-      JAXBContext jaxbContext = JAXBContext.newInstance(KmlType.class
-          .getPackage().getName());
       // we need a factory to create objects
       ObjectFactory factory = new ObjectFactory();
       // the KML element at the top
@@ -172,10 +168,14 @@ public final class GoogleEarthLauncher {
       }
       try {
         OutputStream outputStream = new FileOutputStream(file);
-        Marshaller marshaller = jaxbContext.createMarshaller();
-        marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE); //$NON-NLS-1$
-        // finally we write the whole kml to the output stream
-        marshaller.marshal(factory.createKml(kml), outputStream);
+        Marshaller marshaller = JaxbRegistry.acquireMarshaller(
+            JaxbRegistry.KML, null);
+        try {
+          // finally we write the whole kml to the output stream
+          marshaller.marshal(factory.createKml(kml), outputStream);
+        } finally {
+          JaxbRegistry.release(JaxbRegistry.KML, null, marshaller);
+        }
         outputStream.close();
       } catch (FileNotFoundException e) {
         e.printStackTrace();
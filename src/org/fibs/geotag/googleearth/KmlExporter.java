@@ -35,7 +35,6 @@ import java.util.zip.ZipOutputStream;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -45,6 +44,7 @@ import org.fibs.geotag.Settings;
 import org.fibs.geotag.Settings.SETTING;
 import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.util.Airy;
+import org.fibs.geotag.util.JaxbRegistry;
 import org.fibs.geotag.util.OperatingSystem;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
@@ -105,9 +105,6 @@ public class KmlExporter {
    */
   public void write(OutputStream outputStream, boolean kmz) {
     try {
-      // get the correct context
-      JAXBContext jaxbContext = JAXBContext.newInstance(KmlType.class
-          .getPackage().getName());
       // we need a factory to create objects
       ObjectFactory factory = new ObjectFactory();
       // the KML element at the top
@@ -209,13 +206,11 @@ public class KmlExporter {
         }
         placemark.setDescription(description.toString());
         PointType point = factory.createPointType();
-        double latitude = Airy.LATITUDE;
-        double longitude = Airy.LONGITUDE;
-        try {
-          latitude = Double.parseDouble(imageInfo.getGpsLatitude());
-          longitude = Double.parseDouble(imageInfo.getGpsLongitude());
-        } catch (NumberFormatException e) {
-          //
+        double latitude = imageInfo.getLatitude();
+        double longitude = imageInfo.getLongitude();
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+          latitude = Airy.LATITUDE;
+          longitude = Airy.LONGITUDE;
         }
         List<String> coordinates = point.getCoordinates();
         coordinates.add(longitude + "," + latitude); //$NON-NLS-1$
@@ -226,10 +221,14 @@ public class KmlExporter {
       documentFeatures.add(factory.createFolder(folder));
 
       kml.setFeature(factory.createDocument(document));
-      Marshaller marshaller = jaxbContext.createMarshaller();
-      marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE); //$NON-NLS-1$
-      // finally we write the whole kml to the output stream
-      marshaller.marshal(factory.createKml(kml), outputStream);
+      Marshaller marshaller = JaxbRegistry.acquireMarshaller(
+          JaxbRegistry.KML, null);
+      try {
+        // finally we write the whole kml to the output stream
+        marshaller.marshal(factory.createKml(kml), outputStream);
+      } finally {
+        JaxbRegistry.release(JaxbRegistry.KML, null, marshaller);
+      }
     } catch (JAXBException e) {
       e.printStackTrace();
     }
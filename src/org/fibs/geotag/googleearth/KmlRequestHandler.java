@@ -26,7 +26,6 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -35,6 +34,7 @@ import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.external.ExternalUpdate;
 import org.fibs.geotag.external.ExternalUpdateConsumer;
 import org.fibs.geotag.util.Airy;
+import org.fibs.geotag.util.JaxbRegistry;
 import org.fibs.geotag.webserver.ContextHandler;
 import org.fibs.geotag.webserver.WebServer;
 import org.xnap.commons.i18n.I18n;
@@ -127,9 +127,6 @@ public class KmlRequestHandler implements ContextHandler {
       OutputStream outputStream) {
     ImageInfo lastImageLaunched = GoogleEarthLauncher.getLastImageLauched();
     try {
-      // get the correct context
-      JAXBContext jaxbContext = JAXBContext.newInstance(KmlType.class
-          .getPackage().getName());
       // we need a factory to create objects
       ObjectFactory factory = new ObjectFactory();
       // the KML element at the top
@@ -175,10 +172,14 @@ public class KmlRequestHandler implements ContextHandler {
       placemark.setGeometry(factory.createPoint(point));
       documentFeatures.add(factory.createPlacemark(placemark));
       kml.setFeature(factory.createDocument(document));
-      Marshaller marshaller = jaxbContext.createMarshaller();
-      marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE); //$NON-NLS-1$
-      // finally we write the whole kml to the output stream
-      marshaller.marshal(factory.createKml(kml), outputStream);
+      Marshaller marshaller = JaxbRegistry.acquireMarshaller(
+          JaxbRegistry.KML, null);
+      try {
+        // finally we write the whole kml to the output stream
+        marshaller.marshal(factory.createKml(kml), outputStream);
+      } finally {
+        JaxbRegistry.release(JaxbRegistry.KML, null, marshaller);
+      }
     } catch (JAXBException e) {
       e.printStackTrace();
     }
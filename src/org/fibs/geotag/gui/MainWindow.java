@@ -576,12 +576,7 @@ public class MainWindow extends JFrame implements BackgroundTaskListener,
             i18n.tr("Coordinates from clipboard"), clipboardUpdates, selectedImages) { //$NON-NLS-1$
           @Override
           protected void process(List<ImageInfo> imageInfo) {
-            for (ImageInfo image : imageInfo) {
-              int row = getTableModel().getRow(image);
-              if (row >= 0) {
-                getTableModel().fireTableRowsUpdated(row, row);
-              }
-            }
+            getTableModel().imagesUpdated(imageInfo);
           }
         };
         TaskExecutor.execute(task);
@@ -600,12 +595,7 @@ public class MainWindow extends JFrame implements BackgroundTaskListener,
           .tr("External coordinates"), externalUpdate) { //$NON-NLS-1$
         @Override
         protected void process(List<ImageInfo> imageInfo) {
-          for (ImageInfo image : imageInfo) {
-            int row = getTableModel().getRow(image);
-            if (row >= 0) {
-              getTableModel().fireTableRowsUpdated(row, row);
-            }
-          }
+          getTableModel().imagesUpdated(imageInfo);
         }
       };
       pendingExternalUpdates.remove(0);
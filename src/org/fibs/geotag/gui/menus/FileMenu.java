@@ -21,6 +21,7 @@ package org.fibs.geotag.gui.menus;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JFileChooser;
@@ -51,6 +52,7 @@ import org.fibs.geotag.tasks.GpxReadFileTask;
 import org.fibs.geotag.tasks.TaskExecutor;
 import org.fibs.geotag.track.GpxFileFilter;
 import org.fibs.geotag.track.GpxWriter;
+import org.fibs.geotag.track.TrackSegment;
 import org.fibs.geotag.track.TrackStore;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
@@ -323,11 +325,13 @@ public class FileMenu extends JMenu implements MenuConstants {
       TaskExecutor.execute(new GpxReadFileTask(LOAD_TRACKS_FROM_FILE, files) {
 
         @Override
-        protected void process(List<Gpx> chunks) {
+        protected void process(List<List<TrackSegment>> chunks) {
           super.process(chunks);
-          for (Gpx gpx : chunks) {
-            if (gpx != null) {
-              TrackStore.getTrackStore().addGPX(gpx);
+          // add the segments of all files read so far in one go
+          List<TrackSegment> allSegments = new ArrayList<TrackSegment>();
+          for (List<TrackSegment> segments : chunks) {
+            if (segments != null) {
+              allSegments.addAll(segments);
             } else {
               JOptionPane
                   .showMessageDialog(
@@ -336,6 +340,9 @@ public class FileMenu extends JMenu implements MenuConstants {
                       i18n.tr("Error"), JOptionPane.ERROR_MESSAGE); //$NON-NLS-1$
             }
           }
+          if (allSegments.size() > 0) {
+            TrackStore.getTrackStore().addTrackSegments(allSegments);
+          }
         }
 
         @Override
@@ -349,9 +356,22 @@ public class FileMenu extends JMenu implements MenuConstants {
   }
 
   /**
-   * Save the tracks to a file selected by the user.
+   * Save the tracks to a file selected by the user. Only the track points
+   * with a time are kept when tracks are loaded, so the user is warned that
+   * everything else in the loaded files is not saved.
    */
   void saveTrack() {
+    String warningTitle = i18n.tr("Save tracks"); //$NON-NLS-1$
+    String warning = i18n
+        .tr("Only the timed track points and the track descriptions are saved.") //$NON-NLS-1$
+        + '\n'
+        + i18n.tr("Waypoints, routes and other data of the loaded files are lost.") //$NON-NLS-1$
+        + '\n' + i18n.tr("Save the tracks anyway?"); //$NON-NLS-1$
+    if (JOptionPane.showConfirmDialog(MainWindow.getMainWindow(FileMenu.this),
+        warning, warningTitle, JOptionPane.OK_CANCEL_OPTION,
+        JOptionPane.WARNING_MESSAGE) != JOptionPane.OK_OPTION) {
+      return;
+    }
     JFileChooser chooser = new JFileChooser();
     String lastFile = Settings.get(SETTING.LAST_GPX_FILE_OPENED, null);
     if (lastFile != null) {
@@ -37,6 +37,7 @@ import org.fibs.geotag.tasks.TaskExecutor;
 import org.fibs.geotag.tasks.ThumbnailsTask;
 import org.fibs.geotag.util.Airy;
 import org.fibs.geotag.util.BrowserLauncher;
+import org.fibs.geotag.webserver.WebServer;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
 
@@ -240,10 +241,14 @@ public class ShowOnMapMenu extends JMenu implements ActionListener,
         + latitude + "&longitude=" //$NON-NLS-1$
         + longitude + "&direction=" //$NON-NLS-1$
         + showDirection + "&zoom=" //$NON-NLS-1$
-        + zoomLevel + "&images="; //$NON-NLS-1$
-    for (int index = 0; index < images.size(); index++) {
-      url += (index == 0 ? "" : "_") + images.get(index).getSequenceNumber(); //$NON-NLS-1$ //$NON-NLS-2$
+        + zoomLevel;
+    // there can be thousands of images - the map asks the web server for
+    // them, so only the ID of the selection is put in the URL
+    int[] imageIDs = new int[images.size()];
+    for (int index = 0; index < imageIDs.length; index++) {
+      imageIDs[index] = images.get(index).getSequenceNumber();
     }
+    url += "&selection=" + WebServer.registerSelection(imageIDs); //$NON-NLS-1$
     url += "&language=" //$NON-NLS-1$
         + Locale.getDefault().getLanguage() + "&maptype=" //$NON-NLS-1$
         + Settings.get(SETTING.LAST_GOOGLE_MAPS_MAP_TYPE, "Hybrid"); //$NON-NLS-1$
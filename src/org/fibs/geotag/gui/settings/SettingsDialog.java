@@ -41,7 +41,10 @@ import javax.swing.tree.TreeSelectionModel;
 
 import org.fibs.geotag.Settings;
 import org.fibs.geotag.Settings.SETTING;
+import org.fibs.geotag.exif.ExiftoolPool;
 import org.fibs.geotag.gpsbabel.GPSBabel;
+import org.fibs.geotag.image.ThumbnailCache;
+import org.fibs.geotag.image.ThumbnailStore;
 import org.fibs.geotag.util.Coordinates;
 import org.fibs.geotag.util.FontUtil;
 import org.fibs.geotag.util.OperatingSystem;
@@ -220,6 +223,18 @@ public class SettingsDialog extends JDialog implements TreeSelectionListener {
         Settings.DEFAULT_THUMBNAIL_SIZE, 100, 800, 10);
     addPanel(general, thumbnailsSize);
 
+    IntegerSettingsPanel thumbnailCacheSize = new IntegerSettingsPanel(
+        parent,
+        i18n.tr("Thumbnail cache size (MB)"), SETTING.THUMBNAIL_CACHE_SIZE, //$NON-NLS-1$
+        ThumbnailCache.DEFAULT_CACHE_SIZE, 0, 10000, 10);
+    addPanel(general, thumbnailCacheSize);
+
+    IntegerSettingsPanel thumbnailMemorySize = new IntegerSettingsPanel(
+        parent,
+        i18n.tr("Thumbnail memory (MB)"), SETTING.THUMBNAIL_MEMORY_SIZE, //$NON-NLS-1$
+        ThumbnailStore.DEFAULT_MEMORY_SIZE, 1, 10000, 8);
+    addPanel(general, thumbnailMemorySize);
+
     BooleanSettingsPanel xmpOnly = new BooleanSettingsPanel(
         parent,
         i18n.tr("Always write to XMP files"), SETTING.XMP_FILES_ONLY, false); //$NON-NLS-1$
@@ -330,7 +345,18 @@ public class SettingsDialog extends JDialog implements TreeSelectionListener {
         i18n.tr("Additional Exiftool arguments"), //$NON-NLS-1$
         SETTING.EXIFTOOL_ARGUMENTS, ""); //$NON-NLS-1$
     addPanel(exiftool, exiftoolArguments);
-    
+
+    IntegerSettingsPanel exiftoolPoolSize = new IntegerSettingsPanel(parent,
+        i18n.tr("Exiftool processes kept running"), //$NON-NLS-1$
+        SETTING.EXIFTOOL_POOL_SIZE, ExiftoolPool.DEFAULT_POOL_SIZE, 0,
+        ExiftoolPool.MAX_POOL_SIZE, 1);
+    addPanel(exiftool, exiftoolPoolSize);
+
+    IntegerSettingsPanel exiftoolTimeout = new IntegerSettingsPanel(parent,
+        i18n.tr("Exiftool timeout (seconds)"), //$NON-NLS-1$
+        SETTING.EXIFTOOL_TIMEOUT, ExiftoolPool.DEFAULT_TIMEOUT, 1,
+        Integer.MAX_VALUE, 1);
+    addPanel(exiftool, exiftoolTimeout);
 
     BooleanSettingsPanel createBackups = new BooleanSettingsPanel(
         parent,
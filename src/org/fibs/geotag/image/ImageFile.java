@@ -32,6 +32,12 @@ public abstract class ImageFile {
   /** the actual image file. */
   private File file;
 
+  /** The width of the full image - known after it has been read. */
+  private int width = 0;
+
+  /** The height of the full image - known after it has been read. */
+  private int height = 0;
+
   /**
    * Constructor with package visibility. Use Factory to construct.
    * 
@@ -47,6 +53,50 @@ public abstract class ImageFile {
    */
   public abstract BufferedImage read() throws IOException;
 
+  /**
+   * Read the image for a thumbnail. Sub classes can return a smaller image
+   * than the full image, as long as its longest side isn't shorter than
+   * requested. The size of the full image is available from
+   * {@link #getWidth()} and {@link #getHeight()} afterwards.
+   * 
+   * @param longestSide
+   *          The length of the longest side of the thumbnail
+   * @return The image read from the image file
+   * @throws IOException
+   */
+  public BufferedImage read(int longestSide) throws IOException {
+    BufferedImage image = read();
+    if (image != null) {
+      setSize(image.getWidth(), image.getHeight());
+    }
+    return image;
+  }
+
+  /**
+   * @return the width of the full image
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return the height of the full image
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @param width
+   *          the width of the full image
+   * @param height
+   *          the height of the full image
+   */
+  protected void setSize(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
   /**
    * @return the file
    */
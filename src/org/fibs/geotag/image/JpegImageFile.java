@@ -19,10 +19,20 @@
 package org.fibs.geotag.image;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.drew.imaging.jpeg.JpegProcessingException;
+import com.drew.metadata.MetadataException;
+import com.drew.metadata.exif.ExifDirectory;
+import com.drew.metadata.exif.ExifReader;
 
 /**
  * @author Andreas Schneider
@@ -30,6 +40,12 @@ import javax.imageio.ImageIO;
  */
 public class JpegImageFile extends ImageFile {
 
+  /**
+   * How much the aspect ratio of an embedded thumbnail may differ from the
+   * image before we assume it has black bars and don't use it.
+   */
+  private static final double ASPECT_RATIO_TOLERANCE = 0.05;
+
   /**
    * Constructor with package visibility. Use Factory to construct
    * 
@@ -47,4 +63,92 @@ public class JpegImageFile extends ImageFile {
     return ImageIO.read(getFile());
   }
 
+  /**
+   * Use the thumbnail embedded in the EXIF data if it is big enough, otherwise
+   * only decode every n-th pixel of the image.
+   * 
+   * @see org.fibs.geotag.image.ImageFile#read(int)
+   */
+  @Override
+  public BufferedImage read(int longestSide) throws IOException {
+    ImageInputStream inputStream = ImageIO.createImageInputStream(getFile());
+    if (inputStream == null) {
+      return super.read(longestSide);
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+      if (!readers.hasNext()) {
+        return super.read(longestSide);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(inputStream, true, true);
+        // this only reads the header of the image
+        int imageWidth = reader.getWidth(0);
+        int imageHeight = reader.getHeight(0);
+        setSize(imageWidth, imageHeight);
+        BufferedImage thumbnail = readEmbeddedThumbnail(longestSide,
+            imageWidth, imageHeight);
+        if (thumbnail != null) {
+          return thumbnail;
+        }
+        // the resulting image will still be at least as big as requested
+        int subsampling = Math.max(imageWidth, imageHeight) / longestSide;
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+          readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return reader.read(0, readParam);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Read the thumbnail most cameras store in the EXIF data.
+   * 
+   * @param longestSide
+   *          The minimum length of the longest side of the thumbnail
+   * @param imageWidth
+   *          The width of the full image
+   * @param imageHeight
+   *          The height of the full image
+   * @return The thumbnail or null if there is none or it can't be used
+   */
+  private BufferedImage readEmbeddedThumbnail(int longestSide,
+      int imageWidth, int imageHeight) {
+    try {
+      ExifDirectory exifDirectory = (ExifDirectory) new ExifReader(getFile())
+          .extract().getDirectory(ExifDirectory.class);
+      if (!exifDirectory.containsThumbnail()
+          || exifDirectory.getInt(ExifDirectory.TAG_COMPRESSION) != ExifDirectory.COMPRESSION_JPEG) {
+        return null;
+      }
+      BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(
+          exifDirectory.getThumbnailData()));
+      if (thumbnail == null
+          || Math.max(thumbnail.getWidth(), thumbnail.getHeight()) < longestSide) {
+        return null;
+      }
+      // some cameras add black bars to make the thumbnail 4:3
+      double imageAspectRatio = (double) imageWidth / imageHeight;
+      double thumbnailAspectRatio = (double) thumbnail.getWidth()
+          / thumbnail.getHeight();
+      if (Math.abs(imageAspectRatio - thumbnailAspectRatio) > ASPECT_RATIO_TOLERANCE
+          * imageAspectRatio) {
+        return null;
+      }
+      return thumbnail;
+    } catch (JpegProcessingException e) {
+      // no usable EXIF data
+    } catch (MetadataException e) {
+      // no usable thumbnail
+    } catch (IOException e) {
+      // broken thumbnail
+    }
+    return null;
+  }
 }
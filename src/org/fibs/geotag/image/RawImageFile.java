@@ -44,7 +44,30 @@ public class RawImageFile extends ImageFile {
    */
   @Override
   public BufferedImage read() throws IOException {
-    return Dcraw.getEmbeddedImage(getFile());
+    return read(Integer.MAX_VALUE);
+  }
+
+  /**
+   * The preview embedded in the RAW file is extracted directly if possible.
+   * Only if that fails dcraw is used. The size reported is the size of the
+   * biggest preview, like the one dcraw extracts, even if a smaller preview
+   * was read.
+   * 
+   * @see org.fibs.geotag.image.ImageFile#read(int)
+   */
+  @Override
+  public BufferedImage read(int longestSide) throws IOException {
+    RawPreviewExtractor.ExtractedPreview preview = RawPreviewExtractor.read(
+        getFile(), longestSide);
+    if (preview != null) {
+      setSize(preview.getWidth(), preview.getHeight());
+      return preview.getImage();
+    }
+    BufferedImage image = Dcraw.getEmbeddedImage(getFile());
+    if (image != null) {
+      setSize(image.getWidth(), image.getHeight());
+    }
+    return image;
   }
 
 }
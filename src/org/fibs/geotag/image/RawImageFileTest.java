@@ -0,0 +1,133 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Andreas Schneider
+ *
+ */
+public class RawImageFileTest extends TestCase {
+
+  /**
+   * Reading a small preview must still report the size of the biggest one.
+   *
+   * @throws IOException
+   */
+  public void testSubsampledReadReportsFullSize() throws IOException {
+    File file = createRawFile(new byte[][] { jpeg(1600, 1200),
+        jpeg(200, 150) });
+    try {
+      RawImageFile rawImageFile = new RawImageFile(file);
+      // the small preview is big enough
+      BufferedImage image = rawImageFile.read(160);
+      assertNotNull(image);
+      assertEquals(200, image.getWidth());
+      assertEquals(1600, rawImageFile.getWidth());
+      assertEquals(1200, rawImageFile.getHeight());
+      // the small preview is read with subsampling
+      image = rawImageFile.read(100);
+      assertNotNull(image);
+      assertEquals(100, image.getWidth());
+      assertEquals(1600, rawImageFile.getWidth());
+      assertEquals(1200, rawImageFile.getHeight());
+      // only the big preview is big enough
+      image = rawImageFile.read(1000);
+      assertNotNull(image);
+      assertEquals(1600, image.getWidth());
+      assertEquals(1600, rawImageFile.getWidth());
+      assertEquals(1200, rawImageFile.getHeight());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * @param width
+   * @param height
+   * @return A JPEG image of that size
+   * @throws IOException
+   */
+  private static byte[] jpeg(int width, int height) throws IOException {
+    BufferedImage image = new BufferedImage(width, height,
+        BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", outputStream); //$NON-NLS-1$
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Create a TIFF file with one IFD for each JPEG image, like the previews
+   * in a RAW file.
+   *
+   * @param jpegs
+   * @return The file
+   * @throws IOException
+   */
+  private static File createRawFile(byte[][] jpegs) throws IOException {
+    final int headerSize = 8;
+    final int ifdSize = 2 + 2 * 12 + 4;
+    int length = headerSize + jpegs.length * ifdSize;
+    for (byte[] jpeg : jpegs) {
+      length += jpeg.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    final short intel = 0x4949;
+    final short magic = 42;
+    buffer.putShort(intel).putShort(magic).putInt(headerSize);
+    int dataOffset = headerSize + jpegs.length * ifdSize;
+    for (int index = 0; index < jpegs.length; index++) {
+      final short jpegOffsetTag = 0x0201;
+      final short jpegLengthTag = 0x0202;
+      final short longType = 4;
+      buffer.putShort((short) 2);
+      buffer.putShort(jpegOffsetTag).putShort(longType).putInt(1).putInt(
+          dataOffset);
+      buffer.putShort(jpegLengthTag).putShort(longType).putInt(1).putInt(
+          jpegs[index].length);
+      // the offset of the next IFD
+      boolean last = index == jpegs.length - 1;
+      buffer.putInt(last ? 0 : buffer.position() + 4);
+      dataOffset += jpegs[index].length;
+    }
+    for (byte[] jpeg : jpegs) {
+      buffer.put(jpeg);
+    }
+    File file = File.createTempFile("preview", ".cr2"); //$NON-NLS-1$ //$NON-NLS-2$
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(buffer.array());
+    } finally {
+      outputStream.close();
+    }
+    return file;
+  }
+}
@@ -0,0 +1,504 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Extracts the JPEG previews embedded in TIFF based RAW files (CR2, NEF, ARW,
+ * DNG, ORF, PEF and others) without starting dcraw. Only the IFDs are parsed,
+ * the preview itself is read straight from its offset in the file.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class RawPreviewExtractor {
+
+  /**
+   * hide constructor.
+   */
+  private RawPreviewExtractor() {
+    // hide constructor
+  }
+
+  /** TIFF tag for the compression of strips. */
+  private static final int TAG_COMPRESSION = 0x0103;
+
+  /** TIFF tag for the strip offsets. */
+  private static final int TAG_STRIP_OFFSETS = 0x0111;
+
+  /** TIFF tag for the strip lengths. */
+  private static final int TAG_STRIP_BYTE_COUNTS = 0x0117;
+
+  /** TIFF tag for the sub IFDs. */
+  private static final int TAG_SUB_IFDS = 0x014a;
+
+  /** TIFF tag for the offset of a JPEG image. */
+  private static final int TAG_JPEG_OFFSET = 0x0201;
+
+  /** TIFF tag for the length of a JPEG image. */
+  private static final int TAG_JPEG_LENGTH = 0x0202;
+
+  /** TIFF tag for the EXIF IFD. */
+  private static final int TAG_EXIF_IFD = 0x8769;
+
+  /** TIFF type SHORT. */
+  private static final int TYPE_SHORT = 3;
+
+  /** Old style JPEG compression. */
+  private static final int COMPRESSION_OLD_JPEG = 6;
+
+  /** JPEG compression. */
+  private static final int COMPRESSION_JPEG = 7;
+
+  /** The size of an IFD entry in bytes. */
+  private static final int ENTRY_SIZE = 12;
+
+  /** Stop looking after this many IFDs - the file is probably broken. */
+  private static final int MAX_IFDS = 64;
+
+  /** No IFD has more entries than this. */
+  private static final int MAX_ENTRIES = 1024;
+
+  /** Previews larger than this are probably the RAW data itself. */
+  private static final long MAX_PREVIEW_LENGTH = 32 * 1024 * 1024;
+
+  /**
+   * Read the smallest embedded preview that is at least as big as requested.
+   * If none is big enough, the biggest is returned. The image is decoded with
+   * subsampling if it is much bigger than needed. The size of the biggest
+   * preview is returned as well - it is the closest we get to the size of
+   * the full image.
+   *
+   * @param file
+   *          The RAW file
+   * @param longestSide
+   *          The length of the longest side of the image needed
+   * @return The preview or null if none could be found
+   */
+  public static ExtractedPreview read(File file, int longestSide) {
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+      FileChannel channel = randomAccessFile.getChannel();
+      List<Preview> previews = findPreviews(channel);
+      // smallest first
+      Collections.sort(previews);
+      // the sizes come from the JPEG headers, nothing is decoded yet
+      int[] sides = new int[previews.size()];
+      Dimension biggestSize = null;
+      int biggest = -1;
+      for (int index = 0; index < sides.length; index++) {
+        Dimension size = size(channel, previews.get(index));
+        sides[index] = size == null ? 0 : Math.max(size.width, size.height);
+        if (sides[index] > 0
+            && (biggest < 0 || sides[index] > sides[biggest])) {
+          biggest = index;
+          biggestSize = size;
+        }
+      }
+      if (biggestSize == null) {
+        return null;
+      }
+      for (int index = 0; index < sides.length; index++) {
+        if (sides[index] > 0
+            && (sides[index] >= longestSide || index == biggest)) {
+          Preview preview = previews.get(index);
+          byte[] jpeg = readBytes(channel, preview.offset,
+              (int) preview.length);
+          BufferedImage image = jpeg == null ? null : decode(jpeg, longestSide);
+          if (image != null) {
+            return new ExtractedPreview(image, biggestSize.width,
+                biggestSize.height);
+          }
+        }
+      }
+    } catch (IOException e) {
+      // not a file we can handle
+    } finally {
+      if (randomAccessFile != null) {
+        try {
+          randomAccessFile.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Walk all IFDs of a TIFF file and note the embedded JPEG images.
+   *
+   * @param channel
+   * @return The previews found - empty if the file isn't a TIFF file
+   * @throws IOException
+   */
+  private static List<Preview> findPreviews(FileChannel channel)
+      throws IOException {
+    List<Preview> previews = new ArrayList<Preview>();
+    final int headerSize = 8;
+    ByteBuffer header = read(channel, 0, headerSize, ByteOrder.BIG_ENDIAN);
+    if (header == null) {
+      return previews;
+    }
+    ByteOrder byteOrder;
+    final short intel = 0x4949;
+    final short motorola = 0x4d4d;
+    short byteOrderMark = header.getShort(0);
+    if (byteOrderMark == intel) {
+      byteOrder = ByteOrder.LITTLE_ENDIAN;
+    } else if (byteOrderMark == motorola) {
+      byteOrder = ByteOrder.BIG_ENDIAN;
+    } else {
+      return previews;
+    }
+    // we don't check the magic number, ORF and RW2 files use their own
+    header.order(byteOrder);
+    long fileSize = channel.size();
+    LinkedList<Long> ifdOffsets = new LinkedList<Long>();
+    ifdOffsets.add(Long.valueOf(header.getInt(4) & 0xffffffffL));
+    Set<Long> visited = new HashSet<Long>();
+    while (!ifdOffsets.isEmpty() && visited.size() < MAX_IFDS) {
+      Long ifdOffset = ifdOffsets.removeFirst();
+      long offset = ifdOffset.longValue();
+      if (offset == 0 || offset >= fileSize || !visited.add(ifdOffset)) {
+        continue;
+      }
+      ByteBuffer countBuffer = read(channel, offset, 2, byteOrder);
+      if (countBuffer == null) {
+        continue;
+      }
+      int count = countBuffer.getShort(0) & 0xffff;
+      if (count > MAX_ENTRIES) {
+        continue;
+      }
+      ByteBuffer entries = read(channel, offset + 2, count * ENTRY_SIZE + 4,
+          byteOrder);
+      if (entries == null) {
+        continue;
+      }
+      long jpegOffset = 0;
+      long jpegLength = 0;
+      long compression = 0;
+      long stripOffset = 0;
+      long stripLength = 0;
+      for (int index = 0; index < count; index++) {
+        int position = index * ENTRY_SIZE;
+        int tag = entries.getShort(position) & 0xffff;
+        int type = entries.getShort(position + 2) & 0xffff;
+        long valueCount = entries.getInt(position + 4) & 0xffffffffL;
+        long value = value(entries, position + 8, type);
+        switch (tag) {
+          case TAG_JPEG_OFFSET:
+            jpegOffset = value;
+            break;
+          case TAG_JPEG_LENGTH:
+            jpegLength = value;
+            break;
+          case TAG_COMPRESSION:
+            compression = value;
+            break;
+          case TAG_STRIP_OFFSETS:
+            // we can only use previews stored in one piece
+            stripOffset = valueCount == 1 ? value : 0;
+            break;
+          case TAG_STRIP_BYTE_COUNTS:
+            stripLength = valueCount == 1 ? value : 0;
+            break;
+          case TAG_EXIF_IFD:
+            ifdOffsets.add(Long.valueOf(value));
+            break;
+          case TAG_SUB_IFDS:
+            if (valueCount == 1) {
+              ifdOffsets.add(Long.valueOf(value));
+            } else if (valueCount <= MAX_IFDS) {
+              // the value is the offset of the list of offsets
+              ByteBuffer subIfds = read(channel, value, (int) valueCount * 4,
+                  byteOrder);
+              for (int subIfd = 0; subIfds != null && subIfd < valueCount; subIfd++) {
+                ifdOffsets.add(Long.valueOf(subIfds.getInt(subIfd * 4) & 0xffffffffL));
+              }
+            }
+            break;
+          default:
+            break;
+        }
+      }
+      addPreview(previews, jpegOffset, jpegLength, fileSize);
+      if (compression == COMPRESSION_OLD_JPEG
+          || compression == COMPRESSION_JPEG) {
+        addPreview(previews, stripOffset, stripLength, fileSize);
+      }
+      // the next IFD in the chain
+      ifdOffsets.add(Long.valueOf(entries.getInt(count * ENTRY_SIZE) & 0xffffffffL));
+    }
+    return previews;
+  }
+
+  /**
+   * Add a preview to the list if it looks sensible.
+   *
+   * @param previews
+   * @param offset
+   * @param length
+   * @param fileSize
+   */
+  private static void addPreview(List<Preview> previews, long offset,
+      long length, long fileSize) {
+    if (offset > 0 && length > 0 && length <= MAX_PREVIEW_LENGTH
+        && offset + length <= fileSize) {
+      Preview preview = new Preview(offset, length);
+      if (!previews.contains(preview)) {
+        previews.add(preview);
+      }
+    }
+  }
+
+  /**
+   * @param entries
+   * @param position
+   *          The position of the value field of the entry
+   * @param type
+   *          The TIFF type of the entry
+   * @return The (first) value of the entry
+   */
+  private static long value(ByteBuffer entries, int position, int type) {
+    if (type == TYPE_SHORT) {
+      return entries.getShort(position) & 0xffff;
+    }
+    return entries.getInt(position) & 0xffffffffL;
+  }
+
+  /**
+   * Read part of a file.
+   *
+   * @param channel
+   * @param position
+   * @param length
+   * @param byteOrder
+   * @return The data or null if the file is too short
+   * @throws IOException
+   */
+  private static ByteBuffer read(FileChannel channel, long position,
+      int length, ByteOrder byteOrder) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        return null;
+      }
+    }
+    buffer.order(byteOrder);
+    return buffer;
+  }
+
+  /**
+   * Read a JPEG image from a file.
+   *
+   * @param channel
+   * @param position
+   * @param length
+   * @return The bytes read or null if they don't start like a JPEG image
+   * @throws IOException
+   */
+  private static byte[] readBytes(FileChannel channel, long position,
+      int length) throws IOException {
+    ByteBuffer buffer = read(channel, position, length, ByteOrder.BIG_ENDIAN);
+    final short startOfImage = (short) 0xffd8;
+    if (buffer == null || length < 2 || buffer.getShort(0) != startOfImage) {
+      return null;
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Read the size of an embedded JPEG image from its header.
+   *
+   * @param channel
+   * @param preview
+   * @return The size of the image or null if it can't be read
+   */
+  private static Dimension size(FileChannel channel, Preview preview) {
+    ImageReader reader = null;
+    try {
+      channel.position(preview.offset);
+      // the reader only reads as far as the frame header
+      ImageInputStream inputStream = new MemoryCacheImageInputStream(
+          Channels.newInputStream(channel));
+      reader = ImageIO.getImageReadersByFormatName("jpeg").next(); //$NON-NLS-1$
+      reader.setInput(inputStream, true, true);
+      return new Dimension(reader.getWidth(0), reader.getHeight(0));
+    } catch (IOException e) {
+      // e.g. lossless JPEG RAW data
+      return null;
+    } finally {
+      if (reader != null) {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Decode a JPEG image, only using every n-th pixel if it is much bigger than
+   * needed.
+   *
+   * @param jpeg
+   * @param longestSide
+   * @return The image or null if it can't be decoded
+   */
+  private static BufferedImage decode(byte[] jpeg, int longestSide) {
+    ImageReader reader = null;
+    try {
+      ImageInputStream inputStream = ImageIO
+          .createImageInputStream(new ByteArrayInputStream(jpeg));
+      reader = ImageIO.getImageReadersByFormatName("jpeg").next(); //$NON-NLS-1$
+      reader.setInput(inputStream, true, true);
+      int subsampling = Math.max(reader.getWidth(0), reader.getHeight(0))
+          / longestSide;
+      ImageReadParam readParam = reader.getDefaultReadParam();
+      if (subsampling > 1) {
+        readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+      }
+      return reader.read(0, readParam);
+    } catch (IOException e) {
+      return null;
+    } finally {
+      if (reader != null) {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * A preview read from a RAW file.
+   */
+  public static class ExtractedPreview {
+
+    /** The preview image. */
+    private final BufferedImage image;
+
+    /** The width of the biggest preview in the file. */
+    private final int width;
+
+    /** The height of the biggest preview in the file. */
+    private final int height;
+
+    /**
+     * @param image
+     * @param width
+     * @param height
+     */
+    ExtractedPreview(BufferedImage image, int width, int height) {
+      this.image = image;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * @return the preview image - possibly subsampled
+     */
+    public BufferedImage getImage() {
+      return image;
+    }
+
+    /**
+     * @return the width of the biggest preview in the file
+     */
+    public int getWidth() {
+      return width;
+    }
+
+    /**
+     * @return the height of the biggest preview in the file
+     */
+    public int getHeight() {
+      return height;
+    }
+  }
+
+  /**
+   * The location of an embedded JPEG image in a file.
+   */
+  private static class Preview implements Comparable<Preview> {
+
+    /** The offset of the image in the file. */
+    final long offset;
+
+    /** The length of the image in bytes. */
+    final long length;
+
+    /**
+     * @param offset
+     * @param length
+     */
+    Preview(long offset, long length) {
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    @Override
+    public int compareTo(Preview other) {
+      return length < other.length ? -1 : (length == other.length ? 0 : 1);
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Preview)) {
+        return false;
+      }
+      return offset == ((Preview) other).offset
+          && length == ((Preview) other).length;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+      return (int) (offset ^ (offset >>> 32) ^ length);
+    }
+  }
+}
@@ -0,0 +1,413 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.fibs.geotag.Geotag;
+import org.fibs.geotag.Settings;
+import org.fibs.geotag.Settings.SETTING;
+import org.fibs.geotag.util.Constants;
+
+/**
+ * A cache of thumbnails on disk, so thumbnails don't have to be created again
+ * every time the program starts. Each thumbnail is stored in a file of its
+ * own, named after a hash of the image path, size, modification time and the
+ * thumbnail size. Changing an image therefore automatically invalidates its
+ * thumbnail. The modification time of the cache files is used to find the
+ * least recently used thumbnails when the cache gets too big.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class ThumbnailCache {
+
+  /**
+   * hide constructor.
+   */
+  private ThumbnailCache() {
+    // hide constructor
+  }
+
+  /** The default maximum size of the cache in megabytes. */
+  public static final int DEFAULT_CACHE_SIZE = 100;
+
+  /** The extension of the cache files. */
+  private static final String EXTENSION = ".thumb"; //$NON-NLS-1$
+
+  /** The prefix of the temporary files written before a cache file. */
+  private static final String TEMPORARY_PREFIX = "thumb"; //$NON-NLS-1$
+
+  /** The extension of the temporary files. */
+  private static final String TEMPORARY_EXTENSION = ".tmp"; //$NON-NLS-1$
+
+  /**
+   * Temporary files older than this have been left behind by a program that
+   * died before renaming them.
+   */
+  private static final long STALE_TEMPORARY_MILLIS = 10 * Constants
+      .ONE_MINUTE_IN_MILLIS;
+
+  /** Cache files start with this, so we can tell them from other files. */
+  private static final int MAGIC = 0x47544331; // GTC1
+
+  /** Evicting thumbnails stops when the cache is this fraction of its size. */
+  private static final double EVICTION_TARGET = 0.9;
+
+  /** The directory containing the cache files. */
+  private static File cacheDirectory = new File(System
+      .getProperty("user.home"), '.' + Geotag.NAME + File.separator //$NON-NLS-1$
+      + "thumbnails"); //$NON-NLS-1$
+
+  /** The total size of the cache files - -1 if not determined yet. */
+  private static long cacheSize = -1;
+
+  /**
+   * @return The maximum cache size in bytes - zero if the cache is disabled
+   */
+  private static long getMaximumCacheSize() {
+    return (long) Settings.get(SETTING.THUMBNAIL_CACHE_SIZE,
+        DEFAULT_CACHE_SIZE)
+        * Constants.ONE_K * Constants.ONE_K;
+  }
+
+  /**
+   * Look up a thumbnail.
+   *
+   * @param imageFile
+   *          The image file
+   * @param thumbnailSize
+   *          The length of the longest side of the thumbnail
+   * @return The cached thumbnail or null if there is none
+   */
+  public static CachedThumbnail get(File imageFile, int thumbnailSize) {
+    if (getMaximumCacheSize() <= 0) {
+      return null;
+    }
+    File cacheFile = getCacheFile(imageFile, thumbnailSize);
+    if (cacheFile == null || !cacheFile.isFile()) {
+      return null;
+    }
+    DataInputStream inputStream = null;
+    try {
+      inputStream = new DataInputStream(new FileInputStream(cacheFile));
+      if (inputStream.readInt() != MAGIC) {
+        return null;
+      }
+      int width = inputStream.readInt();
+      int height = inputStream.readInt();
+      byte[] jpegBytes = new byte[inputStream.readInt()];
+      inputStream.readFully(jpegBytes);
+      // remember when the thumbnail was last used
+      cacheFile.setLastModified(System.currentTimeMillis());
+      return new CachedThumbnail(width, height, jpegBytes);
+    } catch (IOException e) {
+      // treat like a cache miss - the file will be overwritten
+      return null;
+    } finally {
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Store a thumbnail in the cache.
+   *
+   * @param imageFile
+   *          The image file
+   * @param thumbnailSize
+   *          The length of the longest side of the thumbnail
+   * @param thumbnail
+   *          The thumbnail image
+   * @param width
+   *          The width of the full image
+   * @param height
+   *          The height of the full image
+   */
+  public static void put(File imageFile, int thumbnailSize,
+      BufferedImage thumbnail, int width, int height) {
+    long maximumCacheSize = getMaximumCacheSize();
+    if (maximumCacheSize <= 0) {
+      return;
+    }
+    File cacheFile = getCacheFile(imageFile, thumbnailSize);
+    if (cacheFile == null) {
+      return;
+    }
+    if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+      return;
+    }
+    DataOutputStream outputStream = null;
+    File temporaryFile = null;
+    try {
+      ByteArrayOutputStream jpegStream = new ByteArrayOutputStream();
+      if (!ImageIO.write(thumbnail, "jpg", jpegStream)) { //$NON-NLS-1$
+        return;
+      }
+      // write to a temporary file first, so others never see half a thumbnail
+      temporaryFile = File.createTempFile(TEMPORARY_PREFIX,
+          TEMPORARY_EXTENSION, cacheDirectory);
+      outputStream = new DataOutputStream(new FileOutputStream(temporaryFile));
+      outputStream.writeInt(MAGIC);
+      outputStream.writeInt(width);
+      outputStream.writeInt(height);
+      outputStream.writeInt(jpegStream.size());
+      jpegStream.writeTo(outputStream);
+      outputStream.close();
+      outputStream = null;
+      long oldLength = cacheFile.length();
+      if (cacheFile.exists() && !cacheFile.delete()) {
+        return;
+      }
+      if (temporaryFile.renameTo(cacheFile)) {
+        temporaryFile = null;
+        addToCacheSize(cacheFile.length() - oldLength, maximumCacheSize);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      if (outputStream != null) {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+      if (temporaryFile != null) {
+        temporaryFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Keep track of the cache size and remove the least recently used
+   * thumbnails if the cache has become too big.
+   *
+   * @param change
+   *          The change in size
+   * @param maximumCacheSize
+   *          The maximum size in bytes
+   */
+  private static synchronized void addToCacheSize(long change,
+      long maximumCacheSize) {
+    File[] cacheFiles = null;
+    if (cacheSize < 0) {
+      // first time round we need to look at all files
+      cacheFiles = listCacheFiles();
+      cacheSize = 0;
+      for (File file : cacheFiles) {
+        cacheSize += file.length();
+      }
+    } else {
+      cacheSize += change;
+    }
+    if (cacheSize <= maximumCacheSize) {
+      return;
+    }
+    if (cacheFiles == null) {
+      cacheFiles = listCacheFiles();
+    }
+    // oldest first - the times are taken beforehand, as they might change
+    // while sorting
+    Map<File, Long> lastModified = new HashMap<File, Long>();
+    for (File file : cacheFiles) {
+      lastModified.put(file, Long.valueOf(file.lastModified()));
+    }
+    Arrays.sort(cacheFiles, new LastModifiedComparator(lastModified));
+    long targetSize = (long) (maximumCacheSize * EVICTION_TARGET);
+    for (File file : cacheFiles) {
+      if (cacheSize <= targetSize) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        cacheSize -= length;
+      }
+    }
+  }
+
+  /**
+   * Temporary files left behind are deleted on the way.
+   * 
+   * @return All files currently in the cache
+   */
+  private static File[] listCacheFiles() {
+    File[] files = cacheDirectory.listFiles();
+    if (files == null) {
+      return new File[0];
+    }
+    long staleTime = System.currentTimeMillis() - STALE_TEMPORARY_MILLIS;
+    int count = 0;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(EXTENSION)) {
+        files[count++] = file;
+      } else if (name.startsWith(TEMPORARY_PREFIX)
+          && name.endsWith(TEMPORARY_EXTENSION)
+          && file.lastModified() < staleTime) {
+        // another thread might still be writing the younger ones
+        file.delete();
+      }
+    }
+    return Arrays.copyOf(files, count);
+  }
+
+  /**
+   * Determine the cache file for an image.
+   *
+   * @param imageFile
+   * @param thumbnailSize
+   * @return The cache file or null if none can be determined
+   */
+  private static File getCacheFile(File imageFile, int thumbnailSize) {
+    String path;
+    try {
+      path = imageFile.getCanonicalPath();
+    } catch (IOException e) {
+      path = imageFile.getAbsolutePath();
+    }
+    String key = path + '\n' + imageFile.length() + '\n'
+        + imageFile.lastModified() + '\n' + thumbnailSize;
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+      byte[] hash = digest.digest(key.getBytes("UTF-8")); //$NON-NLS-1$
+      StringBuilder name = new StringBuilder();
+      final int byteMask = 0xff;
+      final int hexBase = 0x100;
+      for (byte b : hash) {
+        // add leading zeros
+        name.append(Integer.toHexString((b & byteMask) + hexBase).substring(1));
+      }
+      name.append(EXTENSION);
+      return new File(cacheDirectory, name.toString());
+    } catch (NoSuchAlgorithmException e) {
+      e.printStackTrace();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * A thumbnail read from the cache.
+   */
+  public static class CachedThumbnail {
+
+    /** The width of the full image. */
+    private final int width;
+
+    /** The height of the full image. */
+    private final int height;
+
+    /** The thumbnail as JPEG. */
+    private final byte[] jpegBytes;
+
+    /**
+     * @param width
+     * @param height
+     * @param jpegBytes
+     */
+    CachedThumbnail(int width, int height, byte[] jpegBytes) {
+      this.width = width;
+      this.height = height;
+      this.jpegBytes = jpegBytes;
+    }
+
+    /**
+     * @return the width of the full image
+     */
+    public int getWidth() {
+      return width;
+    }
+
+    /**
+     * @return the height of the full image
+     */
+    public int getHeight() {
+      return height;
+    }
+
+    /**
+     * @return the thumbnail as JPEG
+     */
+    public byte[] getJpegBytes() {
+      return jpegBytes;
+    }
+
+    /**
+     * @return the thumbnail image
+     * @throws IOException
+     */
+    public BufferedImage getImage() throws IOException {
+      return ImageIO.read(new ByteArrayInputStream(jpegBytes));
+    }
+  }
+
+  /**
+   * Orders files by their modification time, oldest first.
+   */
+  static class LastModifiedComparator implements Comparator<File>,
+      Serializable {
+    /***/
+    private static final long serialVersionUID = 1L;
+
+    /** The modification times of the files. */
+    private Map<File, Long> lastModified;
+
+    /**
+     * @param lastModified
+     *          The modification times of the files to be compared
+     */
+    LastModifiedComparator(Map<File, Long> lastModified) {
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public int compare(File file1, File file2) {
+      long time1 = lastModified.get(file1).longValue();
+      long time2 = lastModified.get(file2).longValue();
+      return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+    }
+  }
+}
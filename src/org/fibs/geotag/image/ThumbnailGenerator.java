@@ -87,19 +87,41 @@ public final class ThumbnailGenerator {
     try {
       imageInfo.setThumbNailStatus(THUMBNAIL_STATUS.LOADING);
       File file = new File(imageInfo.getPath());
+      int thumbnailSize = Settings.get(SETTING.THUMBNAIL_SIZE,
+          Settings.DEFAULT_THUMBNAIL_SIZE);
+      // we might have created the thumbnail before
+      ThumbnailCache.CachedThumbnail cachedThumbnail = ThumbnailCache.get(
+          file, thumbnailSize);
+      if (cachedThumbnail != null) {
+        BufferedImage thumbImage = cachedThumbnail.getImage();
+        if (thumbImage != null) {
+          imageInfo.setWidth(cachedThumbnail.getWidth());
+          imageInfo.setHeight(cachedThumbnail.getHeight());
+          imageInfo.setThumbnail(new ImageIcon(thumbImage));
+          imageInfo.setThumbNailStatus(THUMBNAIL_STATUS.AVAILABLE);
+          return true;
+        }
+      }
       ImageFile imageFile = ImageFileFactory.createImageFile(file);
       if (imageFile != null) {
-        BufferedImage originalImage = imageFile.read();
+        // this might well be a lot smaller than the image itself
+        BufferedImage originalImage = imageFile.read(thumbnailSize);
         if (originalImage != null) {
           BufferedImage rotatedImage = (new ImageRotator(originalImage,
               imageInfo).rotate());
           // note the image size
-          imageInfo.setWidth(rotatedImage.getWidth());
-          imageInfo.setHeight(rotatedImage.getHeight());
+          if (Orientation.getOrientation(imageInfo).changesAspect()) {
+            imageInfo.setWidth(imageFile.getHeight());
+            imageInfo.setHeight(imageFile.getWidth());
+          } else {
+            imageInfo.setWidth(imageFile.getWidth());
+            imageInfo.setHeight(imageFile.getHeight());
+          }
           // now we create a thumbnail image
           BufferedImage thumbImage = ThumbnailGenerator.createThumbnailImage(
-              rotatedImage, Settings.get(SETTING.THUMBNAIL_SIZE,
-                  Settings.DEFAULT_THUMBNAIL_SIZE));
+              rotatedImage, thumbnailSize);
+          ThumbnailCache.put(file, thumbnailSize, thumbImage, imageInfo
+              .getWidth(), imageInfo.getHeight());
           ImageIcon imageIcon = new ImageIcon(thumbImage);
           imageInfo.setThumbnail(imageIcon);
           imageInfo.setThumbNailStatus(THUMBNAIL_STATUS.AVAILABLE);
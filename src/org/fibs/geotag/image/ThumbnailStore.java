@@ -0,0 +1,159 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.image;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import org.fibs.geotag.Settings;
+import org.fibs.geotag.Settings.SETTING;
+import org.fibs.geotag.data.ImageInfo;
+import org.fibs.geotag.data.ImageInfo.THUMBNAIL_STATUS;
+import org.fibs.geotag.util.Constants;
+
+/**
+ * Holds the thumbnails of all images in memory - up to a configurable number
+ * of bytes. If that is exceeded, the least recently used thumbnails are
+ * dropped. Dropped thumbnails are read back from the {@link ThumbnailCache}
+ * when needed again, or created again if they're not in there either.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class ThumbnailStore {
+
+  /**
+   * hide constructor.
+   */
+  private ThumbnailStore() {
+    // hide constructor
+  }
+
+  /** The default memory available for thumbnails in megabytes. */
+  public static final int DEFAULT_MEMORY_SIZE = 64;
+
+  /** The thumbnails by image sequence number, least recently used first. */
+  private static LinkedHashMap<Integer, ImageIcon> thumbnails = new LinkedHashMap<Integer, ImageIcon>(
+      16, 0.75f, true);
+
+  /** The memory used by the thumbnails in bytes. */
+  private static long memoryUsed = 0;
+
+  /**
+   * Get the thumbnail of an image, reading it from the disk cache if it has
+   * been dropped.
+   *
+   * @param imageInfo
+   * @return The thumbnail or null if it isn't available
+   */
+  public static ImageIcon get(ImageInfo imageInfo) {
+    Integer key = Integer.valueOf(imageInfo.getSequenceNumber());
+    synchronized (ThumbnailStore.class) {
+      ImageIcon thumbnail = thumbnails.get(key);
+      if (thumbnail != null
+          || imageInfo.getThumbNailStatus() != THUMBNAIL_STATUS.AVAILABLE) {
+        return thumbnail;
+      }
+    }
+    // we had the thumbnail, but dropped it
+    ThumbnailCache.CachedThumbnail cachedThumbnail = ThumbnailCache.get(
+        new File(imageInfo.getPath()), Settings.get(SETTING.THUMBNAIL_SIZE,
+            Settings.DEFAULT_THUMBNAIL_SIZE));
+    if (cachedThumbnail != null) {
+      try {
+        BufferedImage image = cachedThumbnail.getImage();
+        if (image != null) {
+          ImageIcon thumbnail = new ImageIcon(image);
+          put(imageInfo, thumbnail);
+          return thumbnail;
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    // it needs to be created again
+    imageInfo.setThumbNailStatus(THUMBNAIL_STATUS.UNKNOWN);
+    return null;
+  }
+
+  /**
+   * Store the thumbnail of an image.
+   *
+   * @param imageInfo
+   * @param thumbnail
+   */
+  public static synchronized void put(ImageInfo imageInfo, ImageIcon thumbnail) {
+    Integer key = Integer.valueOf(imageInfo.getSequenceNumber());
+    ImageIcon previous = thumbnails.put(key, thumbnail);
+    if (previous != null) {
+      memoryUsed -= memorySize(previous);
+    }
+    memoryUsed += memorySize(thumbnail);
+    long maximumMemory = (long) Settings.get(SETTING.THUMBNAIL_MEMORY_SIZE,
+        DEFAULT_MEMORY_SIZE)
+        * Constants.ONE_K * Constants.ONE_K;
+    Iterator<Map.Entry<Integer, ImageIcon>> iterator = thumbnails.entrySet()
+        .iterator();
+    // never drop the thumbnail we just added
+    while (memoryUsed > maximumMemory && thumbnails.size() > 1) {
+      Map.Entry<Integer, ImageIcon> eldest = iterator.next();
+      memoryUsed -= memorySize(eldest.getValue());
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Drop the thumbnail of an image. It will be reloaded when needed again.
+   *
+   * @param imageInfo
+   */
+  public static synchronized void remove(ImageInfo imageInfo) {
+    ImageIcon thumbnail = thumbnails.remove(Integer.valueOf(imageInfo
+        .getSequenceNumber()));
+    if (thumbnail != null) {
+      memoryUsed -= memorySize(thumbnail);
+    }
+  }
+
+  /**
+   * @param thumbnail
+   * @return The approximate memory used by the thumbnail in bytes
+   */
+  private static long memorySize(ImageIcon thumbnail) {
+    Image image = thumbnail.getImage();
+    if (image instanceof BufferedImage) {
+      DataBuffer dataBuffer = ((BufferedImage) image).getRaster()
+          .getDataBuffer();
+      return (long) dataBuffer.getSize() * dataBuffer.getNumBanks()
+          * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / Byte.SIZE;
+    }
+    // assume four bytes per pixel
+    final int bytesPerPixel = 4;
+    return (long) thumbnail.getIconWidth() * thumbnail.getIconHeight()
+        * bytesPerPixel;
+  }
+}
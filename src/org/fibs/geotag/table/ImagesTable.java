@@ -523,7 +523,7 @@ public class ImagesTable extends NavigableTable {
       // we do the next bit, so the tooltip text changes when a thumbnail
       // image becomes available. The tooltip won't update to a tooltip
       // with image otherwise
-      if (imageInfo.getThumbnail() != null) {
+      if (imageInfo.hasThumbnail()) {
         text += ' ';
       }
       ((DefaultTableCellRenderer) component).setToolTipText(text);
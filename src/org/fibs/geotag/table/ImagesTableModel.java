@@ -18,18 +18,29 @@
 
 package org.fibs.geotag.table;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 
 import org.fibs.geotag.Settings;
 import org.fibs.geotag.Settings.SETTING;
+import org.fibs.geotag.Settings.SettingsListener;
 import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.data.ImageInfo.DATA_SOURCE;
+import org.fibs.geotag.data.ImageInfo.DISPLAY;
 import org.fibs.geotag.table.ImagesTableColumns.COLUMN;
 import org.fibs.geotag.tasks.EditAltitudeTask;
 import org.fibs.geotag.tasks.EditDirectionTask;
@@ -68,6 +79,45 @@ public class ImagesTableModel extends AbstractTableModel {
   /** The data to be displayed. */
   private ArrayList<ImageInfo> values = new ArrayList<ImageInfo>();
 
+  /**
+   * The row of each {@link ImageInfo} by sequence number. It is rebuilt when
+   * needed after the rows have changed.
+   */
+  private Map<Integer, Integer> rowIndex = new HashMap<Integer, Integer>();
+
+  /** Is the row index up to date? */
+  private boolean rowIndexValid = true;
+
+  /**
+   * Changed images are reported to the table at most this often (in
+   * milliseconds).
+   */
+  private static final int UPDATE_DELAY = 100;
+
+  /**
+   * If the changed rows make up more ranges than this, a single event covering
+   * all of them is fired instead.
+   */
+  private static final int MAX_UPDATE_RANGES = 16;
+
+  /** The sequence numbers of the images changed since the last update. */
+  private Set<Integer> changedImages = new HashSet<Integer>();
+
+  /** Reports the changed images to the table - created when first needed. */
+  private Timer updateTimer;
+
+  // cached display strings need to be created again if the format changes
+  static {
+    SettingsListener displaySettingsListener = new SettingsListener() {
+      @Override
+      public void settingChanged(SETTING setting) {
+        ImageInfo.displaySettingsChanged();
+      }
+    };
+    Settings.addListener(SETTING.COORDINATES_FORMAT, displaySettingsListener);
+    Settings.addListener(SETTING.ALTITUDE_UNIT, displaySettingsListener);
+  }
+
   /** If this is true we disallow any cell editing. */
   private boolean editingForbidden = false;
 
@@ -105,6 +155,7 @@ public class ImagesTableModel extends AbstractTableModel {
   public void sortRows() {
     // keep the data sorted
     Collections.sort(values);
+    rowIndexValid = false;
     // notify the table that the data has changed
     fireTableDataChanged();
   }
@@ -116,10 +167,39 @@ public class ImagesTableModel extends AbstractTableModel {
    *          The {@link ImageInfo} to be added
    */
   public void addImageInfo(ImageInfo imageInfo) {
-    // add the info
-    values.add(imageInfo);
-    // keep the data sorted
-    sortRows();
+    addImageInfos(Collections.singletonList(imageInfo));
+  }
+
+  /**
+   * Add several {@link ImageInfo}s to the data. They are sorted and merged
+   * with the existing rows in one go, and the table is only notified once.
+   * 
+   * @param imageInfos
+   *          The {@link ImageInfo}s to be added
+   */
+  public void addImageInfos(Collection<ImageInfo> imageInfos) {
+    if (imageInfos.isEmpty()) {
+      return;
+    }
+    List<ImageInfo> added = new ArrayList<ImageInfo>(imageInfos);
+    Collections.sort(added);
+    ArrayList<ImageInfo> merged = new ArrayList<ImageInfo>(values.size()
+        + added.size());
+    int oldIndex = 0;
+    int addedIndex = 0;
+    while (oldIndex < values.size() && addedIndex < added.size()) {
+      // existing rows go first if equal - just like sorting would do
+      if (added.get(addedIndex).compareTo(values.get(oldIndex)) < 0) {
+        merged.add(added.get(addedIndex++));
+      } else {
+        merged.add(values.get(oldIndex++));
+      }
+    }
+    merged.addAll(values.subList(oldIndex, values.size()));
+    merged.addAll(added.subList(addedIndex, added.size()));
+    values = merged;
+    rowIndexValid = false;
+    fireTableDataChanged();
   }
 
   /**
@@ -141,6 +221,30 @@ public class ImagesTableModel extends AbstractTableModel {
    */
   public void removeRow(int row) {
     values.remove(row);
+    rowIndexValid = false;
+  }
+
+  /**
+   * Remove several {@link ImageInfo}s from the table model in one go and
+   * notify the table.
+   * 
+   * @param imageInfos
+   *          The {@link ImageInfo}s to be removed
+   */
+  public void removeImageInfos(Collection<ImageInfo> imageInfos) {
+    Set<Integer> removed = new HashSet<Integer>();
+    for (ImageInfo imageInfo : imageInfos) {
+      removed.add(Integer.valueOf(imageInfo.getSequenceNumber()));
+    }
+    ArrayList<ImageInfo> remaining = new ArrayList<ImageInfo>(values.size());
+    for (ImageInfo imageInfo : values) {
+      if (!removed.contains(Integer.valueOf(imageInfo.getSequenceNumber()))) {
+        remaining.add(imageInfo);
+      }
+    }
+    values = remaining;
+    rowIndexValid = false;
+    fireTableDataChanged();
   }
 
   /**
@@ -151,12 +255,119 @@ public class ImagesTableModel extends AbstractTableModel {
    * @return The row of the {@link ImageInfo} or -1 if its not found
    */
   public int getRow(ImageInfo imageInfo) {
-    for (int row = 0; row < values.size(); row++) {
-      if (values.get(row).getSequenceNumber() == imageInfo.getSequenceNumber()) {
-        return row;
+    updateRowIndex();
+    Integer row = rowIndex.get(Integer.valueOf(imageInfo.getSequenceNumber()));
+    if (row == null) {
+      return -1;
+    }
+    return row.intValue();
+  }
+
+  /**
+   * Rebuild the row index if the rows have changed.
+   */
+  private void updateRowIndex() {
+    if (!rowIndexValid) {
+      rowIndex.clear();
+      for (int row = 0; row < values.size(); row++) {
+        rowIndex.put(Integer.valueOf(values.get(row).getSequenceNumber()),
+            Integer.valueOf(row));
+      }
+      rowIndexValid = true;
+    }
+  }
+
+  /**
+   * Tell the table that an image has changed. The change isn't reported
+   * immediately, but collected with other changes and reported a little
+   * later, so updating thousands of images doesn't flood the event thread.
+   * Must be called on the event dispatch thread.
+   * 
+   * @param imageInfo
+   *          The {@link ImageInfo} that has changed
+   */
+  public void imageUpdated(ImageInfo imageInfo) {
+    changedImages.add(Integer.valueOf(imageInfo.getSequenceNumber()));
+    scheduleUpdate();
+  }
+
+  /**
+   * Tell the table that some images have changed.
+   * 
+   * @param imageInfos
+   *          The {@link ImageInfo}s that have changed
+   * @see #imageUpdated(ImageInfo)
+   */
+  public void imagesUpdated(Collection<ImageInfo> imageInfos) {
+    for (ImageInfo imageInfo : imageInfos) {
+      changedImages.add(Integer.valueOf(imageInfo.getSequenceNumber()));
+    }
+    scheduleUpdate();
+  }
+
+  /**
+   * Make sure the changed images will be reported to the table.
+   */
+  private void scheduleUpdate() {
+    if (changedImages.isEmpty()) {
+      return;
+    }
+    if (updateTimer == null) {
+      updateTimer = new Timer(UPDATE_DELAY, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent event) {
+          fireImagesUpdated();
+        }
+      });
+      updateTimer.setRepeats(false);
+    }
+    // not restarted if already running - a steady stream of changes still
+    // gets displayed every UPDATE_DELAY milliseconds
+    if (!updateTimer.isRunning()) {
+      updateTimer.start();
+    }
+  }
+
+  /**
+   * Report the changed images to the table, merging neighbouring rows into
+   * ranges.
+   */
+  void fireImagesUpdated() {
+    int[] rows = new int[changedImages.size()];
+    int count = 0;
+    updateRowIndex();
+    for (Integer sequenceNumber : changedImages) {
+      Integer row = rowIndex.get(sequenceNumber);
+      // the image might have been removed in the meantime
+      if (row != null) {
+        rows[count++] = row.intValue();
+      }
+    }
+    changedImages.clear();
+    if (count == 0) {
+      return;
+    }
+    Arrays.sort(rows, 0, count);
+    List<int[]> ranges = new ArrayList<int[]>();
+    int[] range = new int[] { rows[0], rows[0] };
+    ranges.add(range);
+    for (int index = 1; index < count; index++) {
+      if (rows[index] == range[1] + 1) {
+        range[1] = rows[index];
+      } else {
+        range = new int[] { rows[index], rows[index] };
+        ranges.add(range);
+      }
+    }
+    if (ranges.size() > MAX_UPDATE_RANGES) {
+      // fireTableDataChanged() would clear the selection, so we use a single
+      // range from the first to the last changed row instead
+      fireTableRowsUpdated(rows[0], rows[count - 1]);
+    } else {
+      for (int[] updated : ranges) {
+        fireTableRowsUpdated(updated[0], updated[1]);
       }
     }
-    return -1;
   }
 
   /**
@@ -268,42 +479,13 @@ public class ImagesTableModel extends AbstractTableModel {
       case TIME_OFFSET:
         return imageInfo.getOffsetString();
       case LATITUDE:
-        String latitude = imageInfo.getGpsLatitude();
-        if (latitude != null) {
-          latitude = Coordinates.format(Double.parseDouble(latitude), false);
-        }
-        return latitude;
+        return getDisplayString(imageInfo, DISPLAY.LATITUDE);
       case LONGITUDE:
-        String longitude = imageInfo.getGpsLongitude();
-        if (longitude != null) {
-          longitude = Coordinates.format(Double.parseDouble(longitude), true);
-        }
-        return longitude;
+        return getDisplayString(imageInfo, DISPLAY.LONGITUDE);
       case ALTITUDE:
-        Units.ALTITUDE unit = Units.ALTITUDE.values()[Settings.get(
-            SETTING.ALTITUDE_UNIT, 0)];
-        String altitude = imageInfo.getGpsAltitude();
-        if (unit != Units.ALTITUDE.METRES) {
-          try {
-            if (altitude != null && altitude.length() > 0) {
-              double altitudeMeters = Double.parseDouble(altitude);
-              double displayAltitude = Units.convert(altitudeMeters,
-                  Units.ALTITUDE.METRES, unit);
-              altitude = Double.toString(displayAltitude);
-            }
-          } catch (Exception e) {
-            e.printStackTrace();
-          }
-        }
-        return round(altitude, ALTITUDE_DECIMALS);
+        return getDisplayString(imageInfo, DISPLAY.ALTITUDE);
       case DIRECTION:
-        String direction = imageInfo.getGpsImgDirection();
-        if (direction != null) {
-          // round value and add degree symbol
-          direction = round(imageInfo.getGpsImgDirection(), DIRECTION_DECIMALS)
-              + Unicode.DEGREE_SYMBOL;
-        }
-        return direction;
+        return getDisplayString(imageInfo, DISPLAY.DIRECTION);
       case LOCATION_NAME:
         return imageInfo.getLocationName();
       case CITY_NAME:
@@ -319,6 +501,60 @@ public class ImagesTableModel extends AbstractTableModel {
     }
   }
 
+  /**
+   * Get the string displaying a numeric value of an image. Creating these
+   * strings is expensive, so they are cached by the {@link ImageInfo}.
+   * 
+   * @param imageInfo
+   * @param display
+   *          The value to be displayed
+   * @return The display string or null if the image doesn't have the value
+   */
+  private String getDisplayString(ImageInfo imageInfo, DISPLAY display) {
+    String displayString = imageInfo.getDisplayString(display);
+    if (displayString != null) {
+      return displayString;
+    }
+    double value;
+    switch (display) {
+      case LATITUDE:
+        value = imageInfo.getLatitude();
+        if (!Double.isNaN(value)) {
+          displayString = Coordinates.format(value, false);
+        }
+        break;
+      case LONGITUDE:
+        value = imageInfo.getLongitude();
+        if (!Double.isNaN(value)) {
+          displayString = Coordinates.format(value, true);
+        }
+        break;
+      case ALTITUDE:
+        value = imageInfo.getAltitude();
+        if (!Double.isNaN(value)) {
+          Units.ALTITUDE unit = Units.ALTITUDE.values()[Settings.get(
+              SETTING.ALTITUDE_UNIT, 0)];
+          displayString = round(Units.convert(value, Units.ALTITUDE.METRES,
+              unit), ALTITUDE_DECIMALS);
+        }
+        break;
+      case DIRECTION:
+        value = imageInfo.getDirection();
+        if (!Double.isNaN(value)) {
+          // round value and add degree symbol
+          displayString = round(value, DIRECTION_DECIMALS)
+              + Unicode.DEGREE_SYMBOL;
+        }
+        break;
+      default:
+        return null;
+    }
+    if (displayString != null) {
+      imageInfo.setDisplayString(display, value, displayString);
+    }
+    return displayString;
+  }
+
   /**
    * @see javax.swing.table.AbstractTableModel#setValueAt(java.lang.Object, int,
    *      int)
@@ -471,9 +707,9 @@ public class ImagesTableModel extends AbstractTableModel {
       update = false;
     } else {
       try {
-        double oldDouble = 0.0;
-        if (oldString != null) {
-          oldDouble = Double.parseDouble(oldString);
+        double oldDouble = imageInfo.getDirection();
+        if (Double.isNaN(oldDouble)) {
+          oldDouble = 0.0;
         }
         // the newString might contain a degree symbol
         // but the DecimalFormat doesn't care about trailing nonsense
@@ -505,13 +741,7 @@ public class ImagesTableModel extends AbstractTableModel {
               i18n.tr("Edit direction"), imageInfo, newString, DATA_SOURCE.MANUAL) { //$NON-NLS-1$
             @Override
             protected void process(List<ImageInfo> imageInfos) {
-              for (ImageInfo image : imageInfos) {
-                int row = getRow(image);
-                if (row >= 0) {
-                  fireTableRowsUpdated(row, row);
-                  fireTableDataChanged();
-                }
-              }
+              imagesUpdated(imageInfos);
             }
           });
     }
@@ -548,13 +778,7 @@ public class ImagesTableModel extends AbstractTableModel {
           "Edit altitude", imageInfo, newString, DATA_SOURCE.MANUAL) { //$NON-NLS-1$
             @Override
             protected void process(List<ImageInfo> imageInfos) {
-              for (ImageInfo image : imageInfos) {
-                int row = getRow(image);
-                if (row >= 0) {
-                  fireTableRowsUpdated(row, row);
-                  fireTableDataChanged();
-                }
-              }
+              imagesUpdated(imageInfos);
             }
           });
     }
@@ -569,15 +793,15 @@ public class ImagesTableModel extends AbstractTableModel {
     String newString;
     boolean update;
     update = true;
-    oldString = imageInfo.getGpsLatitude();
+    oldString = imageInfo.getGpsLongitude();
     newString = (String) value;
     if (oldString == null && newString.length() == 0) {
       update = false;
     } else {
       try {
-        double oldLongitude = INVALID_LAT_LON; // any impossible value
-        if (oldString != null) {
-          oldLongitude = Double.parseDouble(oldString);
+        double oldLongitude = imageInfo.getLongitude();
+        if (Double.isNaN(oldLongitude)) {
+          oldLongitude = INVALID_LAT_LON; // any impossible value
         }
         double newLongitude = Coordinates.parse(newString, true);
         newString = Double.toString(newLongitude);
@@ -594,13 +818,7 @@ public class ImagesTableModel extends AbstractTableModel {
                 i18n.tr("Edit longitude"), imageInfo, newString, DATA_SOURCE.MANUAL) { //$NON-NLS-1$
               @Override
               protected void process(List<ImageInfo> imageInfos) {
-                for (ImageInfo image : imageInfos) {
-                  int row = getRow(image);
-                  if (row >= 0) {
-                    fireTableRowsUpdated(row, row);
-                    fireTableDataChanged();
-                  }
-                }
+                imagesUpdated(imageInfos);
               }
             });
       }
@@ -622,9 +840,9 @@ public class ImagesTableModel extends AbstractTableModel {
       update = false;
     } else {
       try {
-        double oldLatitude = INVALID_LAT_LON; // any impossible value
-        if (oldString != null) {
-          oldLatitude = Double.parseDouble(oldString);
+        double oldLatitude = imageInfo.getLatitude();
+        if (Double.isNaN(oldLatitude)) {
+          oldLatitude = INVALID_LAT_LON; // any impossible value
         }
         double newLatitude = Coordinates.parse(newString, false);
         newString = Double.toString(newLatitude);
@@ -641,13 +859,7 @@ public class ImagesTableModel extends AbstractTableModel {
                 i18n.tr("Edit latitude"), imageInfo, newString, DATA_SOURCE.MANUAL) { //$NON-NLS-1$
               @Override
               protected void process(List<ImageInfo> imageInfos) {
-                for (ImageInfo image : imageInfos) {
-                  int row = getRow(image);
-                  if (row >= 0) {
-                    fireTableRowsUpdated(row, row);
-                    fireTableDataChanged();
-                  }
-                }
+                imagesUpdated(imageInfos);
               }
             });
       }
@@ -666,38 +878,25 @@ public class ImagesTableModel extends AbstractTableModel {
         newString) {
       @Override
       protected void process(List<ImageInfo> imageInfos) {
-        for (ImageInfo image : imageInfos) {
-          int row = getRow(image);
-          if (row >= 0) {
-            fireTableRowsUpdated(row, row);
-            fireTableDataChanged();
-          }
-        }
+        imagesUpdated(imageInfos);
       }
     });
   }
 
   /**
-   * We don't need to display latitude, longitude and altitude to all available
-   * decimals. this method cuts off the String after the specified number of
-   * decimals after the decimal point
+   * We don't need to display altitude and direction to all available decimals.
+   * This method formats the value with the specified number of decimals after
+   * the decimal point
    * 
    * @param value
+   *          The value to be formatted
    * @param decimals
-   * @return The rounded value
+   *          The number of decimals wanted
+   * @return The formatted value
    */
-  private String round(String value, int decimals) {
-    String result = value;
+  private String round(double value, int decimals) {
     String format = String.format("%%.%df", Integer.valueOf(decimals)); //$NON-NLS-1$
-    if (value != null && value.length() > 0) {
-      try {
-        Double theValue = new Double(value);
-        result = String.format(format, theValue);
-      } catch (NumberFormatException e) {
-        // e.printStackTrace();
-      }
-    }
-    return result;
+    return String.format(format, Double.valueOf(value));
   }
 
 }
@@ -144,9 +144,6 @@ public class CopyLocationNameTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> images) {
-    for (ImageInfo imageInfo : images) {
-      int imageRow = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    imagesTableModel.imagesUpdated(images);
   }
 }
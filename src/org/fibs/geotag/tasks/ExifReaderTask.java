@@ -20,11 +20,12 @@ package org.fibs.geotag.tasks;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.IllegalFormatException;
 import java.util.List;
 
 import org.fibs.geotag.data.ImageInfo;
-import org.fibs.geotag.exif.ExifReader;
 import org.fibs.geotag.exif.Exiftool;
 import org.fibs.geotag.exif.ExiftoolReader;
 import org.fibs.geotag.exif.MetadataExtractorReader;
@@ -55,6 +56,9 @@ public class ExifReaderTask extends UndoableBackgroundTask<ImageInfo> {
   /** The files to be examined for their EXIf data. */
   private File[] files;
 
+  /** The number of files read in one go. */
+  private static final int BATCH_SIZE = 100;
+
   /** keep track of the progress. */
   private int currentProgress = 0;
 
@@ -78,49 +82,102 @@ public class ExifReaderTask extends UndoableBackgroundTask<ImageInfo> {
   }
 
   /**
-   * Determine how to read the exif data and read it.
+   * Determine how to read the exif data and read it. Files that need exiftool
+   * are handed to a single exiftool command, as are their XMP sidecar files.
    * 
-   * @param file
-   *          The file to be examined
-   * @return The {@link ImageInfo} for the file
+   * @param batch
+   *          The files to be examined
+   * @return The {@link ImageInfo}s for the files (in the same order), with
+   *         null entries for files that couldn't be read
    */
-  private ImageInfo readExifData(File file) {
-    ImageInfo result = null;
-    ExifReader exifReader = null;
-    FileTypes fileType = FileTypes.fileType(file);
-    switch (fileType) {
-      case JPEG:
-        exifReader = new MetadataExtractorReader();
-        break;
-      case RAW_READ_ONLY:
-      case RAW_READ_WRITE:
-      case TIFF:
-      case CUSTOM_FILE_WITH_XMP:
-        exifReader = new ExiftoolReader();
-        break;
-      case UNKOWN:
-      case XMP:
-        break;
-      default:
-        break;
-    }
-    if (exifReader != null) {
-      // Don't read from image file if it is a custom file with XMP
-      if (FileTypes.CUSTOM_FILE_WITH_XMP != fileType) {
-        result = exifReader.readExifData(file, null);
+  private List<ImageInfo> readExifData(List<File> batch) {
+    List<ImageInfo> results = new ArrayList<ImageInfo>();
+    List<File> exiftoolFiles = new ArrayList<File>();
+    List<Integer> exiftoolIndices = new ArrayList<Integer>();
+    List<File> xmpFiles = new ArrayList<File>();
+    List<Integer> xmpIndices = new ArrayList<Integer>();
+    for (File file : batch) {
+      ImageInfo result = null;
+      FileTypes fileType = FileTypes.fileType(file);
+      boolean supported = true;
+      switch (fileType) {
+        case JPEG:
+          result = new MetadataExtractorReader().readExifData(file, null);
+          break;
+        case RAW_READ_ONLY:
+        case RAW_READ_WRITE:
+        case TIFF:
+          exiftoolFiles.add(file);
+          exiftoolIndices.add(Integer.valueOf(results.size()));
+          break;
+        case CUSTOM_FILE_WITH_XMP:
+          // Don't read from image file if it is a custom file with XMP
+          break;
+        case UNKOWN:
+        case XMP:
+        default:
+          supported = false;
+          break;
       }
-      // now check if there is an XMP sidecar file for our file
-      String xmpFileName = FileUtil.replaceExtension(file.getPath(), "xmp"); //$NON-NLS-1$
-      if (xmpFileName != null) {
-        File xmpFile = new File(xmpFileName);
-        if (xmpFile.exists()) {
-          System.out.println(xmpFileName);
-          exifReader = new ExiftoolReader();
-          result = exifReader.readExifData(xmpFile, result);
+      if (supported) {
+        // now check if there is an XMP sidecar file for our file
+        String xmpFileName = FileUtil.replaceExtension(file.getPath(), "xmp"); //$NON-NLS-1$
+        if (xmpFileName != null) {
+          File xmpFile = new File(xmpFileName);
+          if (xmpFile.exists()) {
+            System.out.println(xmpFileName);
+            xmpFiles.add(xmpFile);
+            xmpIndices.add(Integer.valueOf(results.size()));
+          }
         }
       }
+      results.add(result);
+    }
+    ExiftoolReader exiftoolReader = new ExiftoolReader();
+    if (exiftoolFiles.size() > 0) {
+      List<ImageInfo> imageInfos = exiftoolReader.readExifData(exiftoolFiles,
+          null);
+      for (int index = 0; index < imageInfos.size(); index++) {
+        results.set(exiftoolIndices.get(index).intValue(), imageInfos
+            .get(index));
+      }
+    }
+    if (xmpFiles.size() > 0) {
+      // the XMP data is added to what we found in the image files
+      List<ImageInfo> reuseImageInfos = new ArrayList<ImageInfo>();
+      for (Integer index : xmpIndices) {
+        reuseImageInfos.add(results.get(index.intValue()));
+      }
+      List<ImageInfo> imageInfos = exiftoolReader.readExifData(xmpFiles,
+          reuseImageInfos);
+      for (int index = 0; index < imageInfos.size(); index++) {
+        results.set(xmpIndices.get(index).intValue(), imageInfos.get(index));
+      }
     }
-    return result;
+    return results;
+  }
+
+  /**
+   * Read the exif data of the files one at a time, so only the files causing
+   * trouble fail.
+   * 
+   * @param batch
+   *          The files to be examined
+   * @return The {@link ImageInfo}s for the files (in the same order), with
+   *         null entries for files that couldn't be read
+   */
+  private List<ImageInfo> readExifDataOneByOne(List<File> batch) {
+    List<ImageInfo> results = new ArrayList<ImageInfo>();
+    for (File file : batch) {
+      ImageInfo result = null;
+      try {
+        result = readExifData(Collections.singletonList(file)).get(0);
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+      results.add(result);
+    }
+    return results;
   }
 
   /**
@@ -153,30 +210,35 @@ public class ExifReaderTask extends UndoableBackgroundTask<ImageInfo> {
   @SuppressWarnings("boxing")
   @Override
   protected String doInBackground() throws Exception {
-    ImageInfo imageInfo;
     int imagesPublished = 0;
     int imagesFailed = 0;
-    for (File file : files) {
+    for (int start = 0; start < files.length; start += BATCH_SIZE) {
       if (interruptRequested()) {
         break;
       }
-      // keep track of progress
-      currentProgress++;
-      // give feedback via the ProgressBar
-      setProgressMessage();
+      List<File> batch = Arrays.asList(files).subList(start,
+          Math.min(start + BATCH_SIZE, files.length));
+      List<ImageInfo> imageInfos;
       try {
-        imageInfo = readExifData(file);
+        imageInfos = readExifData(batch);
+      } catch (RuntimeException e) {
+        // catch all Runtime Exceptions - don't let the task die
+        e.printStackTrace();
+        // one bad file shouldn't fail all the others
+        imageInfos = readExifDataOneByOne(batch);
+      }
+      for (ImageInfo imageInfo : imageInfos) {
+        // keep track of progress
+        currentProgress++;
         if (imageInfo != null) {
           publish(imageInfo);
           imagesPublished++;
         } else {
           imagesFailed++;
         }
-      } catch (RuntimeException e) {
-        // catch all Runtime Exceptions - don't let the task die
-        imagesFailed++;
-        e.printStackTrace();
       }
+      // give feedback via the ProgressBar
+      setProgressMessage();
     }
     StringBuilder result = new StringBuilder();
     if (imagesPublished == 1) {
@@ -202,15 +264,17 @@ public class ExifReaderTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> chunks) {
+    List<ImageInfo> added = new ArrayList<ImageInfo>();
     for (ImageInfo imageInfo : chunks) {
       int row = tableModel.getRow(imageInfo);
       if (row == -1) {
         images.add(imageInfo);
-        tableModel.addImageInfo(imageInfo);
+        added.add(imageInfo);
       } else {
-        tableModel.fireTableRowsUpdated(row, row);
+        tableModel.imageUpdated(imageInfo);
       }
     }
+    tableModel.addImageInfos(added);
   }
 
   /**
@@ -220,10 +284,7 @@ public class ExifReaderTask extends UndoableBackgroundTask<ImageInfo> {
   public void redo() {
     // Needs to call super
     super.redo();
-    for (ImageInfo imageInfo : images) {
-      tableModel.addImageInfo(imageInfo);
-    }
-    tableModel.fireTableDataChanged();
+    tableModel.addImageInfos(images);
   }
 
   /**
@@ -233,11 +294,7 @@ public class ExifReaderTask extends UndoableBackgroundTask<ImageInfo> {
   public void undo() {
     // Needs to call super
     super.undo();
-    for (ImageInfo imageInfo : images) {
-      int row = tableModel.getRow(imageInfo);
-      tableModel.removeRow(row);
-    }
-    tableModel.fireTableDataChanged();
+    tableModel.removeImageInfos(images);
   }
 
 }
@@ -18,12 +18,20 @@
 
 package org.fibs.geotag.tasks;
 
+import java.util.ArrayList;
 import java.util.IllegalFormatException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.data.ImageInfo.DATA_SOURCE;
 import org.fibs.geotag.exif.ExifWriter;
+import org.fibs.geotag.exif.ExiftoolPool;
 import org.fibs.geotag.table.ImagesTableModel;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
@@ -46,8 +54,11 @@ public class ExifWriterTask extends BackgroundTask<ImageInfo> {
   /** the list of images to be updated. */
   private List<ImageInfo> imageInfos;
 
-  /** Keep track of progress. */
-  private int currentProgress = 0;
+  /** The maximum number of updated images published in one go. */
+  private static final int PUBLISH_BATCH_SIZE = 32;
+
+  /** Keep track of progress - updated by the writer threads. */
+  private AtomicInteger currentProgress = new AtomicInteger();
 
   /**
    * @param name
@@ -66,7 +77,7 @@ public class ExifWriterTask extends BackgroundTask<ImageInfo> {
    */
   @Override
   public int getCurrentProgress() {
-    return currentProgress;
+    return currentProgress.get();
   }
 
   /**
@@ -85,6 +96,21 @@ public class ExifWriterTask extends BackgroundTask<ImageInfo> {
     return 1;
   }
 
+  /**
+   * Images are written by one thread per exiftool session (or per processor
+   * if exiftool sessions are disabled), as writing the images is independent
+   * from each other.
+   * 
+   * @return The number of threads writing images
+   */
+  private int writerThreads() {
+    int threads = ExiftoolPool.getPoolSize();
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    return Math.max(1, Math.min(threads, imageInfos.size()));
+  }
+
   /**
    * @see javax.swing.SwingWorker#doInBackground()
    */
@@ -92,26 +118,61 @@ public class ExifWriterTask extends BackgroundTask<ImageInfo> {
   @Override
   protected String doInBackground() throws Exception {
     int imagesUpdated = 0;
-    for (ImageInfo imageInfo : imageInfos) {
-      if (interruptRequested()) {
-        break;
-      }
-      currentProgress++;
-      setProgressMessage();
-      try {
-        ExifWriter exifWriter = new ExifWriter();
-        if (exifWriter.write(imageInfo)) {
-          // write went OK...
-          imagesUpdated++;
-          // the location data source is now the image
-          imageInfo.setSource(DATA_SOURCE.IMAGE);
-          // tell the GUI about the change
-          publish(imageInfo);
+    final ExifWriter exifWriter = new ExifWriter();
+    ExecutorService executor = Executors.newFixedThreadPool(writerThreads());
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (final ImageInfo imageInfo : imageInfos) {
+      results.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          if (interruptRequested()) {
+            return Boolean.FALSE;
+          }
+          try {
+            return Boolean.valueOf(exifWriter.write(imageInfo));
+          } catch (RuntimeException e) {
+            // catch all runtime exceptions - no need to terminate early
+            e.printStackTrace();
+            return Boolean.FALSE;
+          } finally {
+            currentProgress.incrementAndGet();
+          }
         }
-      } catch (RuntimeException e) {
-        // catch all runtime exceptions - no need to terminate early
+      }));
+    }
+    executor.shutdown();
+    // collect the results in the original order, so the GUI sees the
+    // updates in the same order as before
+    List<ImageInfo> updated = new ArrayList<ImageInfo>();
+    for (int index = 0; index < results.size(); index++) {
+      Future<Boolean> result = results.get(index);
+      boolean written = false;
+      try {
+        written = result.get().booleanValue();
+      } catch (ExecutionException e) {
         e.printStackTrace();
       }
+      setProgressMessage();
+      if (written) {
+        ImageInfo imageInfo = imageInfos.get(index);
+        // write went OK...
+        imagesUpdated++;
+        // the location data source is now the image
+        imageInfo.setSource(DATA_SOURCE.IMAGE);
+        updated.add(imageInfo);
+      }
+      // tell the GUI about the changes - don't hold them back if we would
+      // have to wait for the next result
+      boolean nextPending = index + 1 < results.size()
+          && !results.get(index + 1).isDone();
+      if (updated.size() >= PUBLISH_BATCH_SIZE
+          || (nextPending && updated.size() > 0)) {
+        publish(updated.toArray(new ImageInfo[updated.size()]));
+        updated.clear();
+      }
+    }
+    if (updated.size() > 0) {
+      publish(updated.toArray(new ImageInfo[updated.size()]));
     }
     String result = null;
     if (imagesUpdated == 1) {
@@ -132,10 +193,7 @@ public class ExifWriterTask extends BackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> chunks) {
-    for (ImageInfo imageInfo : chunks) {
-      int imageRow = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    imagesTableModel.imagesUpdated(chunks);
   }
 
 }
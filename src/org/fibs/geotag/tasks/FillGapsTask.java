@@ -70,7 +70,11 @@ public class FillGapsTask extends UndoableBackgroundTask<ImageInfo> {
   protected String doInBackground() throws Exception {
     int gapsFilled = 0;
     TrackMatcher trackMatcher = new TrackMatcher();
+    // matching all images in one go is much faster
+    List<TrackMatcher.Match> matches = trackMatcher.findMatches(images);
+    int index = 0;
     for (ImageInfo imageInfo : images) {
+      TrackMatcher.Match match = matches.get(index++);
       if (interruptRequested()) {
         break;
       }
@@ -83,8 +87,6 @@ public class FillGapsTask extends UndoableBackgroundTask<ImageInfo> {
         if (!imageInfo.hasLocation()) {
           // no coordinates yet... fill the gap
           // tell trackMatcher that exact matches are not required
-          TrackMatcher.Match match = trackMatcher.findMatch(imageInfo
-              .getTimeGMT());
           if (match != null) {
             trackMatcher.performMatch(imageInfo, match);
             gapsFilled++;
@@ -141,9 +143,6 @@ public class FillGapsTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> imageInfos) {
-    for (ImageInfo imageInfo : imageInfos) {
-      int imageRow = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    imagesTableModel.imagesUpdated(imageInfos);
   }
 }
@@ -140,10 +140,7 @@ public class FindAltitudeTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> chunks) {
-    for (ImageInfo imageInfo : chunks) {
-      int imageRow = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    imagesTableModel.imagesUpdated(chunks);
   }
 
 }
@@ -21,20 +21,19 @@ package org.fibs.geotag.tasks;
 import java.io.File;
 import java.util.List;
 
-import org.fibs.geotag.track.GpxOneOneReader;
-import org.fibs.geotag.track.GpxReader;
+import org.fibs.geotag.track.GpxStreamReader;
+import org.fibs.geotag.track.TrackSegment;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
 
-import com.topografix.gpx._1._0.Gpx;
-import com.topografix.gpx._1._0.Gpx.Trk;
-import com.topografix.gpx._1._0.Gpx.Trk.Trkseg;
-
 /**
+ * Reads GPX files (1.0 or 1.1) and publishes the track segments of each file,
+ * or null if a file couldn't be read.
+ * 
  * @author Andreas Schneider
  * 
  */
-public class GpxReadFileTask extends BackgroundTask<Gpx> {
+public class GpxReadFileTask extends BackgroundTask<List<TrackSegment>> {
   
   /** Create i18n support */
   private static final I18n i18n = I18nFactory.getI18n(GpxReadFileTask.class);
@@ -84,27 +83,16 @@ public class GpxReadFileTask extends BackgroundTask<Gpx> {
   @Override
   protected String doInBackground() throws Exception {
     for (File file : files) {
-      Gpx gpx = null;
+      List<TrackSegment> segments = null;
       try {
-        gpx = GpxReader.read(file);
+        segments = GpxStreamReader.read(file);
       } catch (Exception e) {
         e.printStackTrace();
       }
-      if (gpx == null) {
-        try {
-          gpx = GpxOneOneReader.read(file);
-        } catch (Exception e) {
-          e.printStackTrace();
-        }
-      }
-      publish(gpx);
-      if (gpx != null) {
-        List<Trk> tracks = gpx.getTrk();
-        for (Trk trk : tracks) {
-          List<Trkseg> segments = trk.getTrkseg();
-          for (Trkseg segment : segments) {
-            trackPointsFound += segment.getTrkpt().size();
-          }
+      publish(segments);
+      if (segments != null) {
+        for (TrackSegment segment : segments) {
+          trackPointsFound += segment.size();
         }
       }
     }
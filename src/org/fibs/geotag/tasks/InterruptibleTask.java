@@ -30,7 +30,7 @@ import javax.swing.SwingWorker;
 public abstract class InterruptibleTask<T, V> extends SwingWorker<T, V> {
 
   /** Subclasses can read this and should terminate if true. */
-  private boolean terminate = false;
+  private volatile boolean terminate = false;
 
   /**
    * Called as a request to interrupt a running task.
@@ -212,10 +212,7 @@ public class LocationNamesTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> chunks) {
-    for (ImageInfo imageInfo : chunks) {
-      int imageRow = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    imagesTableModel.imagesUpdated(chunks);
   }
 
 }
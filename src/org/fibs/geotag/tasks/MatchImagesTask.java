@@ -72,14 +72,17 @@ public class MatchImagesTask extends UndoableBackgroundTask<ImageInfo> {
   protected String doInBackground() throws Exception {
     int imagesMatched = 0;
     TrackMatcher trackMatcher = new TrackMatcher();
+    // matching all images in one go is much faster
+    List<Match> matches = trackMatcher.findMatches(images);
+    int index = 0;
     for (ImageInfo imageInfo : images) {
+      Match match = matches.get(index++);
       if (interruptRequested()) {
         break;
       }
       currentProgress++;
       setProgressMessage();
       try {
-        Match match = trackMatcher.findMatch(imageInfo.getTimeGMT());
         if (match != null && match.getMatchingSegment() != null) {
           trackMatcher.performMatch(imageInfo, match);
           imagesMatched++;
@@ -136,9 +139,6 @@ public class MatchImagesTask extends UndoableBackgroundTask<ImageInfo> {
   @Override
   protected void process(List<ImageInfo> imageInfos) {
     ImagesTableModel tableModel = (ImagesTableModel) imagesTable.getModel();
-    for (ImageInfo imageInfo : imageInfos) {
-      int imageRow = tableModel.getRow(imageInfo);
-      tableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    tableModel.imagesUpdated(imageInfos);
   }
 }
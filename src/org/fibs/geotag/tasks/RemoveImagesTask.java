@@ -22,6 +22,7 @@ import java.util.IllegalFormatException;
 import java.util.List;
 
 import org.fibs.geotag.data.ImageInfo;
+import org.fibs.geotag.image.ThumbnailStore;
 import org.fibs.geotag.table.ImagesTableModel;
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
@@ -124,11 +125,11 @@ public class RemoveImagesTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> images) {
+    imagesTableModel.removeImageInfos(images);
     for (ImageInfo imageInfo : images) {
-      int row = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.removeRow(row);
+      // free the memory - it will be reloaded if the removal is undone
+      ThumbnailStore.remove(imageInfo);
     }
-    imagesTableModel.fireTableDataChanged();
   }
 
   /**
@@ -149,10 +150,7 @@ public class RemoveImagesTask extends UndoableBackgroundTask<ImageInfo> {
   public void undo() {
     // Needs to call super
     super.undo();
-    for (ImageInfo imageInfo : imageInfos) {
-      imagesTableModel.addImageInfo(imageInfo);
-    }
-    imagesTableModel.fireTableDataChanged();
+    imagesTableModel.addImageInfos(imageInfos);
   }
 
   /**
@@ -162,10 +160,9 @@ public class RemoveImagesTask extends UndoableBackgroundTask<ImageInfo> {
   public void redo() {
     // Needs to call super
     super.redo();
+    imagesTableModel.removeImageInfos(imageInfos);
     for (ImageInfo imageInfo : imageInfos) {
-      int row = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.removeRow(row);
+      ThumbnailStore.remove(imageInfo);
     }
-    imagesTableModel.fireTableDataChanged();
   }
 }
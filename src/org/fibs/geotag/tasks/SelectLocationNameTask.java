@@ -154,10 +154,7 @@ public class SelectLocationNameTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> images) {
-    for (ImageInfo image : images) {
-      int imageRow = imagesTableModel.getRow(image);
-      imagesTableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    imagesTableModel.imagesUpdated(images);
   }
 
 }
@@ -132,10 +132,7 @@ public class SetOffsetTask extends UndoableBackgroundTask<ImageInfo> {
    */
   @Override
   protected void process(List<ImageInfo> images) {
-    for (ImageInfo imageInfo : images) {
-      int imageRow = imagesTableModel.getRow(imageInfo);
-      imagesTableModel.fireTableRowsUpdated(imageRow, imageRow);
-    }
+    imagesTableModel.imagesUpdated(images);
   }
 
   /**
@@ -25,11 +25,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
+import org.fibs.geotag.util.JaxbRegistry;
+
 import com.topografix.gpx._1._0.Gpx;
 import com.topografix.gpx._1._0.Gpx.Trk;
 import com.topografix.gpx._1._0.Gpx.Trk.Trkseg;
@@ -87,15 +88,17 @@ public final class GpxOneOneReader {
   public static GpxType read(InputStream inputStream) {
     GpxType gpx = null;
     try {
-      // create a JAXB context for GPX files
-      JAXBContext jaxbContext = JAXBContext
-          .newInstance("com.topografix.gpx._1._1"); //$NON-NLS-1$
-      // create an Unmarshaller for the context
-      Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-      // unmarshall (read) the file
-      JAXBElement<GpxType> element = (JAXBElement<GpxType>) unmarshaller
-          .unmarshal(inputStream);
-      gpx = element.getValue();
+      // get an Unmarshaller for GPX 1.1 files
+      Unmarshaller unmarshaller = JaxbRegistry
+          .acquireUnmarshaller(JaxbRegistry.GPX_1_1);
+      try {
+        // unmarshall (read) the file
+        JAXBElement<GpxType> element = (JAXBElement<GpxType>) unmarshaller
+            .unmarshal(inputStream);
+        gpx = element.getValue();
+      } finally {
+        JaxbRegistry.release(JaxbRegistry.GPX_1_1, unmarshaller);
+      }
       // That's all.
     } catch (JAXBException e) {
       e.printStackTrace();
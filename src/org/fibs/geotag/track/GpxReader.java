@@ -23,10 +23,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
+import org.fibs.geotag.util.JaxbRegistry;
+
 import com.topografix.gpx._1._0.Gpx;
 
 /**
@@ -68,13 +69,15 @@ public final class GpxReader {
   public static Gpx read(InputStream inputStream) {
     Gpx gpx = null;
     try {
-      // create a JAXB context for GPX files
-      JAXBContext jaxbContext = JAXBContext
-          .newInstance("com.topografix.gpx._1._0"); //$NON-NLS-1$
-      // create an Unmarshaller for the context
-      Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-      // unmarshall (read) the file
-      gpx = (Gpx) unmarshaller.unmarshal(inputStream);
+      // get an Unmarshaller for GPX files
+      Unmarshaller unmarshaller = JaxbRegistry
+          .acquireUnmarshaller(JaxbRegistry.GPX_1_0);
+      try {
+        // unmarshall (read) the file
+        gpx = (Gpx) unmarshaller.unmarshal(inputStream);
+      } finally {
+        JaxbRegistry.release(JaxbRegistry.GPX_1_0, unmarshaller);
+      }
       // That's all.
     } catch (JAXBException e) {
       e.printStackTrace();
@@ -0,0 +1,280 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.track;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A class reading the track segments of GPX 1.0 and GPX 1.1 files. The file is
+ * streamed and the track points go straight into {@link TrackSegment}s, so
+ * even very large files can be read without building a GPX object tree. The
+ * segments of a track share a {@link TrackInfo} with the name and description
+ * of the track.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class GpxStreamReader {
+
+  /**
+   * hide constructor.
+   */
+  private GpxStreamReader() {
+    // hide constructor
+  }
+
+  /** The GPX root element. */
+  private static final String GPX = "gpx"; //$NON-NLS-1$
+
+  /** The GPX track element. */
+  private static final String TRK = "trk"; //$NON-NLS-1$
+
+  /** The GPX name element. */
+  private static final String NAME = "name"; //$NON-NLS-1$
+
+  /** The GPX comment element. */
+  private static final String CMT = "cmt"; //$NON-NLS-1$
+
+  /** The GPX description element. */
+  private static final String DESC = "desc"; //$NON-NLS-1$
+
+  /** The GPX source element. */
+  private static final String SRC = "src"; //$NON-NLS-1$
+
+  /** The GPX track number element. */
+  private static final String NUMBER = "number"; //$NON-NLS-1$
+
+  /** The GPX track segment element. */
+  private static final String TRKSEG = "trkseg"; //$NON-NLS-1$
+
+  /** The GPX track point element. */
+  private static final String TRKPT = "trkpt"; //$NON-NLS-1$
+
+  /** The GPX elevation element. */
+  private static final String ELE = "ele"; //$NON-NLS-1$
+
+  /** The GPX time element. */
+  private static final String TIME = "time"; //$NON-NLS-1$
+
+  /** The latitude attribute of track points. */
+  private static final String LAT = "lat"; //$NON-NLS-1$
+
+  /** The longitude attribute of track points. */
+  private static final String LON = "lon"; //$NON-NLS-1$
+
+  /**
+   * @param file
+   *          The file to be read
+   * @return the track segments contained in the file or null if the file
+   *         couldn't be read
+   */
+  public static List<TrackSegment> read(File file) {
+    InputStream inputStream = null;
+    try {
+      inputStream = new BufferedInputStream(new FileInputStream(file));
+      return read(inputStream);
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Read the track segments from an InputStream.
+   *
+   * @param inputStream
+   *          The InputStream to be read
+   * @return The track segments contained in the stream or null if the stream
+   *         couldn't be read
+   */
+  public static List<TrackSegment> read(InputStream inputStream) {
+    List<TrackSegment> segments = new ArrayList<TrackSegment>();
+    XMLStreamReader reader = null;
+    try {
+      DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+      reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+      reader.nextTag();
+      if (!GPX.equals(reader.getLocalName())) {
+        System.err.println("Not a GPX file: " + reader.getLocalName()); //$NON-NLS-1$
+        return null;
+      }
+      TrackInfo track = null;
+      TrackSegment.Builder segment = null;
+      // the depth below the gpx element - 1 within a track, 2 within a
+      // track segment
+      int depth = 0;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          String name = reader.getLocalName();
+          if (depth == 0 && TRK.equals(name)) {
+            track = new TrackInfo();
+            depth++;
+          } else if (depth == 1 && TRKSEG.equals(name) && track != null) {
+            segment = new TrackSegment.Builder(track);
+            depth++;
+          } else if (depth == 2 && TRKPT.equals(name) && segment != null) {
+            // reads up to the end of the track point
+            readTrackPoint(reader, segment, datatypeFactory);
+          } else if (depth != 1 || track == null
+              || !readTrackInfo(reader, track)) {
+            depth++;
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+          if (depth == 1 && TRKSEG.equals(reader.getLocalName())
+              && segment != null) {
+            TrackSegment trackSegment = segment.build();
+            if (trackSegment != null) {
+              segments.add(trackSegment);
+            }
+            segment = null;
+          } else if (depth == 0 && TRK.equals(reader.getLocalName())) {
+            track = null;
+          }
+        }
+      }
+    } catch (XMLStreamException e) {
+      e.printStackTrace();
+      return null;
+    } catch (DatatypeConfigurationException e) {
+      e.printStackTrace();
+      return null;
+    } catch (IllegalArgumentException e) {
+      // thrown for malformed numbers and times
+      e.printStackTrace();
+      return null;
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * Read an element describing a track. The reader is positioned at the start
+   * of the element and will be positioned at its end afterwards if the
+   * element was read.
+   *
+   * @param reader
+   * @param track
+   *          The description of the track
+   * @return True if the element was read, false if it is not of interest
+   * @throws XMLStreamException
+   */
+  private static boolean readTrackInfo(XMLStreamReader reader, TrackInfo track)
+      throws XMLStreamException {
+    String name = reader.getLocalName();
+    if (NAME.equals(name)) {
+      track.setName(reader.getElementText());
+    } else if (CMT.equals(name)) {
+      track.setComment(reader.getElementText());
+    } else if (DESC.equals(name)) {
+      track.setDescription(reader.getElementText());
+    } else if (SRC.equals(name)) {
+      track.setSource(reader.getElementText());
+    } else if (NUMBER.equals(name)) {
+      String number = reader.getElementText().trim();
+      try {
+        track.setNumber(new BigInteger(number));
+      } catch (NumberFormatException e) {
+        // the number is not needed for anything - just leave it out
+        System.err.println("Invalid track number: " + number); //$NON-NLS-1$
+      }
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Read a track point. The reader is positioned at the start of the trkpt
+   * element and will be positioned at its end afterwards.
+   *
+   * @param reader
+   * @param segment
+   *          The segment the track point is added to
+   * @param datatypeFactory
+   *          Used to parse the time
+   * @throws XMLStreamException
+   */
+  private static void readTrackPoint(XMLStreamReader reader,
+      TrackSegment.Builder segment, DatatypeFactory datatypeFactory)
+      throws XMLStreamException {
+    String latitude = reader.getAttributeValue(null, LAT);
+    String longitude = reader.getAttributeValue(null, LON);
+    double elevation = Double.NaN;
+    String time = null;
+    // only look at the direct children of the track point - extensions might
+    // contain elements with the same names
+    int depth = 0;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        if (depth == 1 && ELE.equals(reader.getLocalName())) {
+          elevation = Double.parseDouble(reader.getElementText().trim());
+          depth--;
+        } else if (depth == 1 && TIME.equals(reader.getLocalName())) {
+          time = reader.getElementText().trim();
+          depth--;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) {
+          break;
+        }
+        depth--;
+      }
+    }
+    // There are cases where gpx files are missing time
+    // stamps. Ignore those track points, and those without a location
+    if (time != null && latitude != null && longitude != null) {
+      segment.add(datatypeFactory.newXMLGregorianCalendar(time)
+          .toGregorianCalendar().getTimeInMillis(), Double
+          .parseDouble(latitude), Double.parseDouble(longitude), elevation);
+    }
+  }
+}
@@ -23,13 +23,13 @@ import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.util.GregorianCalendar;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.fibs.geotag.Geotag;
+import org.fibs.geotag.util.JaxbRegistry;
 
 import com.topografix.gpx._1._0.Gpx;
 
@@ -40,6 +40,9 @@ import com.topografix.gpx._1._0.Gpx;
  * 
  */
 public class GpxWriter implements TrackWriter {
+
+  /** The location of the GPX 1.0 schema. */
+  private static final String SCHEMA_LOCATION = "http://www.topografix.com/GPX/1/0 http://www.topografix.com/GPX/1/0/gpx.xsd"; //$NON-NLS-1$
   
   /**
    * @see org.fibs.geotag.track.TrackWriter#write(com.topografix.gpx._1._0.Gpx, java.io.File)
@@ -55,13 +58,6 @@ public class GpxWriter implements TrackWriter {
    */
   @Override
   public void write(Gpx gpx, OutputStream outputStream) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance(Gpx.class.getPackage()
-        .getName());
-    Marshaller marshaller = jaxbContext.createMarshaller();
-    marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE); //$NON-NLS-1$
-    marshaller
-        .setProperty("jaxb.schemaLocation", //$NON-NLS-1$
-            "http://www.topografix.com/GPX/1/0 http://www.topografix.com/GPX/1/0/gpx.xsd"); //$NON-NLS-1$
     gpx.setCreator(Geotag.NAME + ' ' + Geotag.WEBSITE);
     try {
       DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
@@ -71,7 +67,13 @@ public class GpxWriter implements TrackWriter {
     } catch (DatatypeConfigurationException e) {
       e.printStackTrace();
     }
-    marshaller.marshal(gpx, outputStream);
+    Marshaller marshaller = JaxbRegistry.acquireMarshaller(
+        JaxbRegistry.GPX_1_0, SCHEMA_LOCATION);
+    try {
+      marshaller.marshal(gpx, outputStream);
+    } finally {
+      JaxbRegistry.release(JaxbRegistry.GPX_1_0, SCHEMA_LOCATION, marshaller);
+    }
     outputStream.close();
   }
 
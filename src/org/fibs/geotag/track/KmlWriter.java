@@ -21,10 +21,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 
+import org.fibs.geotag.util.JaxbRegistry;
+
 import com.google.earth.kml._2.KmlType;
 import com.google.earth.kml._2.ObjectFactory;
 import com.topografix.gpx._1._0.Gpx;
@@ -35,6 +36,9 @@ import com.topografix.gpx._1._0.Gpx;
  */
 public class KmlWriter implements TrackWriter  {
 
+  /** The location of the KML 2.1 schema. */
+  private static final String SCHEMA_LOCATION = "http://earth.google.com/kml/2.1 http://code.google.com/apis/kml/schema/kml21.xsd"; //$NON-NLS-1$
+
   /**
    * @see org.fibs.geotag.track.TrackWriter#write(com.topografix.gpx._1._0.Gpx, java.io.File)
    */
@@ -53,14 +57,13 @@ public class KmlWriter implements TrackWriter  {
     KmlType kmlType = new KmlTransformer().transform(gpx);
     ObjectFactory objectFactory = new ObjectFactory();
     JAXBElement<KmlType> kml = objectFactory.createKml(kmlType);
-    JAXBContext jaxbContext = JAXBContext.newInstance(KmlType.class.getPackage()
-        .getName());
-    Marshaller marshaller = jaxbContext.createMarshaller();
-    marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE); //$NON-NLS-1$
-    marshaller
-        .setProperty("jaxb.schemaLocation", //$NON-NLS-1$
-            "http://earth.google.com/kml/2.1 http://code.google.com/apis/kml/schema/kml21.xsd"); //$NON-NLS-1$
-    marshaller.marshal(kml, outputStream);
+    Marshaller marshaller = JaxbRegistry.acquireMarshaller(JaxbRegistry.KML,
+        SCHEMA_LOCATION);
+    try {
+      marshaller.marshal(kml, outputStream);
+    } finally {
+      JaxbRegistry.release(JaxbRegistry.KML, SCHEMA_LOCATION, marshaller);
+    }
     outputStream.close();
   }
   
@@ -0,0 +1,223 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.track;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A packed R-tree over bounding boxes, used to find the boxes intersecting
+ * the visible part of a map. Points are boxes with no extent. The tree is
+ * built once using the sort-tile-recursive method and never changes after
+ * that.
+ * 
+ * @author Andreas Schneider
+ * 
+ */
+public final class SpatialIndex {
+
+  /** The maximum number of children of a node. */
+  private static final int NODE_SIZE = 16;
+
+  /**
+   * The southern bounds of the nodes, by level - level zero holds the boxes
+   * themselves, the last level the root.
+   */
+  private final double[][] south;
+
+  /** The western bounds of the nodes, by level. */
+  private final double[][] west;
+
+  /** The northern bounds of the nodes, by level. */
+  private final double[][] north;
+
+  /** The eastern bounds of the nodes, by level. */
+  private final double[][] east;
+
+  /** The index of each box on level zero. */
+  private final int[] entries;
+
+  /**
+   * Create an index. The arrays hold the bounds of the boxes and must have
+   * the same length.
+   * 
+   * @param boxSouth
+   * @param boxWest
+   * @param boxNorth
+   * @param boxEast
+   */
+  public SpatialIndex(final double[] boxSouth, final double[] boxWest,
+      final double[] boxNorth, final double[] boxEast) {
+    int count = boxSouth.length;
+    Integer[] order = new Integer[count];
+    for (int index = 0; index < count; index++) {
+      order[index] = Integer.valueOf(index);
+    }
+    // sort by longitude, then cut into vertical slices and sort those by
+    // latitude, so neighbouring boxes end up in the same node
+    Arrays.sort(order, new CenterComparator(boxWest, boxEast));
+    int leaves = (count + NODE_SIZE - 1) / NODE_SIZE;
+    int sliceSize = NODE_SIZE
+        * Math.max(1, (int) Math.ceil(Math.sqrt(leaves)));
+    Comparator<Integer> latitudeComparator = new CenterComparator(boxSouth,
+        boxNorth);
+    for (int start = 0; start < count; start += sliceSize) {
+      Arrays.sort(order, start, Math.min(start + sliceSize, count),
+          latitudeComparator);
+    }
+    int levels = 1;
+    int size = count;
+    while (size > 1) {
+      size = (size + NODE_SIZE - 1) / NODE_SIZE;
+      levels++;
+    }
+    south = new double[levels][];
+    west = new double[levels][];
+    north = new double[levels][];
+    east = new double[levels][];
+    entries = new int[count];
+    south[0] = new double[count];
+    west[0] = new double[count];
+    north[0] = new double[count];
+    east[0] = new double[count];
+    for (int index = 0; index < count; index++) {
+      int entry = order[index].intValue();
+      entries[index] = entry;
+      south[0][index] = boxSouth[entry];
+      west[0][index] = boxWest[entry];
+      north[0][index] = boxNorth[entry];
+      east[0][index] = boxEast[entry];
+    }
+    for (int level = 1; level < levels; level++) {
+      int children = south[level - 1].length;
+      int nodes = (children + NODE_SIZE - 1) / NODE_SIZE;
+      south[level] = new double[nodes];
+      west[level] = new double[nodes];
+      north[level] = new double[nodes];
+      east[level] = new double[nodes];
+      for (int node = 0; node < nodes; node++) {
+        double nodeSouth = Double.POSITIVE_INFINITY;
+        double nodeWest = Double.POSITIVE_INFINITY;
+        double nodeNorth = Double.NEGATIVE_INFINITY;
+        double nodeEast = Double.NEGATIVE_INFINITY;
+        int end = Math.min((node + 1) * NODE_SIZE, children);
+        for (int child = node * NODE_SIZE; child < end; child++) {
+          nodeSouth = Math.min(nodeSouth, south[level - 1][child]);
+          nodeWest = Math.min(nodeWest, west[level - 1][child]);
+          nodeNorth = Math.max(nodeNorth, north[level - 1][child]);
+          nodeEast = Math.max(nodeEast, east[level - 1][child]);
+        }
+        south[level][node] = nodeSouth;
+        west[level][node] = nodeWest;
+        north[level][node] = nodeNorth;
+        east[level][node] = nodeEast;
+      }
+    }
+  }
+
+  /**
+   * Find the boxes intersecting the given bounds.
+   * 
+   * @param minLatitude
+   * @param minLongitude
+   * @param maxLatitude
+   * @param maxLongitude
+   * @return The indices of the boxes in ascending order
+   */
+  public int[] search(double minLatitude, double minLongitude,
+      double maxLatitude, double maxLongitude) {
+    int[] result = new int[entries.length];
+    int found = 0;
+    if (entries.length > 0) {
+      found = search(south.length - 1, 0, minLatitude, minLongitude,
+          maxLatitude, maxLongitude, result, 0);
+    }
+    result = Arrays.copyOf(result, found);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Search a node and its children.
+   * 
+   * @param level
+   * @param node
+   * @param minLatitude
+   * @param minLongitude
+   * @param maxLatitude
+   * @param maxLongitude
+   * @param result
+   *          The indices of the boxes found are stored here
+   * @param found
+   *          The number of boxes found so far
+   * @return The number of boxes found including those in this node
+   */
+  private int search(int level, int node, double minLatitude,
+      double minLongitude, double maxLatitude, double maxLongitude,
+      int[] result, int found) {
+    if (south[level][node] > maxLatitude || north[level][node] < minLatitude
+        || west[level][node] > maxLongitude
+        || east[level][node] < minLongitude) {
+      return found;
+    }
+    if (level == 0) {
+      result[found] = entries[node];
+      return found + 1;
+    }
+    int total = found;
+    int end = Math.min((node + 1) * NODE_SIZE, south[level - 1].length);
+    for (int child = node * NODE_SIZE; child < end; child++) {
+      total = search(level - 1, child, minLatitude, minLongitude, maxLatitude,
+          maxLongitude, result, total);
+    }
+    return total;
+  }
+
+  /**
+   * Orders boxes by their center in one dimension.
+   */
+  private static class CenterComparator implements Comparator<Integer> {
+
+    /** The lower bounds of the boxes. */
+    private final double[] lower;
+
+    /** The upper bounds of the boxes. */
+    private final double[] upper;
+
+    /**
+     * @param lower
+     * @param upper
+     */
+    CenterComparator(double[] lower, double[] upper) {
+      this.lower = lower;
+      this.upper = upper;
+    }
+
+    /**
+     * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public int compare(Integer index1, Integer index2) {
+      int first = index1.intValue();
+      int second = index2.intValue();
+      return Double.compare(lower[first] + upper[first], lower[second]
+          + upper[second]);
+    }
+  }
+}
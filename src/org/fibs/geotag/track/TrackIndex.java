@@ -0,0 +1,232 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index over the time intervals covered by track segments, answering
+ * "which segment covers this time" and "which segments lie around this time"
+ * in logarithmic time. Segments may overlap, e.g. if tracks from several
+ * loggers are loaded. The bounds of the segments are indexed as well, to
+ * quickly find the segments visible on a map. The index never changes once
+ * it has been created.
+ * 
+ * @author Andreas Schneider
+ * 
+ */
+public final class TrackIndex {
+
+  /** The track segments ordered by the time of their first track point. */
+  private final List<TrackSegment> trackSegments;
+
+  /** The start times of the segments, in the same order. */
+  private final long[] startTimes;
+
+  /**
+   * The end times of the segments that can contain a time as a tree: the
+   * leaves are the end times of the segments (or {@link Long#MIN_VALUE} for
+   * segments with a single track point), the nodes above hold the latest end
+   * time of their children. The root is at index one, the children of node i
+   * are at 2i and 2i+1.
+   */
+  private final long[] endTimeTree;
+
+  /** The index of the first leaf in the {@link #endTimeTree}. */
+  private final int firstLeaf;
+
+  /**
+   * For each number of segments, the first of those segments ending last - -1
+   * for none.
+   */
+  private final int[] latestEnding;
+
+  /** The index of the segment bounds - created when first needed. */
+  private volatile SpatialIndex spatialIndex = null;
+
+  /**
+   * Create an index.
+   * 
+   * @param trackSegments
+   *          The track segments ordered by the time of their first track
+   *          point
+   */
+  public TrackIndex(List<TrackSegment> trackSegments) {
+    this.trackSegments = Collections
+        .unmodifiableList(new ArrayList<TrackSegment>(trackSegments));
+    int count = trackSegments.size();
+    startTimes = new long[count];
+    latestEnding = new int[count + 1];
+    latestEnding[0] = -1;
+    int leaves = 1;
+    while (leaves < count) {
+      leaves *= 2;
+    }
+    firstLeaf = leaves;
+    endTimeTree = new long[2 * leaves];
+    Arrays.fill(endTimeTree, Long.MIN_VALUE);
+    for (int index = 0; index < count; index++) {
+      TrackSegment segment = trackSegments.get(index);
+      startTimes[index] = segment.getStartTime();
+      if (segment.size() > 1) {
+        endTimeTree[firstLeaf + index] = segment.getEndTime();
+      }
+      int latest = latestEnding[index];
+      if (latest < 0
+          || trackSegments.get(latest).getEndTime() < segment.getEndTime()) {
+        latest = index;
+      }
+      latestEnding[index + 1] = latest;
+    }
+    for (int node = firstLeaf - 1; node > 0; node--) {
+      endTimeTree[node] = Math.max(endTimeTree[2 * node],
+          endTimeTree[2 * node + 1]);
+    }
+  }
+
+  /**
+   * @return The track segments ordered by the time of their first track
+   *         point - this list never changes
+   */
+  public List<TrackSegment> getTrackSegments() {
+    return trackSegments;
+  }
+
+  /**
+   * @return The number of track segments
+   */
+  public int size() {
+    return startTimes.length;
+  }
+
+  /**
+   * @return True if there are no track segments
+   */
+  public boolean isEmpty() {
+    return startTimes.length == 0;
+  }
+
+  /**
+   * @param index
+   * @return The track segment at that index
+   */
+  public TrackSegment get(int index) {
+    return trackSegments.get(index);
+  }
+
+  /**
+   * @param time
+   *          The time in milliseconds since the epoch
+   * @return The index of the first segment starting at or after the time -
+   *         the number of segments if there is none
+   */
+  public int firstStartingAtOrAfter(long time) {
+    int low = 0;
+    int high = startTimes.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (startTimes[middle] < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Find the segment covering a time. If several segments do, the one
+   * starting first is returned.
+   * 
+   * @param time
+   *          The time in milliseconds since the epoch
+   * @return The index of the segment or -1 if no segment with at least two
+   *         track points covers the time
+   */
+  public int findCovering(long time) {
+    if (endTimeTree[1] < time) {
+      return -1;
+    }
+    // the first segment ending at or after the time...
+    int node = 1;
+    while (node < firstLeaf) {
+      node *= 2;
+      if (endTimeTree[node] < time) {
+        node++;
+      }
+    }
+    int index = node - firstLeaf;
+    // ...covers it, unless it starts after it
+    if (startTimes[index] > time) {
+      return -1;
+    }
+    return index;
+  }
+
+  /**
+   * @param count
+   *          The number of segments to be looked at, starting with the first
+   * @return The index of the segment ending last among them (the first one
+   *         if there are several) or -1 if count is zero
+   */
+  public int latestEnding(int count) {
+    return latestEnding[count];
+  }
+
+  /**
+   * Find the segments whose bounds intersect the given bounds.
+   * 
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return The intersecting segments, ordered by the time of their first
+   *         track point
+   */
+  public List<TrackSegment> getIntersecting(double south, double west,
+      double north, double east) {
+    SpatialIndex index = spatialIndex;
+    if (index == null) {
+      int count = trackSegments.size();
+      double[] segmentSouth = new double[count];
+      double[] segmentWest = new double[count];
+      double[] segmentNorth = new double[count];
+      double[] segmentEast = new double[count];
+      for (int segmentIndex = 0; segmentIndex < count; segmentIndex++) {
+        TrackSegment segment = trackSegments.get(segmentIndex);
+        segmentSouth[segmentIndex] = segment.getMinLatitude();
+        segmentWest[segmentIndex] = segment.getMinLongitude();
+        segmentNorth[segmentIndex] = segment.getMaxLatitude();
+        segmentEast[segmentIndex] = segment.getMaxLongitude();
+      }
+      // two threads might do this at the same time - no harm done
+      index = new SpatialIndex(segmentSouth, segmentWest, segmentNorth,
+          segmentEast);
+      spatialIndex = index;
+    }
+    List<TrackSegment> result = new ArrayList<TrackSegment>();
+    for (int segmentIndex : index.search(south, west, north, east)) {
+      result.add(trackSegments.get(segmentIndex));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.track;
+
+import java.math.BigInteger;
+
+import com.topografix.gpx._1._0.ObjectFactory;
+import com.topografix.gpx._1._0.Gpx.Trk;
+
+/**
+ * The description of a GPX track. All {@link TrackSegment}s of a track share
+ * the same TrackInfo, so the tracks can be written back the way they were
+ * read. The values are set while the track is read and never change after
+ * that.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class TrackInfo {
+
+  /** The name of the track - null if it has none. */
+  private String name = null;
+
+  /** The comment of the track - null if it has none. */
+  private String comment = null;
+
+  /** The description of the track - null if it has none. */
+  private String description = null;
+
+  /** The source of the track data - null if unknown. */
+  private String source = null;
+
+  /** The number of the track - null if it has none. */
+  private BigInteger number = null;
+
+  /**
+   * Create the description of a GPX track.
+   *
+   * @param track
+   *          The GPX track
+   * @return The description
+   */
+  public static TrackInfo create(Trk track) {
+    TrackInfo trackInfo = new TrackInfo();
+    trackInfo.setName(track.getName());
+    trackInfo.setComment(track.getCmt());
+    trackInfo.setDescription(track.getDesc());
+    trackInfo.setSource(track.getSrc());
+    trackInfo.setNumber(track.getNumber());
+    return trackInfo;
+  }
+
+  /**
+   * Create a GPX track with this description, but without track segments.
+   *
+   * @param objectFactory
+   *          The factory for the GPX objects
+   * @return The GPX track
+   */
+  public Trk toTrk(ObjectFactory objectFactory) {
+    Trk track = objectFactory.createGpxTrk();
+    track.setName(name);
+    track.setCmt(comment);
+    track.setDesc(description);
+    track.setSrc(source);
+    track.setNumber(number);
+    return track;
+  }
+
+  /**
+   * @return The name of the track - null if it has none
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param name
+   *          The name of the track
+   */
+  void setName(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return The comment of the track - null if it has none
+   */
+  public String getComment() {
+    return comment;
+  }
+
+  /**
+   * @param comment
+   *          The comment of the track
+   */
+  void setComment(String comment) {
+    this.comment = comment;
+  }
+
+  /**
+   * @return The description of the track - null if it has none
+   */
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * @param description
+   *          The description of the track
+   */
+  void setDescription(String description) {
+    this.description = description;
+  }
+
+  /**
+   * @return The source of the track data - null if unknown
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * @param source
+   *          The source of the track data
+   */
+  void setSource(String source) {
+    this.source = source;
+  }
+
+  /**
+   * @return The number of the track - null if it has none
+   */
+  public BigInteger getNumber() {
+    return number;
+  }
+
+  /**
+   * @param number
+   *          The number of the track
+   */
+  void setNumber(BigInteger number) {
+    this.number = number;
+  }
+}
@@ -18,47 +18,66 @@
 
 package org.fibs.geotag.track;
 
-import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.GregorianCalendar;
 import java.util.List;
-
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeFactory;
-import javax.xml.datatype.XMLGregorianCalendar;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.fibs.geotag.data.ImageInfo;
 import org.fibs.geotag.data.UpdateGPSAltitude;
 import org.fibs.geotag.data.UpdateGPSLatitude;
 import org.fibs.geotag.data.UpdateGPSLongitude;
 import org.fibs.geotag.data.ImageInfo.DATA_SOURCE;
-import org.fibs.geotag.util.Constants;
+import org.fibs.geotag.util.ExifTime;
 import org.fibs.geotag.util.Util;
 import org.fibs.geotag.util.Units.ALTITUDE;
 
-import com.topografix.gpx._1._0.ObjectFactory;
-import com.topografix.gpx._1._0.Gpx.Trk.Trkseg;
-import com.topografix.gpx._1._0.Gpx.Trk.Trkseg.Trkpt;
-
 /**
- * This class matches the known tracks with time stamps from images.
+ * This class matches the known tracks with time stamps from images. A matcher
+ * takes a snapshot of the tracks when it is created and never changes after
+ * that, so it can be shared between threads and gives the same results even
+ * if more tracks are loaded while it is in use.
  * 
  * @author Andreas Schneider
  * 
  */
 public class TrackMatcher {
-	/** Number of matches performed - used for speed measurements. */
-	@SuppressWarnings("unused")
-  private int matchesPerformed = 0;
+	/** Below this number of times matching isn't worth spreading over threads. */
+	private static final int MIN_PARALLEL_TIMES = 10000;
+
+	/** The number of threads used for matching. */
+	private static final int THREADS = Runtime.getRuntime()
+			.availableProcessors();
+
+	/** The threads shared by all matchers - created when first needed. */
+	private static ExecutorService executor = null;
+
+	/** The index of the track segments to be matched. */
+	private final TrackIndex trackIndex;
 
-	/** Total time used to match tracks - used for speed measurements. */
-	@SuppressWarnings("unused")
-  private double totalTime = 0.0;
+	/**
+	 * Create a matcher for the tracks currently in the {@link TrackStore}.
+	 */
+	public TrackMatcher() {
+		this(TrackStore.getTrackStore().getTrackIndex());
+	}
 
-	/** We keep track of how many track segments don't need looking at. */
-	private int startIndex = 0;
+	/**
+	 * Create a matcher for the track segments in an index.
+	 * 
+	 * @param trackIndex
+	 *            The index of the track segments
+	 */
+	public TrackMatcher(TrackIndex trackIndex) {
+		this.trackIndex = trackIndex;
+	}
 
 	/**
 	 * Try and find the location given an imageInfo The imageInfo's time must
@@ -70,114 +89,246 @@ public class TrackMatcher {
 	 * 
 	 */
 	public Match findMatch(Calendar timeGMT) {
+		return findMatch(timeGMT.getTimeInMillis());
+	}
+
+	/**
+	 * Try and find the location for a given time. The time must fall within a
+	 * track segment.
+	 * 
+	 * @param time
+	 *            The time we try to find in the tracks in milliseconds since
+	 *            the epoch
+	 * @return The best match we could find
+	 * 
+	 */
+	public Match findMatch(long time) {
 		// no tracks - no can match...
-		if (!TrackStore.getTrackStore().hasTracks()) {
+		if (trackIndex.isEmpty()) {
 			return null;
 		}
-		// for the binary search performed later we need a track point
-		// to be used as a search key
-		ObjectFactory objectFactory = new ObjectFactory();
-		Trkpt searchKey = objectFactory.createGpxTrkTrksegTrkpt();
-		// this track point needs to hold the time we are looking for
-		XMLGregorianCalendar xmlTimeGMT = null;
-		try {
-			xmlTimeGMT = DatatypeFactory.newInstance().newXMLGregorianCalendar(
-					(GregorianCalendar) timeGMT);
-		} catch (DatatypeConfigurationException e) {
-			e.printStackTrace();
+		int segmentIndex = trackIndex.findCovering(time);
+		if (segmentIndex >= 0) {
+			TrackSegment segment = trackIndex.get(segmentIndex);
+			// we use binary search now
+			int greaterOrEqual = segment.search(time);
+			if (greaterOrEqual < 0) {
+				// search result is (-(insertion point) - 1)
+				// insertion point is defined as:
+				// The index of the first element greater than the key
+				greaterOrEqual = -(greaterOrEqual + 1);
+			} else if (greaterOrEqual == 0) {
+				// exact match for first track point
+				greaterOrEqual = 1;
+			}
+			Match match = new Match();
+			match.setMatchingSegment(segment);
+			match.setPreviousPoint(segment, greaterOrEqual - 1);
+			match.setNextPoint(segment, greaterOrEqual);
+			return match;
+		}
+		// no segment covers the time - use the segment ending last before it
+		// and the first segment starting after it
+		int next = trackIndex.firstStartingAtOrAfter(time);
+		int previous = trackIndex.latestEnding(next);
+		if (previous >= 0 && next < trackIndex.size()) {
+			TrackSegment lastSegmentBefore = trackIndex.get(previous);
+			Match match = new Match();
+			match.setPreviousPoint(lastSegmentBefore, lastSegmentBefore.size() - 1);
+			match.setNextPoint(trackIndex.get(next), 0);
+			return match;
 		}
-		searchKey.setTime(xmlTimeGMT);
-		long start = System.currentTimeMillis();
-		Match match = new Match();
-		// we keep track of the track segments closest
-		// to the image time, in case we don't find a proper interval match
-		Trkpt lastPointBefore = null;
-		Calendar lastPointBeforeTime = null;
-		Trkpt firstPointAfter = null;
-		// look at all the track segments
-		List<Trkseg> trackSegments = TrackStore.getTrackStore()
-				.getTrackSegments();
-		// for (Trkseg segment : TrackStore.getTrackStore().getTrackSegments())
-		// {
-		for (int segmentIndex = startIndex; segmentIndex < trackSegments.size(); segmentIndex++) {
-			Trkseg segment = trackSegments.get(segmentIndex);
-			// retrieve the track points of this segment
-			List<Trkpt> trackPoints = segment.getTrkpt();
+		return null;
+	}
 
-			// first we see if our candidate lies between the first and last
-			// track point of this track segment
-			if (trackPoints.size() > 1 && match.getMatchingSegment() == null) {
-				// we use binary search now
-				// note that we already know that the point lies within the
-				// segment
-				// so the search will not return -1 or trackPoints.size()
-				int greaterOrEqual = Collections.binarySearch(trackPoints,
-						searchKey, new TrackPointComparator());
-				// first test if track point is within the segment
-				if (greaterOrEqual != -1
-						&& greaterOrEqual != -trackPoints.size() - 1) {
-					// next time round start searching from this segment
-					startIndex = segmentIndex;
-					if (greaterOrEqual < 0) {
-						// search result is (-(insertion point) - 1)
-						// insertion point is defined as:
-						// The index of the first element greater than the key,
-						// or list.size() if all elements in the list are less
-						// than the
-						// specified key
-						greaterOrEqual = -(greaterOrEqual + 1);
-					} else if (greaterOrEqual == 0) {
-						// exact match for first track point
-						greaterOrEqual = 1;
-					}
-					match.setMatchingSegment(segment);
-					match.setPreviousPoint(trackPoints.get(greaterOrEqual - 1));
-					match.setNextPoint(trackPoints.get(greaterOrEqual));
+	/**
+	 * Find the matches for many images at once. This is much faster than
+	 * calling {@link #findMatch(long)} for each image, and gives the same
+	 * results.
+	 * 
+	 * @param imageInfos
+	 *            The images to be matched
+	 * @return The matches in the same order as the images - null for images
+	 *         without a match
+	 */
+	public List<Match> findMatches(List<ImageInfo> imageInfos) {
+		long[] times = new long[imageInfos.size()];
+		for (int index = 0; index < times.length; index++) {
+			times[index] = imageInfos.get(index).getGpsTime();
+		}
+		return Arrays.asList(findMatches(times));
+	}
+
+	/**
+	 * Find the matches for many times at once. The times are sorted first,
+	 * then the times and the track segments (which are sorted by their start
+	 * time) are walked through together, without ever going back. Many times
+	 * are split into runs of consecutive times, which are matched by several
+	 * threads - each result only depends on its time, so this gives exactly
+	 * the same results.
+	 * 
+	 * @param times
+	 *            The times in milliseconds since the epoch
+	 * @return The matches in the same order as the times - null for times
+	 *         without a match
+	 */
+	public Match[] findMatches(final long[] times) {
+		final Match[] matches = new Match[times.length];
+		if (trackIndex.isEmpty()) {
+			return matches;
+		}
+		final Integer[] order = new Integer[times.length];
+		for (int index = 0; index < order.length; index++) {
+			order[index] = Integer.valueOf(index);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer index1, Integer index2) {
+				long time1 = times[index1.intValue()];
+				long time2 = times[index2.intValue()];
+				return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+			}
+		});
+		int runs = Math.min(THREADS, order.length / MIN_PARALLEL_TIMES);
+		if (runs <= 1) {
+			findMatches(times, order, 0, order.length, matches);
+			return matches;
+		}
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int run = 0; run < runs; run++) {
+			final int from = (int) ((long) order.length * run / runs);
+			final int to = (int) ((long) order.length * (run + 1) / runs);
+			results.add(getExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+					// each run writes to its own part of the matches
+					findMatches(times, order, from, to, matches);
+				}
+			}));
+		}
+		boolean interrupted = false;
+		for (Future<?> result : results) {
+			while (true) {
+				try {
+					result.get();
+					break;
+				} catch (InterruptedException e) {
+					// finish anyway, the runs are still writing the matches
+					interrupted = true;
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+					break;
 				}
 			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return matches;
+	}
 
-			// our image is not in this interval, or there are less than
-			// two track points in the segment
-			if (match.getMatchingSegment() == null && trackPoints.size() > 0) {
-				Trkpt startPoint = trackPoints.get(0);
-				Trkpt endPoint = trackPoints.get(trackPoints.size() - 1);
-				Calendar startTime = startPoint.getTime().toGregorianCalendar();
-				Calendar endTime = endPoint.getTime().toGregorianCalendar();
-				if (startTime.compareTo(timeGMT) >= 0) {
-					// start time is after or exactly the same as image time
-					firstPointAfter = startPoint;
-					// at this time we know that searching any further will
-					// not give any more information about this track point
-					// as the following segments should be later than this one
-					// and this segment is already later than the track point
-					break;
+	/**
+	 * Match a run of sorted times by walking through them and the track
+	 * segments together.
+	 * 
+	 * @param times
+	 *            The times in milliseconds since the epoch
+	 * @param order
+	 *            The indices of the times, sorted by time
+	 * @param from
+	 *            The first index into order to be matched
+	 * @param to
+	 *            The index into order after the last one to be matched
+	 * @param matches
+	 *            The matches are stored here
+	 */
+	private void findMatches(long[] times, Integer[] order, int from, int to,
+			Match[] matches) {
+		List<TrackSegment> trackSegments = trackIndex.getTrackSegments();
+		int segmentCount = trackSegments.size();
+		// the number of segments starting before the current time
+		int started = 0;
+		// the indices of the started segments that might contain the current
+		// time - those ending earlier are removed when they come first
+		PriorityQueue<Integer> candidates = new PriorityQueue<Integer>();
+		// the started segment ending last
+		TrackSegment lastEnding = null;
+		// for each segment the first track point not before the current time
+		int[] cursors = new int[segmentCount];
+		for (int orderIndex = from; orderIndex < to; orderIndex++) {
+			int timeIndex = order[orderIndex].intValue();
+			long time = times[timeIndex];
+			if (time == ExifTime.NO_TIME) {
+				continue;
+			}
+			while (started < segmentCount
+					&& trackSegments.get(started).getStartTime() < time) {
+				TrackSegment segment = trackSegments.get(started);
+				if (segment.size() > 1) {
+					candidates.add(Integer.valueOf(started));
 				}
-				if (endTime.compareTo(timeGMT) <= 0) {
-					// end time is before or exactly the same as image time
-					if (lastPointBefore == null || lastPointBeforeTime == null
-							|| lastPointBeforeTime.before(endTime)) {
-						lastPointBefore = endPoint;
-						lastPointBeforeTime = endTime;
-					}
-					startIndex = segmentIndex;
+				if (lastEnding == null
+						|| lastEnding.getEndTime() < segment.getEndTime()) {
+					lastEnding = segment;
 				}
+				started++;
 			}
+			// a segment ending before this time ends before all later times
+			while (!candidates.isEmpty()
+					&& trackSegments.get(candidates.peek().intValue())
+							.getEndTime() < time) {
+				candidates.poll();
+			}
+			int segmentIndex = -1;
+			if (!candidates.isEmpty()) {
+				// the first segment containing the time
+				segmentIndex = candidates.peek().intValue();
+			} else if (started < segmentCount
+					&& trackSegments.get(started).getStartTime() == time) {
+				// the time is the start of one of the next segments
+				segmentIndex = trackIndex.findCovering(time);
+			}
+			Match match = null;
+			if (segmentIndex >= 0) {
+				TrackSegment segment = trackSegments.get(segmentIndex);
+				int cursor = cursors[segmentIndex];
+				while (segment.getTime(cursor) < time) {
+					cursor++;
+				}
+				cursors[segmentIndex] = cursor;
+				// an exact match for the first track point is treated like a
+				// match for the second
+				int greaterOrEqual = Math.max(cursor, 1);
+				match = new Match();
+				match.setMatchingSegment(segment);
+				match.setPreviousPoint(segment, greaterOrEqual - 1);
+				match.setNextPoint(segment, greaterOrEqual);
+			} else if (lastEnding != null && started < segmentCount) {
+				// the time falls in a gap between segments
+				match = new Match();
+				match.setPreviousPoint(lastEnding, lastEnding.size() - 1);
+				match.setNextPoint(trackSegments.get(started), 0);
+			}
+			matches[timeIndex] = match;
 		}
-		long end = System.currentTimeMillis();
-		matchesPerformed++;
-		totalTime += (end - start) / (double) Constants.ONE_SECOND_IN_MILLIS;
-		// System.out.println("This :"+(end-start)/1000.0+" Average: " +
-		// totalTime /
-		// matchesPerformed+" Total: "+totalTime);
-		if (match.getMatchingSegment() != null) {
-			return match;
-		}
-		if (lastPointBefore != null && firstPointAfter != null) {
-			match.setPreviousPoint(lastPointBefore);
-			match.setNextPoint(firstPointAfter);
-			return match;
+	}
+
+	/**
+	 * @return The threads used for matching
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					// don't keep the program from terminating
+					Thread thread = new Thread(runnable, "Track matcher"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
-		return null;
+		return executor;
 	}
 
 	/**
@@ -189,28 +340,28 @@ public class TrackMatcher {
 	 *            The match determined by the matcher
 	 */
 	public void performMatch(ImageInfo imageInfo, Match match) {
-		Trkpt startPoint = match.getPreviousPoint();
-		Trkpt endPoint = match.getNextPoint();
-		Calendar startTime = startPoint.getTime().toGregorianCalendar();
-		Calendar endTime = endPoint.getTime().toGregorianCalendar();
+		TrackSegment startSegment = match.getPreviousSegment();
+		int previousIndex = match.getPreviousIndex();
+		TrackSegment endSegment = match.getNextSegment();
+		int nextIndex = match.getNextIndex();
 		// we found the two readings before and after the image was
 		// taken (or an exact match)
 		// where in the segment lies our time
-		double ratio = Util.calculateRatio(startTime.getTimeInMillis(),
-				imageInfo.getTimeGMT().getTimeInMillis(), endTime
-						.getTimeInMillis());
+		double ratio = Util.calculateRatio(startSegment.getTime(previousIndex),
+				imageInfo.getGpsTime(), endSegment
+						.getTime(nextIndex));
 		// now we apply this ratio to interpolate the position
-		double startLatitude = startPoint.getLat().doubleValue();
-		double startLongitude = startPoint.getLon().doubleValue();
-		double startAltitude = 0.0;
-		if (startPoint.getEle() != null) {
-			startAltitude = startPoint.getEle().doubleValue();
+		double startLatitude = startSegment.getLatitude(previousIndex);
+		double startLongitude = startSegment.getLongitude(previousIndex);
+		double startAltitude = startSegment.getElevation(previousIndex);
+		if (Double.isNaN(startAltitude)) {
+			startAltitude = 0.0;
 		}
-		double endLatitude = endPoint.getLat().doubleValue();
-		double endLongitude = endPoint.getLon().doubleValue();
-		double endAltitude = 0.0;
-		if (endPoint.getEle() != null) {
-			endAltitude = endPoint.getEle().doubleValue();
+		double endLatitude = endSegment.getLatitude(nextIndex);
+		double endLongitude = endSegment.getLongitude(nextIndex);
+		double endAltitude = endSegment.getElevation(nextIndex);
+		if (Double.isNaN(endAltitude)) {
+			endAltitude = 0.0;
 		}
 		double latitude = Util.applyRatio(startLatitude, endLatitude, ratio);
 		double longitude = Util.applyRatio(startLongitude, endLongitude, ratio);
@@ -220,21 +371,18 @@ public class TrackMatcher {
 		boolean update = imageInfo.getSource() != DATA_SOURCE.IMAGE;
 		if (!update) {
 			// the current coordinates come from the image
-			try {
-				double oldLatitude = Double.parseDouble(imageInfo
-						.getGpsLatitude());
-				double oldLongitude = Double.parseDouble(imageInfo
-						.getGpsLongitude());
+			double oldLatitude = imageInfo.getLatitude();
+			double oldLongitude = imageInfo.getLongitude();
+			if (Double.isNaN(oldLatitude) || Double.isNaN(oldLongitude)) {
+				// the new values seem better than the old ones... update
+				update = true;
+			} else {
 				double distance = Util.greatCircleDistance(latitude, longitude,
 						oldLatitude, oldLongitude);
 				if (distance > 1.0) {
 					// more than one meter - update is valid
 					update = true;
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
-				// the new values seem better than the old ones... update
-				update = true;
 			}
 		}
 		if (update) {
@@ -249,22 +397,29 @@ public class TrackMatcher {
 	}
 
 	/**
-	 * A class holding the information found out by the matcher.
+	 * A class holding the information found out by the matcher. The track
+	 * points are given by their segment and their index within the segment.
 	 */
 	public static class Match {
 		/** The matching segment. */
-		private Trkseg matchingSegment;
+		private TrackSegment matchingSegment;
+
+		/** The segment of the last track point before the requested time. */
+		private TrackSegment previousSegment;
+
+		/** The index of the last track point before the requested time. */
+		private int previousIndex;
 
-		/** The last track point before the requested time. */
-		private Trkpt previousPoint;
+		/** The segment of the next track point after the requested time. */
+		private TrackSegment nextSegment;
 
-		/** the next track point after the requested time. */
-		private Trkpt nextPoint;
+		/** The index of the next track point after the requested time. */
+		private int nextIndex;
 
 		/**
 		 * @return the matchingSegment
 		 */
-		public Trkseg getMatchingSegment() {
+		public TrackSegment getMatchingSegment() {
 			return matchingSegment;
 		}
 
@@ -272,59 +427,58 @@ public class TrackMatcher {
 		 * @param matchingSegment
 		 *            the matchingSegment to set
 		 */
-		public void setMatchingSegment(Trkseg matchingSegment) {
+		public void setMatchingSegment(TrackSegment matchingSegment) {
 			this.matchingSegment = matchingSegment;
 		}
 
 		/**
-		 * @return the previousPoint
+		 * @param segment
+		 *            The segment of the previous point
+		 * @param index
+		 *            The index of the previous point in the segment
 		 */
-		public Trkpt getPreviousPoint() {
-			return previousPoint;
+		public void setPreviousPoint(TrackSegment segment, int index) {
+			this.previousSegment = segment;
+			this.previousIndex = index;
 		}
 
 		/**
-		 * @param previousPoint
-		 *            the previousPoint to set
+		 * @return the segment of the previous point
 		 */
-		public void setPreviousPoint(Trkpt previousPoint) {
-			this.previousPoint = previousPoint;
+		public TrackSegment getPreviousSegment() {
+			return previousSegment;
 		}
 
 		/**
-		 * @return the nextPoint
+		 * @return the index of the previous point in its segment
 		 */
-		public Trkpt getNextPoint() {
-			return nextPoint;
+		public int getPreviousIndex() {
+			return previousIndex;
 		}
 
 		/**
-		 * @param nextPoint
-		 *            the nextPoint to set
+		 * @param segment
+		 *            The segment of the next point
+		 * @param index
+		 *            The index of the next point in the segment
 		 */
-		public void setNextPoint(Trkpt nextPoint) {
-			this.nextPoint = nextPoint;
+		public void setNextPoint(TrackSegment segment, int index) {
+			this.nextSegment = segment;
+			this.nextIndex = index;
 		}
-	}
 
-	/**
-	 * Comparator for track points.
-	 * 
-	 * @author Andreas Schneider
-	 * 
-	 */
-	static class TrackPointComparator implements Comparator<Trkpt>, Serializable {
-		/***/
-    private static final long serialVersionUID = 1L;
+		/**
+		 * @return the segment of the next point
+		 */
+		public TrackSegment getNextSegment() {
+			return nextSegment;
+		}
 
-    /**
-		 * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+		/**
+		 * @return the index of the next point in its segment
 		 */
-		@Override
-		public int compare(Trkpt point1, Trkpt point2) {
-			Calendar time1 = point1.getTime().toGregorianCalendar();
-			Calendar time2 = point2.getTime().toGregorianCalendar();
-			return time1.compareTo(time2);
+		public int getNextIndex() {
+			return nextIndex;
 		}
 	}
 
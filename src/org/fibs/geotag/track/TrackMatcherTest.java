@@ -0,0 +1,82 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.fibs.geotag.track.TrackMatcher.Match;
+
+/**
+ * @author Andreas Schneider
+ *
+ */
+public class TrackMatcherTest extends TestCase {
+
+  /**
+   * Matching many times at once (and in parallel) must give the same results
+   * as matching them one by one.
+   */
+  public void testFindMatches() {
+    Random random = new Random(1);
+    final long hour = 3600000L;
+    List<TrackSegment> trackSegments = new ArrayList<TrackSegment>();
+    for (int segmentIndex = 0; segmentIndex < 500; segmentIndex++) {
+      // segments overlap now and then, some have only one track point
+      long time = random.nextInt(1000) * hour;
+      TrackSegment.Builder builder = new TrackSegment.Builder();
+      int points = 1 + random.nextInt(50);
+      for (int point = 0; point < points; point++) {
+        builder.add(time, random.nextDouble(), random.nextDouble(), Double.NaN);
+        time += random.nextInt((int) hour);
+      }
+      trackSegments.add(builder.build());
+    }
+    Collections.sort(trackSegments, new TrackStore.SegmentComparator());
+    TrackMatcher trackMatcher = new TrackMatcher(new TrackIndex(
+        trackSegments));
+    long[] times = new long[50000];
+    for (int index = 0; index < times.length; index++) {
+      times[index] = (long) (random.nextDouble() * 1010 * hour) - 5 * hour;
+    }
+    // exact track point times
+    times[0] = trackSegments.get(0).getStartTime();
+    times[1] = trackSegments.get(1).getEndTime();
+    Match[] matches = trackMatcher.findMatches(times);
+    assertEquals(times.length, matches.length);
+    for (int index = 0; index < times.length; index++) {
+      Match expected = trackMatcher.findMatch(times[index]);
+      Match match = matches[index];
+      if (expected == null) {
+        assertNull(match);
+      } else {
+        assertNotNull(match);
+        assertSame(expected.getMatchingSegment(), match.getMatchingSegment());
+        assertSame(expected.getPreviousSegment(), match.getPreviousSegment());
+        assertEquals(expected.getPreviousIndex(), match.getPreviousIndex());
+        assertSame(expected.getNextSegment(), match.getNextSegment());
+        assertEquals(expected.getNextIndex(), match.getNextIndex());
+      }
+    }
+  }
+}
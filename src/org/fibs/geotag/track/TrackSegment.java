@@ -0,0 +1,661 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.track;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeFactory;
+
+import com.topografix.gpx._1._0.ObjectFactory;
+import com.topografix.gpx._1._0.Gpx.Trk.Trkseg;
+import com.topografix.gpx._1._0.Gpx.Trk.Trkseg.Trkpt;
+
+/**
+ * A compact, read only track segment. The track points are stored column by
+ * column in primitive arrays, sorted by time. Track points without a time
+ * stamp are left out.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class TrackSegment {
+
+  /**
+   * The number of consecutive track points whose bounds are indexed together,
+   * see {@link #findBlocks(double, double, double, double)}.
+   */
+  public static final int BLOCK_SIZE = 64;
+
+  /** The number of levels of detail, including the segment itself. */
+  public static final int LEVELS = 10;
+
+  /** The tolerance of the most detailed simplified level in degrees. */
+  private static final double FINEST_TOLERANCE = 0.00001;
+
+  /** The tolerance grows by this factor from one level to the next. */
+  private static final double TOLERANCE_FACTOR = 4.0;
+
+  /** The track point times in milliseconds since the epoch. */
+  private final long[] times;
+
+  /** The track point latitudes. */
+  private final double[] latitudes;
+
+  /** The track point longitudes. */
+  private final double[] longitudes;
+
+  /** The track point elevations - NaN if a track point has none. */
+  private final double[] elevations;
+
+  /** The smallest latitude of all track points. */
+  private final double minLatitude;
+
+  /** The largest latitude of all track points. */
+  private final double maxLatitude;
+
+  /** The smallest longitude of all track points. */
+  private final double minLongitude;
+
+  /** The largest longitude of all track points. */
+  private final double maxLongitude;
+
+  /** The track the segment belongs to - null if unknown. */
+  private final TrackInfo track;
+
+  /** The index of the bounds of the blocks - created when first needed. */
+  private volatile SpatialIndex blockIndex = null;
+
+  /**
+   * The simplified versions of this segment, see {@link #getLevel(int)} -
+   * created when first needed.
+   */
+  private TrackSegment[] levels = null;
+
+  /**
+   * @param times
+   * @param latitudes
+   * @param longitudes
+   * @param elevations
+   * @param track
+   *          The track the segment belongs to - null if unknown
+   */
+  private TrackSegment(long[] times, double[] latitudes, double[] longitudes,
+      double[] elevations, TrackInfo track) {
+    this.times = times;
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.elevations = elevations;
+    this.track = track;
+    // unfortunately GPX only defines a bounds for the entire file, not per
+    // track, so we calculate them ourselves
+    double south = Double.POSITIVE_INFINITY;
+    double north = Double.NEGATIVE_INFINITY;
+    double west = Double.POSITIVE_INFINITY;
+    double east = Double.NEGATIVE_INFINITY;
+    for (int index = 0; index < times.length; index++) {
+      south = Math.min(south, latitudes[index]);
+      north = Math.max(north, latitudes[index]);
+      west = Math.min(west, longitudes[index]);
+      east = Math.max(east, longitudes[index]);
+    }
+    minLatitude = south;
+    maxLatitude = north;
+    minLongitude = west;
+    maxLongitude = east;
+  }
+
+  /**
+   * Create the compact copy of a track segment.
+   *
+   * @param segment
+   *          The track segment
+   * @param track
+   *          The track the segment belongs to
+   * @return The copy or null if the segment has no track points with times
+   */
+  public static TrackSegment create(Trkseg segment, TrackInfo track) {
+    Builder builder = new Builder(track);
+    for (Trkpt trackpoint : segment.getTrkpt()) {
+      // There are cases where gpx files are missing time
+      // stamps. Ignore those track points
+      if (trackpoint.getTime() != null) {
+        builder.add(trackpoint.getTime().toGregorianCalendar()
+            .getTimeInMillis(), trackpoint.getLat().doubleValue(), trackpoint
+            .getLon().doubleValue(), trackpoint.getEle() == null ? Double.NaN
+            : trackpoint.getEle().doubleValue());
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Convert the segment back to a GPX track segment.
+   *
+   * @param objectFactory
+   *          The factory for the GPX objects
+   * @param datatypeFactory
+   *          The factory for the track point times
+   * @return The GPX track segment
+   */
+  public Trkseg toTrkseg(ObjectFactory objectFactory,
+      DatatypeFactory datatypeFactory) {
+    Trkseg segment = objectFactory.createGpxTrkTrkseg();
+    GregorianCalendar calendar = new GregorianCalendar(TimeZone
+        .getTimeZone("GMT")); //$NON-NLS-1$
+    for (int index = 0; index < times.length; index++) {
+      Trkpt trackpoint = objectFactory.createGpxTrkTrksegTrkpt();
+      trackpoint.setLat(BigDecimal.valueOf(latitudes[index]));
+      trackpoint.setLon(BigDecimal.valueOf(longitudes[index]));
+      if (!Double.isNaN(elevations[index])) {
+        trackpoint.setEle(BigDecimal.valueOf(elevations[index]));
+      }
+      calendar.setTimeInMillis(times[index]);
+      trackpoint.setTime(datatypeFactory.newXMLGregorianCalendar(calendar));
+      segment.getTrkpt().add(trackpoint);
+    }
+    return segment;
+  }
+
+  /**
+   * @return The number of track points
+   */
+  public int size() {
+    return times.length;
+  }
+
+  /**
+   * @return The track the segment belongs to - null if unknown
+   */
+  public TrackInfo getTrack() {
+    return track;
+  }
+
+  /**
+   * @return The time of the first track point
+   */
+  public long getStartTime() {
+    return times[0];
+  }
+
+  /**
+   * @return The time of the last track point
+   */
+  public long getEndTime() {
+    return times[times.length - 1];
+  }
+
+  /**
+   * @param index
+   * @return The time of a track point in milliseconds since the epoch
+   */
+  public long getTime(int index) {
+    return times[index];
+  }
+
+  /**
+   * @param index
+   * @return The latitude of a track point
+   */
+  public double getLatitude(int index) {
+    return latitudes[index];
+  }
+
+  /**
+   * @param index
+   * @return The longitude of a track point
+   */
+  public double getLongitude(int index) {
+    return longitudes[index];
+  }
+
+  /**
+   * @param index
+   * @return The elevation of a track point or NaN if it has none
+   */
+  public double getElevation(int index) {
+    return elevations[index];
+  }
+
+  /**
+   * @return The smallest latitude of the track points
+   */
+  public double getMinLatitude() {
+    return minLatitude;
+  }
+
+  /**
+   * @return The largest latitude of the track points
+   */
+  public double getMaxLatitude() {
+    return maxLatitude;
+  }
+
+  /**
+   * @return The smallest longitude of the track points
+   */
+  public double getMinLongitude() {
+    return minLongitude;
+  }
+
+  /**
+   * @return The largest longitude of the track points
+   */
+  public double getMaxLongitude() {
+    return maxLongitude;
+  }
+
+  /**
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return True if the bounds of the segment intersect the given bounds
+   */
+  public boolean intersects(double south, double west, double north,
+      double east) {
+    return minLatitude <= north && south <= maxLatitude
+        && minLongitude <= east && west <= maxLongitude;
+  }
+
+  /**
+   * Find the blocks of track points that might be on a map. The track points
+   * are divided into blocks of {@link #BLOCK_SIZE} consecutive points, block
+   * b holding the points from b * BLOCK_SIZE. The track points of all other
+   * blocks are definitely not on the map.
+   *
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return The blocks whose bounds intersect the given bounds, in ascending
+   *         order
+   */
+  public int[] findBlocks(double south, double west, double north, double east) {
+    if (times.length <= BLOCK_SIZE) {
+      return intersects(south, west, north, east) ? new int[] { 0 }
+          : new int[0];
+    }
+    SpatialIndex index = blockIndex;
+    if (index == null) {
+      int blocks = (times.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      double[] blockSouth = new double[blocks];
+      double[] blockWest = new double[blocks];
+      double[] blockNorth = new double[blocks];
+      double[] blockEast = new double[blocks];
+      for (int block = 0; block < blocks; block++) {
+        blockSouth[block] = Double.POSITIVE_INFINITY;
+        blockWest[block] = Double.POSITIVE_INFINITY;
+        blockNorth[block] = Double.NEGATIVE_INFINITY;
+        blockEast[block] = Double.NEGATIVE_INFINITY;
+        int end = Math.min((block + 1) * BLOCK_SIZE, times.length);
+        for (int point = block * BLOCK_SIZE; point < end; point++) {
+          blockSouth[block] = Math.min(blockSouth[block], latitudes[point]);
+          blockWest[block] = Math.min(blockWest[block], longitudes[point]);
+          blockNorth[block] = Math.max(blockNorth[block], latitudes[point]);
+          blockEast[block] = Math.max(blockEast[block], longitudes[point]);
+        }
+      }
+      // two threads might do this at the same time - no harm done
+      index = new SpatialIndex(blockSouth, blockWest, blockNorth, blockEast);
+      blockIndex = index;
+    }
+    return index.search(south, west, north, east);
+  }
+
+  /**
+   * @param level
+   *          The level of detail, from zero to {@link #LEVELS} - 1
+   * @return The largest distance in degrees between a track point of the
+   *         segment and the simplified segment of that level
+   */
+  public static double getTolerance(int level) {
+    // each level is simplified from the previous one, so the distances add
+    // up - to about 4/3 of the tolerance of the last step
+    double tolerance = 0.0;
+    for (int step = 1; step <= level; step++) {
+      tolerance += getStepTolerance(step);
+    }
+    return tolerance;
+  }
+
+  /**
+   * @param level
+   *          The level of detail, from one to {@link #LEVELS} - 1
+   * @return The largest distance in degrees between a track point of the
+   *         previous level and the simplified segment of this level
+   */
+  private static double getStepTolerance(int level) {
+    return FINEST_TOLERANCE * Math.pow(TOLERANCE_FACTOR, level - 1);
+  }
+
+  /**
+   * Choose the level of detail for a map, so the simplification is not
+   * visible.
+   *
+   * @param degreesPerPixel
+   *          The smallest distance visible on the map in degrees
+   * @return The least detailed level that's accurate to a pixel
+   */
+  public static int chooseLevel(double degreesPerPixel) {
+    int level = 0;
+    while (level + 1 < LEVELS && getTolerance(level + 1) <= degreesPerPixel) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Get a simplified version of this segment. Each level is simplified from
+   * the previous one using the Douglas-Peucker algorithm, so no track point
+   * is further than {@link #getTolerance(int)} from the simplified line, and
+   * the line looks the same on a map showing that many degrees per pixel. The
+   * levels are calculated once and kept.
+   *
+   * @param level
+   *          The level of detail - zero for the segment itself
+   * @return The simplified segment
+   */
+  public synchronized TrackSegment getLevel(int level) {
+    if (level <= 0) {
+      return this;
+    }
+    if (levels == null) {
+      levels = new TrackSegment[LEVELS];
+      levels[0] = this;
+    }
+    int maximumLevel = Math.min(level, LEVELS - 1);
+    for (int index = 1; index <= maximumLevel; index++) {
+      if (levels[index] == null) {
+        // simplifying the previous level is much faster than simplifying
+        // the whole segment again
+        levels[index] = levels[index - 1]
+            .simplify(getStepTolerance(index));
+      }
+    }
+    return levels[maximumLevel];
+  }
+
+  /**
+   * Calculate all levels of detail, so they are ready when needed.
+   */
+  public void createLevels() {
+    getLevel(LEVELS - 1);
+  }
+
+  /**
+   * Simplify the segment using the Douglas-Peucker algorithm.
+   *
+   * @param tolerance
+   *          The largest distance in degrees of a track point left out from
+   *          the simplified line
+   * @return The simplified segment - this segment if no track points could
+   *         be left out
+   */
+  private TrackSegment simplify(double tolerance) {
+    int size = times.length;
+    if (size <= 2) {
+      return this;
+    }
+    boolean[] keep = new boolean[size];
+    keep[0] = true;
+    keep[size - 1] = true;
+    int kept = 2;
+    // the ranges of track points still to be simplified - no recursion, as
+    // the segments can be very long
+    int[] stack = new int[2 * 2 * Integer.SIZE];
+    int stackSize = 0;
+    stack[stackSize++] = 0;
+    stack[stackSize++] = size - 1;
+    while (stackSize > 0) {
+      int last = stack[--stackSize];
+      int first = stack[--stackSize];
+      int farthest = -1;
+      double maximumDistance = tolerance;
+      for (int index = first + 1; index < last; index++) {
+        double distance = distanceFromLine(index, first, last);
+        if (distance > maximumDistance) {
+          maximumDistance = distance;
+          farthest = index;
+        }
+      }
+      if (farthest >= 0) {
+        keep[farthest] = true;
+        kept++;
+        if (stackSize + 2 * 2 > stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = first;
+        stack[stackSize++] = farthest;
+        stack[stackSize++] = farthest;
+        stack[stackSize++] = last;
+      }
+    }
+    if (kept == size) {
+      return this;
+    }
+    long[] keptTimes = new long[kept];
+    double[] keptLatitudes = new double[kept];
+    double[] keptLongitudes = new double[kept];
+    double[] keptElevations = new double[kept];
+    int keptIndex = 0;
+    for (int index = 0; index < size; index++) {
+      if (keep[index]) {
+        keptTimes[keptIndex] = times[index];
+        keptLatitudes[keptIndex] = latitudes[index];
+        keptLongitudes[keptIndex] = longitudes[index];
+        keptElevations[keptIndex] = elevations[index];
+        keptIndex++;
+      }
+    }
+    return new TrackSegment(keptTimes, keptLatitudes, keptLongitudes,
+        keptElevations, track);
+  }
+
+  /**
+   * @param index
+   *          A track point
+   * @param first
+   *          The track point where the line starts
+   * @param last
+   *          The track point where the line ends
+   * @return The distance of the track point from the line in degrees
+   */
+  private double distanceFromLine(int index, int first, int last) {
+    double startLatitude = latitudes[first];
+    double startLongitude = longitudes[first];
+    double lineLatitude = latitudes[last] - startLatitude;
+    double lineLongitude = longitudes[last] - startLongitude;
+    double pointLatitude = latitudes[index] - startLatitude;
+    double pointLongitude = longitudes[index] - startLongitude;
+    double lengthSquared = lineLatitude * lineLatitude + lineLongitude
+        * lineLongitude;
+    double ratio = 0.0;
+    if (lengthSquared > 0.0) {
+      // where the point projects onto the line - kept within its ends
+      ratio = Math.max(0.0, Math.min(1.0, (pointLatitude * lineLatitude
+          + pointLongitude * lineLongitude)
+          / lengthSquared));
+    }
+    double latitudeDistance = pointLatitude - ratio * lineLatitude;
+    double longitudeDistance = pointLongitude - ratio * lineLongitude;
+    return Math.sqrt(latitudeDistance * latitudeDistance + longitudeDistance
+        * longitudeDistance);
+  }
+
+  /**
+   * Find a time in the track points.
+   *
+   * @param time
+   *          The time in milliseconds since the epoch
+   * @return The index of the first track point if there is one at exactly
+   *         that time, otherwise (-(insertion point) - 1)
+   * @see Arrays#binarySearch(long[], long)
+   */
+  public int search(long time) {
+    // unlike Arrays.binarySearch() this finds the first of several track
+    // points with the same time, so the result is always the same
+    int low = 0;
+    int high = times.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (times[middle] < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    if (low < times.length && times[low] == time) {
+      return low;
+    }
+    return -low - 1;
+  }
+
+  /**
+   * Collects track points one by one and creates a {@link TrackSegment} from
+   * them.
+   */
+  public static class Builder {
+
+    /** The initial capacity of the arrays. */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** The number of track points added so far. */
+    private int size = 0;
+
+    /** The times added so far. */
+    private long[] times = new long[INITIAL_CAPACITY];
+
+    /** The latitudes added so far. */
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+
+    /** The longitudes added so far. */
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+
+    /** The elevations added so far. */
+    private double[] elevations = new double[INITIAL_CAPACITY];
+
+    /** The track the segment belongs to - null if unknown. */
+    private final TrackInfo track;
+
+    /**
+     * Create a builder for a segment not belonging to a known track.
+     */
+    public Builder() {
+      this(null);
+    }
+
+    /**
+     * @param track
+     *          The track the segment belongs to - null if unknown
+     */
+    public Builder(TrackInfo track) {
+      this.track = track;
+    }
+
+    /**
+     * Add a track point.
+     *
+     * @param time
+     *          The time in milliseconds since the epoch
+     * @param latitude
+     * @param longitude
+     * @param elevation
+     *          The elevation or NaN if unknown
+     */
+    public void add(long time, double latitude, double longitude,
+        double elevation) {
+      if (size == times.length) {
+        int capacity = size * 2;
+        times = Arrays.copyOf(times, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        elevations = Arrays.copyOf(elevations, capacity);
+      }
+      times[size] = time;
+      latitudes[size] = latitude;
+      longitudes[size] = longitude;
+      elevations[size] = elevation;
+      size++;
+    }
+
+    /**
+     * @return The number of track points added so far
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @return The new track segment or null if no track points were added
+     */
+    public TrackSegment build() {
+      if (size == 0) {
+        return null;
+      }
+      long[] sortedTimes = Arrays.copyOf(times, size);
+      double[] sortedLatitudes = Arrays.copyOf(latitudes, size);
+      double[] sortedLongitudes = Arrays.copyOf(longitudes, size);
+      double[] sortedElevations = Arrays.copyOf(elevations, size);
+      if (!isSorted(sortedTimes)) {
+        // track points should be in chronological order, but better be safe
+        List<Integer> order = new ArrayList<Integer>();
+        for (int index = 0; index < size; index++) {
+          order.add(Integer.valueOf(index));
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+          @Override
+          public int compare(Integer index1, Integer index2) {
+            long time1 = times[index1.intValue()];
+            long time2 = times[index2.intValue()];
+            return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+          }
+        });
+        for (int index = 0; index < size; index++) {
+          int sourceIndex = order.get(index).intValue();
+          sortedTimes[index] = times[sourceIndex];
+          sortedLatitudes[index] = latitudes[sourceIndex];
+          sortedLongitudes[index] = longitudes[sourceIndex];
+          sortedElevations[index] = elevations[sourceIndex];
+        }
+      }
+      return new TrackSegment(sortedTimes, sortedLatitudes, sortedLongitudes,
+          sortedElevations, track);
+    }
+
+    /**
+     * @param values
+     * @return True if the values are in ascending order
+     */
+    private static boolean isSorted(long[] values) {
+      for (int index = 1; index < values.length; index++) {
+        if (values[index] < values[index - 1]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
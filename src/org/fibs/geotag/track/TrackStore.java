@@ -19,25 +19,29 @@
 package org.fibs.geotag.track;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import org.fibs.geotag.util.BoundsTypeUtil;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
 
 import com.topografix.gpx._1._0.BoundsType;
 import com.topografix.gpx._1._0.Gpx;
 import com.topografix.gpx._1._0.ObjectFactory;
 import com.topografix.gpx._1._0.Gpx.Trk;
 import com.topografix.gpx._1._0.Gpx.Trk.Trkseg;
-import com.topografix.gpx._1._0.Gpx.Trk.Trkseg.Trkpt;
 
 /**
- * A class that stores the tracks we have loaded or downloaded from GPS.
+ * A class that stores the tracks we have loaded or downloaded from GPS. The
+ * tracks are kept as compact {@link TrackSegment}s, a {@link Gpx} object is
+ * only created when needed.
  * 
  * @author Andreas Schneider
  * 
@@ -47,14 +51,20 @@ public final class TrackStore {
   /** The only TrackStore ever created. */
   private static final TrackStore TRACKSTORE = new TrackStore();
 
-  /** Here we store the bounds of each track segment. */
-  private Map<Trkseg, BoundsType> segmentBounds = new HashMap<Trkseg, BoundsType>();
-
-  /** A Gpx object containing all the tracks we know. */
-  private Gpx gpx;
+  /**
+   * The index of the track segments. It is never changed, adding segments
+   * replaces it with a new one - so anyone holding on to the index sees a
+   * consistent snapshot of the tracks.
+   */
+  private volatile TrackIndex trackIndex = new TrackIndex(Collections
+      .<TrackSegment> emptyList());
 
-  /** A list containing the track segments. */
-  private List<Trkseg> segmentList = null;
+  /**
+   * The thread preparing the simplified segments for the map - created when
+   * first needed. A single thread for all segments, so loading many files
+   * doesn't start threads competing for the CPU.
+   */
+  private static ExecutorService simplifier = null;
 
   /**
    * A private constructor.
@@ -76,81 +86,104 @@ public final class TrackStore {
    * @param newGpx
    */
   public void addGPX(Gpx newGpx) {
-    if (gpx == null) {
-      gpx = newGpx;
-    } else {
-      gpx.getTrk().addAll(newGpx.getTrk());
-    }
-    // store the segments in a list
-    List<Trkseg> newSegmentList = new ArrayList<Trkseg>();
-    for (Trk track : gpx.getTrk()) {
+    List<TrackSegment> newSegments = new ArrayList<TrackSegment>();
+    for (Trk track : newGpx.getTrk()) {
+      TrackInfo trackInfo = TrackInfo.create(track);
       for (Trkseg segment : track.getTrkseg()) {
-        List<Trkpt> trackpointList = new ArrayList<Trkpt>();
-        for (Trkpt trackpoint : segment.getTrkpt()) {
-          // There are cases where gpx files are missing time
-          // stamps. Ignore those track points
-          if (trackpoint.getTime() != null) {
-            trackpointList.add(trackpoint);
-          }
-        }
-        if (trackpointList.size() > 0) {
-          newSegmentList.add(segment);
+        TrackSegment trackSegment = TrackSegment.create(segment, trackInfo);
+        if (trackSegment != null) {
+          newSegments.add(trackSegment);
         }
       }
     }
-    // System.out.println("No segments: "+newSegmentList.size());
+    addTrackSegments(newSegments);
+  }
+
+  /**
+   * Add track segments to the tracks. Only the new segments are sorted, they
+   * are then merged into the existing ones and checked for duplicates among
+   * the segments starting at the same time. Readers keep seeing the old
+   * tracks until the new {@link TrackIndex} replaces the old one.
+   * 
+   * @param newSegments
+   */
+  public synchronized void addTrackSegments(List<TrackSegment> newSegments) {
     SegmentComparator comparator = new SegmentComparator();
-    Collections.sort(newSegmentList, comparator);
-    // now weed out duplicates
-    segmentList = new ArrayList<Trkseg>();
-    Trkseg lastUniqueSegment = null;
-    for (Trkseg segment : newSegmentList) {
-      if (lastUniqueSegment == null
-          || comparator.compare(lastUniqueSegment, segment) != 0) {
+    List<TrackSegment> sortedSegments = new ArrayList<TrackSegment>(
+        newSegments);
+    Collections.sort(sortedSegments, comparator);
+    List<TrackSegment> oldSegments = trackIndex.getTrackSegments();
+    List<TrackSegment> segmentList = new ArrayList<TrackSegment>(
+        oldSegments.size() + sortedSegments.size());
+    int oldIndex = 0;
+    final List<TrackSegment> addedSegments = new ArrayList<TrackSegment>();
+    for (TrackSegment segment : sortedSegments) {
+      // existing segments go first if they start at the same time
+      while (oldIndex < oldSegments.size()
+          && comparator.compare(oldSegments.get(oldIndex), segment) <= 0) {
+        segmentList.add(oldSegments.get(oldIndex++));
+      }
+      // now weed out duplicates - segments starting at the same time can
+      // still be different, e.g. if they come from different loggers
+      boolean duplicate = false;
+      int index = segmentList.size() - 1;
+      while (!duplicate && index >= 0
+          && comparator.compare(segmentList.get(index), segment) == 0) {
+        duplicate = isDuplicate(segmentList.get(index), segment);
+        index--;
+      }
+      if (!duplicate) {
         segmentList.add(segment);
-        lastUniqueSegment = segment;
+        addedSegments.add(segment);
       }
     }
-    // System.out.println("After weeding: "+segmentList.size());
-    createTrackSegmentBounds(segmentList);
+    if (addedSegments.isEmpty()) {
+      return;
+    }
+    segmentList.addAll(oldSegments.subList(oldIndex, oldSegments.size()));
+    trackIndex = new TrackIndex(segmentList);
+    // prepare the simplified segments for the map in the background
+    getSimplifier().execute(new Runnable() {
+      @Override
+      public void run() {
+        for (TrackSegment segment : addedSegments) {
+          segment.createLevels();
+        }
+      }
+    });
   }
 
   /**
-   * @param segments
+   * @return The thread preparing the simplified segments
    */
-  private void createTrackSegmentBounds(List<Trkseg> segments) {
-    // unfortunately GPX only defines a bounds for the entire file, not per
-    // track
-    segmentBounds.clear();
-    ObjectFactory objectFactory = new ObjectFactory();
-    for (Trkseg segment : segments) {
-      if (segment.getTrkpt().size() > 0) {
-        // we calculate bounds for each track segment
-        BoundsType bounds = objectFactory.createBoundsType();
-        for (Trkpt trackpoint : segment.getTrkpt()) {
-          BigDecimal latitude = trackpoint.getLat();
-          BigDecimal longitude = trackpoint.getLon();
-          if (bounds.getMinlat() == null
-              || latitude.compareTo(bounds.getMinlat()) < 0) {
-            bounds.setMinlat(latitude);
-          }
-          if (bounds.getMaxlat() == null
-              || latitude.compareTo(bounds.getMaxlat()) > 0) {
-            bounds.setMaxlat(latitude);
-          }
-          if (bounds.getMinlon() == null
-              || longitude.compareTo(bounds.getMinlon()) < 0) {
-            bounds.setMinlon(longitude);
-          }
-          if (bounds.getMaxlon() == null
-              || longitude.compareTo(bounds.getMaxlon()) > 0) {
-            bounds.setMaxlon(longitude);
-          }
+  private static synchronized ExecutorService getSimplifier() {
+    if (simplifier == null) {
+      simplifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          // don't keep the program from terminating
+          Thread thread = new Thread(runnable, "Track simplification"); //$NON-NLS-1$
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
         }
-        // now that we know the bounds of the track we can store them
-        segmentBounds.put(segment, bounds);
-      }
+      });
     }
+    return simplifier;
+  }
+
+  /**
+   * @param segment1
+   * @param segment2
+   * @return True if the segments are considered to be the same - i.e. they
+   *         have the same start and end time and the same number of track
+   *         points
+   */
+  private static boolean isDuplicate(TrackSegment segment1,
+      TrackSegment segment2) {
+    return segment1.getStartTime() == segment2.getStartTime()
+        && segment1.getEndTime() == segment2.getEndTime()
+        && segment1.size() == segment2.size();
   }
 
   /**
@@ -159,13 +192,52 @@ public final class TrackStore {
    * @return True if we do
    */
   public boolean hasTracks() {
-    return gpx != null && gpx.getTrk().size() > 0;
+    return !trackIndex.isEmpty();
   }
 
   /**
-   * @return the Gpx object containing the tracks
+   * Create a {@link Gpx} object containing all the tracks we know. The
+   * segments are grouped into the tracks they were read from, a segment not
+   * belonging to a known track becomes a track of its own.<br>
+   * Only what the {@link TrackSegment}s and {@link TrackInfo}s keep is
+   * written: the time, position and elevation of the track points with a
+   * time, and the name, comment, description, source and number of the
+   * tracks. Waypoints, routes, the metadata of the loaded files, track points
+   * without time and all other track point data are lost.
+   * 
+   * @return the Gpx object containing the tracks or null if there are none
    */
   public Gpx getGpx() {
+    if (!hasTracks()) {
+      return null;
+    }
+    DatatypeFactory datatypeFactory;
+    try {
+      datatypeFactory = DatatypeFactory.newInstance();
+    } catch (DatatypeConfigurationException e) {
+      e.printStackTrace();
+      return null;
+    }
+    ObjectFactory objectFactory = new ObjectFactory();
+    Gpx gpx = objectFactory.createGpx();
+    // the GPX tracks created so far
+    Map<TrackInfo, Trk> tracks = new IdentityHashMap<TrackInfo, Trk>();
+    for (TrackSegment segment : getTrackSegments()) {
+      TrackInfo trackInfo = segment.getTrack();
+      Trk track = trackInfo == null ? null : tracks.get(trackInfo);
+      if (track == null) {
+        // the first segment of the track - the tracks are in the order of
+        // their first segments
+        if (trackInfo == null) {
+          track = objectFactory.createGpxTrk();
+        } else {
+          track = trackInfo.toTrk(objectFactory);
+          tracks.put(trackInfo, track);
+        }
+        gpx.getTrk().add(track);
+      }
+      track.getTrkseg().add(segment.toTrkseg(objectFactory, datatypeFactory));
+    }
     return gpx;
   }
 
@@ -173,6 +245,7 @@ public final class TrackStore {
    * @return The list of tracks
    */
   public List<Trk> getTracks() {
+    Gpx gpx = getGpx();
     if (gpx != null) {
       return gpx.getTrk();
     }
@@ -180,19 +253,19 @@ public final class TrackStore {
   }
 
   /**
-   * @return The list of track segments
+   * @return The track segments, ordered by the time of their first track
+   *         point - this list never changes
    */
-  public List<Trkseg> getTrackSegments() {
-    return segmentList;
+  public List<TrackSegment> getTrackSegments() {
+    return trackIndex.getTrackSegments();
   }
 
   /**
-   * @param segment
-   *          A track segment in the store
-   * @return The bounds of the segment, if available
+   * @return The index of the track segments - it never changes, loading more
+   *         tracks creates a new one
    */
-  BoundsType getSegmentBounds(Trkseg segment) {
-    return segmentBounds.get(segment);
+  public TrackIndex getTrackIndex() {
+    return trackIndex;
   }
 
   /**
@@ -203,29 +276,32 @@ public final class TrackStore {
    *          The bounds of a map
    * @return All intersecting segments or an empty list
    */
-  public List<Trkseg> getIntersectingTrackSegments(BoundsType mapBounds) {
-    List<Trkseg> result = new ArrayList<Trkseg>();
-    if (gpx != null) {
-      for (Trk track : gpx.getTrk()) {
-        for (Trkseg segment : track.getTrkseg()) {
-          BoundsType bounds = segmentBounds.get(segment);
-          if (bounds != null) {
-            if (BoundsTypeUtil.intersect(mapBounds, bounds)) {
-              // part or all of segment might be on map
-              result.add(segment);
-            }
-          }
-        }
-      }
-    }
-    return result;
+  public List<TrackSegment> getIntersectingTrackSegments(BoundsType mapBounds) {
+    return getIntersectingTrackSegments(mapBounds.getMinlat().doubleValue(),
+        mapBounds.getMinlon().doubleValue(), mapBounds.getMaxlat()
+            .doubleValue(), mapBounds.getMaxlon().doubleValue());
+  }
+
+  /**
+   * Find all stored track segments whose bounds intersect the given bounds.
+   * 
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return All intersecting segments or an empty list
+   */
+  public List<TrackSegment> getIntersectingTrackSegments(double south,
+      double west, double north, double east) {
+    return trackIndex.getIntersecting(south, west, north, east);
   }
 
   /**
    * A class for comparing timestamps of tracks segments. Only the timestamp of
    * the first trackpoint is compared.
    */
-  static class SegmentComparator implements Comparator<Trkseg>, Serializable {
+  static class SegmentComparator implements Comparator<TrackSegment>,
+      Serializable {
     /***/
     private static final long serialVersionUID = 1L;
 
@@ -233,9 +309,10 @@ public final class TrackStore {
      * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
      */
     @Override
-    public int compare(Trkseg segment1, Trkseg segment2) {
-      return segment1.getTrkpt().get(0).getTime().compare(
-          segment2.getTrkpt().get(0).getTime());
+    public int compare(TrackSegment segment1, TrackSegment segment2) {
+      long time1 = segment1.getStartTime();
+      long time2 = segment2.getStartTime();
+      return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
     }
   }
 }
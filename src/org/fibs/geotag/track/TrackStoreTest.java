@@ -17,17 +17,19 @@
  */
 package org.fibs.geotag.track;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 import junit.framework.TestCase;
 
-import org.fibs.geotag.util.BoundsTypeUtil;
-
 import com.topografix.gpx._1._0.BoundsType;
 import com.topografix.gpx._1._0.Gpx;
+import com.topografix.gpx._1._0.ObjectFactory;
 import com.topografix.gpx._1._0.Gpx.Trk;
 import com.topografix.gpx._1._0.Gpx.Trk.Trkseg;
+import com.topografix.gpx._1._0.Gpx.Trk.Trkseg.Trkpt;
 
 /**
  * @author Andreas Schneider
@@ -59,13 +61,127 @@ public class TrackStoreTest extends TestCase {
     assertNotNull(TrackStore.getTrackStore().getTracks());
     // now test the intersects() Method
     BoundsType gpxBounds = gpx.getBounds();
-    for (Trk track : TrackStore.getTrackStore().getTracks()) {
+    double south = gpxBounds.getMinlat().doubleValue();
+    double west = gpxBounds.getMinlon().doubleValue();
+    double north = gpxBounds.getMaxlat().doubleValue();
+    double east = gpxBounds.getMaxlon().doubleValue();
+    for (TrackSegment trackSegment : TrackStore.getTrackStore().getTrackSegments()) {
+      assertTrue(trackSegment.intersects(south, west, north, east));
+    }
+    assertEquals(TrackStore.getTrackStore().getTrackSegments().size(),
+        TrackStore.getTrackStore().getIntersectingTrackSegments(gpxBounds).size());
+    // the compact copies must be ordered by time
+    assertFalse(TrackStore.getTrackStore().getTrackSegments().isEmpty());
+    long lastStartTime = Long.MIN_VALUE;
+    for (TrackSegment trackSegment : TrackStore.getTrackStore().getTrackSegments()) {
+      assertTrue(trackSegment.getStartTime() >= lastStartTime);
+      lastStartTime = trackSegment.getStartTime();
+      for (int index = 1; index < trackSegment.size(); index++) {
+        assertTrue(trackSegment.getTime(index) >= trackSegment.getTime(index - 1));
+      }
+    }
+  }
+
+  /**
+   * The streaming reader must find the same track points as the JAXB reader.
+   */
+  public void testGpxStreamReader() {
+    InputStream stream = TrackStoreTest.class.getClassLoader().getResourceAsStream("all.gpx"); //$NON-NLS-1$
+    assertNotNull(stream);
+    Gpx gpx = GpxReader.read(stream);
+    try {
+      stream.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    assertNotNull(gpx);
+    int expectedTrackPoints = 0;
+    for (Trk track : gpx.getTrk()) {
       for (Trkseg segment : track.getTrkseg()) {
-        BoundsType segmentBounds = TrackStore.getTrackStore().getSegmentBounds(segment);
-        if (segmentBounds != null) {
-          assertTrue(BoundsTypeUtil.intersect(gpxBounds, segmentBounds));
+        for (Trkpt trackPoint : segment.getTrkpt()) {
+          if (trackPoint.getTime() != null) {
+            expectedTrackPoints++;
+          }
         }
       }
     }
+    stream = TrackStoreTest.class.getClassLoader().getResourceAsStream("all.gpx"); //$NON-NLS-1$
+    List<TrackSegment> segments = GpxStreamReader.read(stream);
+    try {
+      stream.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    assertNotNull(segments);
+    int trackPoints = 0;
+    for (TrackSegment segment : segments) {
+      trackPoints += segment.size();
+    }
+    assertEquals(expectedTrackPoints, trackPoints);
+  }
+
+  /**
+   * Track points without a latitude are skipped, not fatal.
+   * 
+   * @throws IOException
+   */
+  public void testTrackPointWithoutLatitude() throws IOException {
+    String gpx = "<?xml version=\"1.0\"?>" //$NON-NLS-1$
+        + "<gpx version=\"1.1\"><trk><trkseg>" //$NON-NLS-1$
+        + "<trkpt lat=\"48.1\" lon=\"11.5\">" //$NON-NLS-1$
+        + "<time>2008-05-01T10:00:00Z</time></trkpt>" //$NON-NLS-1$
+        + "<trkpt lon=\"11.6\">" //$NON-NLS-1$
+        + "<time>2008-05-01T10:01:00Z</time></trkpt>" //$NON-NLS-1$
+        + "<trkpt lat=\"48.3\" lon=\"11.7\">" //$NON-NLS-1$
+        + "<time>2008-05-01T10:02:00Z</time></trkpt>" //$NON-NLS-1$
+        + "</trkseg></trk></gpx>"; //$NON-NLS-1$
+    InputStream stream = new ByteArrayInputStream(gpx.getBytes("UTF-8")); //$NON-NLS-1$
+    List<TrackSegment> segments = GpxStreamReader.read(stream);
+    stream.close();
+    assertNotNull(segments);
+    assertEquals(1, segments.size());
+    TrackSegment segment = segments.get(0);
+    assertEquals(2, segment.size());
+    assertEquals(48.1, segment.getLatitude(0), 0.0);
+    assertEquals(48.3, segment.getLatitude(1), 0.0);
+  }
+
+  /**
+   * The segments of a track share the name and description of the track.
+   * 
+   * @throws IOException
+   */
+  public void testTrackInfo() throws IOException {
+    String gpx = "<?xml version=\"1.0\"?>" //$NON-NLS-1$
+        + "<gpx version=\"1.1\"><wpt lat=\"48\" lon=\"11\">" //$NON-NLS-1$
+        + "<name>Waypoint</name></wpt>" //$NON-NLS-1$
+        + "<trk><name>Morning</name><desc>Walk</desc>" //$NON-NLS-1$
+        + "<link href=\"http://example.com\"><text>Link</text></link>" //$NON-NLS-1$
+        + "<number>1</number>" //$NON-NLS-1$
+        + "<trkseg><trkpt lat=\"48.1\" lon=\"11.5\">" //$NON-NLS-1$
+        + "<name>Point</name>" //$NON-NLS-1$
+        + "<time>2008-05-01T10:00:00Z</time></trkpt></trkseg>" //$NON-NLS-1$
+        + "<trkseg><trkpt lat=\"48.2\" lon=\"11.6\">" //$NON-NLS-1$
+        + "<time>2008-05-01T11:00:00Z</time></trkpt></trkseg></trk>" //$NON-NLS-1$
+        + "<trk><name>Evening</name>" //$NON-NLS-1$
+        + "<trkseg><trkpt lat=\"48.3\" lon=\"11.7\">" //$NON-NLS-1$
+        + "<time>2008-05-01T18:00:00Z</time></trkpt></trkseg></trk>" //$NON-NLS-1$
+        + "</gpx>"; //$NON-NLS-1$
+    InputStream stream = new ByteArrayInputStream(gpx.getBytes("UTF-8")); //$NON-NLS-1$
+    List<TrackSegment> segments = GpxStreamReader.read(stream);
+    stream.close();
+    assertNotNull(segments);
+    assertEquals(3, segments.size());
+    TrackInfo morning = segments.get(0).getTrack();
+    assertNotNull(morning);
+    assertSame(morning, segments.get(1).getTrack());
+    assertEquals("Morning", morning.getName()); //$NON-NLS-1$
+    assertEquals("Walk", morning.getDescription()); //$NON-NLS-1$
+    assertNull(morning.getComment());
+    assertEquals(1, morning.getNumber().intValue());
+    TrackInfo evening = segments.get(2).getTrack();
+    assertNotSame(morning, evening);
+    assertEquals("Evening", evening.getName()); //$NON-NLS-1$
+    assertEquals("Evening", evening.toTrk(new ObjectFactory()).getName()); //$NON-NLS-1$
   }
-}  
+}
@@ -46,16 +46,34 @@ public final class BoundsTypeUtil {
    */
   public static double pixelDistance(Trkpt point1, Trkpt point2,
       BoundsType mapBounds, int mapWidth, int mapHeight) {
+    return pixelDistance(point1.getLat().doubleValue(), point1.getLon()
+        .doubleValue(), point2.getLat().doubleValue(), point2.getLon()
+        .doubleValue(), mapBounds, mapWidth, mapHeight);
+  }
+
+  /**
+   * @param latitude1
+   * @param longitude1
+   * @param latitude2
+   * @param longitude2
+   * @param mapBounds
+   * @param mapWidth
+   *          in pixels
+   * @param mapHeight
+   *          in pixels
+   * @return the distance in pixels the points would have on (or off) the map
+   */
+  public static double pixelDistance(double latitude1, double longitude1,
+      double latitude2, double longitude2, BoundsType mapBounds, int mapWidth,
+      int mapHeight) {
     double mapLatitudeRange = mapBounds.getMaxlat().doubleValue()
         - mapBounds.getMinlat().doubleValue();
     double mapLongitudeRange = mapBounds.getMaxlon().doubleValue()
         - mapBounds.getMinlon().doubleValue();
     double pixelsPerDegreeLatitude = mapHeight / mapLatitudeRange;
     double pixelsPerDegreeLongitude = mapWidth / mapLongitudeRange;
-    double latitudeDistance = Math.abs(point1.getLat().doubleValue()
-        - point2.getLat().doubleValue());
-    double longitudeDistance = Math.abs(point1.getLon().doubleValue()
-        - point2.getLon().doubleValue());
+    double latitudeDistance = Math.abs(latitude1 - latitude2);
+    double longitudeDistance = Math.abs(longitude1 - longitude2);
     double latitudePixelDistance = latitudeDistance * pixelsPerDegreeLatitude;
     double longitudePixelDistance = longitudeDistance
         * pixelsPerDegreeLongitude;
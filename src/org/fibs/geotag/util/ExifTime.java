@@ -0,0 +1,220 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Converts between EXIF date strings (yyyy:MM:dd HH:mm:ss) and milliseconds
+ * since 1970 without time zone - the strings are always treated as GMT. This
+ * is done by simple arithmetic, so unlike {@link SimpleDateFormat} it is fast
+ * and thread safe. Only unusual strings are handed to a
+ * {@link SimpleDateFormat}.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class ExifTime {
+
+  /**
+   * hide constructor.
+   */
+  private ExifTime() {
+    // hide constructor
+  }
+
+  /** The value used for an unknown time. */
+  public static final long NO_TIME = Long.MIN_VALUE;
+
+  /** The date format pattern used. */
+  public static final String PATTERN = "yyyy:MM:dd HH:mm:ss"; //$NON-NLS-1$
+
+  /** Seconds per minute. */
+  private static final int SECONDS_PER_MINUTE = 60;
+
+  /** Seconds per hour. */
+  private static final int SECONDS_PER_HOUR = 60 * SECONDS_PER_MINUTE;
+
+  /** Milliseconds per day. */
+  private static final long MILLIS_PER_DAY = 24L * SECONDS_PER_HOUR
+      * Constants.ONE_SECOND_IN_MILLIS;
+
+  /** Days from 0000-03-01 to 1970-01-01. */
+  private static final int EPOCH_DAY_OFFSET = 719468;
+
+  /** The days in a 400 year cycle. */
+  private static final int DAYS_PER_ERA = 146097;
+
+  /** The years in a cycle. */
+  private static final int YEARS_PER_ERA = 400;
+
+  /** Date formats for strings not in the standard format, one per thread. */
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      SimpleDateFormat dateFormat = new SimpleDateFormat(PATTERN);
+      dateFormat.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+      return dateFormat;
+    }
+  };
+
+  /**
+   * Parse an EXIF date string. Like {@link SimpleDateFormat} anything after
+   * the seconds is ignored.
+   *
+   * @param dateString
+   * @return The milliseconds since 1970 or {@link #NO_TIME} if the string
+   *         can't be parsed
+   */
+  public static long parse(String dateString) {
+    if (dateString == null) {
+      return NO_TIME;
+    }
+    final int length = 19;
+    if (dateString.length() >= length && dateString.charAt(4) == ':'
+        && dateString.charAt(7) == ':' && dateString.charAt(10) == ' '
+        && dateString.charAt(13) == ':' && dateString.charAt(16) == ':') {
+      int year = digits(dateString, 0, 4);
+      int month = digits(dateString, 5, 2);
+      int day = digits(dateString, 8, 2);
+      int hours = digits(dateString, 11, 2);
+      int minutes = digits(dateString, 14, 2);
+      int seconds = digits(dateString, 17, 2);
+      final int monthsPerYear = 12;
+      if (year >= 0 && month >= 1 && month <= monthsPerYear && day >= 0
+          && hours >= 0 && minutes >= 0 && seconds >= 0) {
+        // out of range days, hours etc. simply roll over, like they do
+        // with a lenient SimpleDateFormat
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+            + (hours * SECONDS_PER_HOUR + minutes * SECONDS_PER_MINUTE + seconds)
+            * Constants.ONE_SECOND_IN_MILLIS;
+      }
+    }
+    try {
+      return DATE_FORMAT.get().parse(dateString).getTime();
+    } catch (ParseException e) {
+      return NO_TIME;
+    }
+  }
+
+  /**
+   * Format a time as EXIF date string.
+   *
+   * @param time
+   *          The milliseconds since 1970
+   * @return The date string
+   */
+  public static String format(long time) {
+    long days = time / MILLIS_PER_DAY;
+    long millis = time % MILLIS_PER_DAY;
+    if (millis < 0) {
+      days--;
+      millis += MILLIS_PER_DAY;
+    }
+    int secondOfDay = (int) (millis / Constants.ONE_SECOND_IN_MILLIS);
+    // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+    long shifted = days + EPOCH_DAY_OFFSET;
+    long era = (shifted >= 0 ? shifted : shifted - (DAYS_PER_ERA - 1))
+        / DAYS_PER_ERA;
+    int dayOfEra = (int) (shifted - era * DAYS_PER_ERA);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra
+        / (DAYS_PER_ERA - 1)) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int monthIndex = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+    int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+    long year = yearOfEra + era * YEARS_PER_ERA + (month <= 2 ? 1 : 0);
+    int seconds = secondOfDay % SECONDS_PER_MINUTE;
+    int minutes = secondOfDay % SECONDS_PER_HOUR / SECONDS_PER_MINUTE;
+    int hours = secondOfDay / SECONDS_PER_HOUR;
+    StringBuilder builder = new StringBuilder(PATTERN.length());
+    final int yearDigits = 4;
+    append(builder, year, yearDigits);
+    builder.append(':');
+    append(builder, month, 2);
+    builder.append(':');
+    append(builder, day, 2);
+    builder.append(' ');
+    append(builder, hours, 2);
+    builder.append(':');
+    append(builder, minutes, 2);
+    builder.append(':');
+    append(builder, seconds, 2);
+    return builder.toString();
+  }
+
+  /**
+   * @param year
+   * @param month
+   *          1 to 12
+   * @param day
+   * @return The days since 1970-01-01
+   */
+  private static long daysFromCivil(int year, int month, int day) {
+    // see http://howardhinnant.github.io/date_algorithms.html
+    int shiftedYear = month <= 2 ? year - 1 : year;
+    int era = (shiftedYear >= 0 ? shiftedYear : shiftedYear
+        - (YEARS_PER_ERA - 1))
+        / YEARS_PER_ERA;
+    int yearOfEra = shiftedYear - era * YEARS_PER_ERA;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day
+        - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+        + dayOfYear;
+    return (long) era * DAYS_PER_ERA + dayOfEra - EPOCH_DAY_OFFSET;
+  }
+
+  /**
+   * @param string
+   * @param start
+   * @param count
+   * @return The value of the digits or -1 if there is a character that's not
+   *         a digit
+   */
+  private static int digits(String string, int start, int count) {
+    int value = 0;
+    final int ten = 10;
+    for (int index = start; index < start + count; index++) {
+      char digit = string.charAt(index);
+      if (digit < '0' || digit > '9') {
+        return -1;
+      }
+      value = value * ten + digit - '0';
+    }
+    return value;
+  }
+
+  /**
+   * Append a number with leading zeros.
+   *
+   * @param builder
+   * @param value
+   * @param width
+   *          The minimum number of digits
+   */
+  private static void append(StringBuilder builder, long value, int width) {
+    String digits = Long.toString(value);
+    for (int index = digits.length(); index < width; index++) {
+      builder.append('0');
+    }
+    builder.append(digits);
+  }
+}
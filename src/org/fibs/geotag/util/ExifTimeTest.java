@@ -0,0 +1,58 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fibs.geotag.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Andreas Schneider
+ *
+ */
+public class ExifTimeTest extends TestCase {
+
+  /**
+   * Compare with the results of a {@link SimpleDateFormat}.
+   * 
+   * @throws ParseException
+   */
+  @SuppressWarnings("nls")
+  public void testParseAndFormat() throws ParseException {
+    SimpleDateFormat dateFormat = new SimpleDateFormat(ExifTime.PATTERN);
+    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    Random random = new Random(1);
+    // 1970 to about 2100
+    final long range = 4100000000000L;
+    for (int test = 0; test < 10000; test++) {
+      long time = (long) (random.nextDouble() * range) / 1000 * 1000;
+      String expected = dateFormat.format(new java.util.Date(time));
+      assertEquals(expected, ExifTime.format(time));
+      assertEquals(time, ExifTime.parse(expected));
+    }
+    assertEquals("2000:02:29 23:59:59", ExifTime.format(ExifTime
+        .parse("2000:02:29 23:59:59")));
+    assertEquals(dateFormat.parse("2009:02:31 12:00:00").getTime(), ExifTime
+        .parse("2009:02:31 12:00:00+01:00"));
+    assertEquals(ExifTime.NO_TIME, ExifTime.parse("no date"));
+    assertEquals(ExifTime.NO_TIME, ExifTime.parse(null));
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import com.google.earth.kml._2.KmlType;
+import com.topografix.gpx._1._0.Gpx;
+import com.topografix.gpx._1._1.GpxType;
+
+/**
+ * Creating a {@link JAXBContext} is very expensive, so this class creates one
+ * context per package and keeps it for the lifetime of the program. The
+ * contexts are thread safe, but {@link Marshaller}s and {@link Unmarshaller}s
+ * are not - those are pooled instead: get one with
+ * {@link #acquireMarshaller(String, String)} or
+ * {@link #acquireUnmarshaller(String)} and hand it back with
+ * {@link #release(String, String, Marshaller)} or
+ * {@link #release(String, Unmarshaller)} when done.
+ *
+ * @author Andreas Schneider
+ *
+ */
+public final class JaxbRegistry {
+
+  /**
+   * hide constructor.
+   */
+  private JaxbRegistry() {
+    // hide constructor
+  }
+
+  /** The context path for GPX 1.0. */
+  public static final String GPX_1_0 = Gpx.class.getPackage().getName();
+
+  /** The context path for GPX 1.1. */
+  public static final String GPX_1_1 = GpxType.class.getPackage().getName();
+
+  /** The context path for KML. */
+  public static final String KML = KmlType.class.getPackage().getName();
+
+  /** The maximum number of idle marshallers or unmarshallers kept per pool. */
+  private static final int MAX_POOL_SIZE = 4;
+
+  /** The contexts created so far, by context path. */
+  private static ConcurrentMap<String, JAXBContext> contexts = new ConcurrentHashMap<String, JAXBContext>();
+
+  /** Idle marshallers, by context path and schema location. */
+  private static ConcurrentMap<String, Queue<Marshaller>> marshallers = new ConcurrentHashMap<String, Queue<Marshaller>>();
+
+  /** Idle unmarshallers, by context path. */
+  private static ConcurrentMap<String, Queue<Unmarshaller>> unmarshallers = new ConcurrentHashMap<String, Queue<Unmarshaller>>();
+
+  /**
+   * Get the context for a context path, creating it if necessary.
+   *
+   * @param contextPath
+   *          The package name of the generated classes
+   * @return The context
+   * @throws JAXBException
+   */
+  public static JAXBContext getContext(String contextPath)
+      throws JAXBException {
+    JAXBContext context = contexts.get(contextPath);
+    if (context == null) {
+      // creating a context takes a while - make sure we only do it once
+      synchronized (contexts) {
+        context = contexts.get(contextPath);
+        if (context == null) {
+          context = JAXBContext.newInstance(contextPath);
+          contexts.put(contextPath, context);
+        }
+      }
+    }
+    return context;
+  }
+
+  /**
+   * Get a marshaller producing formatted output.
+   *
+   * @param contextPath
+   *          The package name of the generated classes
+   * @param schemaLocation
+   *          The value for the jaxb.schemaLocation property or null
+   * @return A marshaller that must be handed back with
+   *         {@link #release(String, String, Marshaller)}
+   * @throws JAXBException
+   */
+  public static Marshaller acquireMarshaller(String contextPath,
+      String schemaLocation) throws JAXBException {
+    Marshaller marshaller = getQueue(marshallers,
+        marshallerKey(contextPath, schemaLocation)).poll();
+    if (marshaller == null) {
+      marshaller = getContext(contextPath).createMarshaller();
+      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+      if (schemaLocation != null) {
+        marshaller.setProperty(Marshaller.JAXB_SCHEMA_LOCATION,
+            schemaLocation);
+      }
+    }
+    return marshaller;
+  }
+
+  /**
+   * Hand back a marshaller obtained from
+   * {@link #acquireMarshaller(String, String)}.
+   *
+   * @param contextPath
+   * @param schemaLocation
+   * @param marshaller
+   */
+  public static void release(String contextPath, String schemaLocation,
+      Marshaller marshaller) {
+    Queue<Marshaller> queue = getQueue(marshallers, marshallerKey(
+        contextPath, schemaLocation));
+    // the size is only a rough limit, that's good enough
+    if (queue.size() < MAX_POOL_SIZE) {
+      queue.add(marshaller);
+    }
+  }
+
+  /**
+   * Get an unmarshaller.
+   *
+   * @param contextPath
+   *          The package name of the generated classes
+   * @return An unmarshaller that must be handed back with
+   *         {@link #release(String, Unmarshaller)}
+   * @throws JAXBException
+   */
+  public static Unmarshaller acquireUnmarshaller(String contextPath)
+      throws JAXBException {
+    Unmarshaller unmarshaller = getQueue(unmarshallers, contextPath).poll();
+    if (unmarshaller == null) {
+      unmarshaller = getContext(contextPath).createUnmarshaller();
+    }
+    return unmarshaller;
+  }
+
+  /**
+   * Hand back an unmarshaller obtained from
+   * {@link #acquireUnmarshaller(String)}.
+   *
+   * @param contextPath
+   * @param unmarshaller
+   */
+  public static void release(String contextPath, Unmarshaller unmarshaller) {
+    Queue<Unmarshaller> queue = getQueue(unmarshallers, contextPath);
+    if (queue.size() < MAX_POOL_SIZE) {
+      queue.add(unmarshaller);
+    }
+  }
+
+  /**
+   * Create the contexts for GPX and KML in a background thread, so they are
+   * ready when first needed.
+   */
+  public static void warmUp() {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (String contextPath : new String[] { GPX_1_0, GPX_1_1, KML }) {
+          try {
+            getContext(contextPath);
+          } catch (JAXBException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }, "JAXB warm-up"); //$NON-NLS-1$
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * @param contextPath
+   * @param schemaLocation
+   * @return The key for the marshaller pool
+   */
+  private static String marshallerKey(String contextPath, String schemaLocation) {
+    if (schemaLocation == null) {
+      return contextPath;
+    }
+    return contextPath + ' ' + schemaLocation;
+  }
+
+  /**
+   * @param <T>
+   * @param pools
+   * @param key
+   * @return The pool for the key - created if necessary
+   */
+  private static <T> Queue<T> getQueue(ConcurrentMap<String, Queue<T>> pools,
+      String key) {
+    Queue<T> queue = pools.get(key);
+    if (queue == null) {
+      queue = new ConcurrentLinkedQueue<T>();
+      Queue<T> existing = pools.putIfAbsent(key, queue);
+      if (existing != null) {
+        queue = existing;
+      }
+    }
+    return queue;
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TimeZone;
+
+import org.fibs.geotag.util.Constants;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+/**
+ * Content that never changes while the program runs, kept in memory together
+ * with its gzip compressed version. Browsers get an ETag and a Last-Modified
+ * date, so they only need to ask if their copy is still valid.
+ * 
+ * @author Andreas Schneider
+ * 
+ */
+public class CachedResource {
+
+  /** The time the resources were created - the program start time. */
+  private static final long CREATION_TIME = System.currentTimeMillis()
+      / Constants.ONE_SECOND_IN_MILLIS * Constants.ONE_SECOND_IN_MILLIS;
+
+  /** The Last-Modified date of all resources. */
+  private static final String LAST_MODIFIED;
+  static {
+    SimpleDateFormat dateFormat = new SimpleDateFormat(
+        "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US); //$NON-NLS-1$
+    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+    LAST_MODIFIED = dateFormat.format(new Date(CREATION_TIME));
+  }
+
+  /** The MIME type of the content. */
+  private final String mimeType;
+
+  /** The content. */
+  private final byte[] content;
+
+  /** The gzip compressed content or null if compressing doesn't help. */
+  private final byte[] gzippedContent;
+
+  /** The ETag of the content. */
+  private final String etag;
+
+  /**
+   * @param mimeType
+   *          The MIME type of the content
+   * @param content
+   *          The content - it must not be changed afterwards
+   */
+  public CachedResource(String mimeType, byte[] content) {
+    this.mimeType = mimeType;
+    this.content = content;
+    byte[] gzipped = WebServer.gzip(content);
+    // not worth it for images etc. that are already compressed
+    final double minimumSaving = 0.9;
+    if (gzipped != null && gzipped.length < content.length * minimumSaving) {
+      gzippedContent = gzipped;
+    } else {
+      gzippedContent = null;
+    }
+    etag = "\"" + Long.toString(CREATION_TIME, Character.MAX_RADIX) + '-' //$NON-NLS-1$
+        + Integer.toHexString(Arrays.hashCode(content)) + '-'
+        + content.length + '"';
+  }
+
+  /**
+   * Create the response for a request.
+   * 
+   * @param server
+   * @param header
+   *          The request header
+   * @return The response - 304 Not Modified if the browser's copy is still
+   *         valid
+   */
+  public Response createResponse(WebServer server, Properties header) {
+    Response response;
+    String ifNoneMatch = header.getProperty("if-none-match"); //$NON-NLS-1$
+    String ifModifiedSince = header.getProperty("if-modified-since"); //$NON-NLS-1$
+    // the ETag is more reliable than the date, so that is checked first
+    boolean notModified = ifNoneMatch != null ? etag.equals(ifNoneMatch)
+        : LAST_MODIFIED.equals(ifModifiedSince);
+    if (notModified) {
+      response = server.new Response(NanoHTTPD.HTTP_NOT_MODIFIED, null,
+          (InputStream) null);
+    } else if (gzippedContent != null && WebServer.acceptsGzip(header)) {
+      response = server.new Response(NanoHTTPD.HTTP_OK, mimeType,
+          new ByteArrayInputStream(gzippedContent));
+      response.addHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+    } else {
+      response = server.new Response(NanoHTTPD.HTTP_OK, mimeType,
+          new ByteArrayInputStream(content));
+    }
+    response.addHeader("ETag", etag); //$NON-NLS-1$
+    response.addHeader("Last-Modified", LAST_MODIFIED); //$NON-NLS-1$
+    if (gzippedContent != null) {
+      response.addHeader("Vary", "Accept-Encoding"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    // check with us every time, the answer is cheap
+    response.addHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+    return response;
+  }
+}
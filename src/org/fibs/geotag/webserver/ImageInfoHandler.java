@@ -18,6 +18,11 @@
 
 package org.fibs.geotag.webserver;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Properties;
 import java.util.StringTokenizer;
@@ -33,13 +38,41 @@ import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.NanoHTTPD.Response;
 
 /**
- * send information about an image back to the Geotag Javascript.
+ * send information about images back to the Geotag Javascript as JSON. The
+ * images are either given by the selection parameter - the ID of a selection
+ * registered with {@link WebServer#registerSelection(int[])} - or by their
+ * IDs (the ids parameter, meant for a few images only), or they are the
+ * images with a location within the bounds given by the south, west, north
+ * and east parameters - or both. Images without location are treated as
+ * being where the map was shown last. The response is split into pages,
+ * selected with the offset and limit parameters. The first page also has the
+ * bounds of all given images.<br>
+ * The sequence numbers of the images in a selection are requested from
+ * <code>selection.json</code>.
  * 
  * @author Andreas Schneider
  * 
  */
 public class ImageInfoHandler implements ContextHandler {
 
+  /** The URI listing the images of a selection. */
+  private static final String SELECTION_URI = "/selection.json"; //$NON-NLS-1$
+
+  /** The maximum number of images sent in one response. */
+  private static final int PAGE_SIZE = 1000;
+
+  /** Index of the southern bound in bounds arrays. */
+  private static final int SOUTH = 0;
+
+  /** Index of the western bound in bounds arrays. */
+  private static final int WEST = 1;
+
+  /** Index of the northern bound in bounds arrays. */
+  private static final int NORTH = 2;
+
+  /** Index of the eastern bound in bounds arrays. */
+  private static final int EAST = 3;
+
   /**
    * @see org.fibs.geotag.webserver.ContextHandler#serve(org.fibs.geotag.webserver.WebServer,
    *      java.lang.String, java.lang.String, java.util.Properties,
@@ -49,42 +82,194 @@ public class ImageInfoHandler implements ContextHandler {
   public Response serve(WebServer server, String uri, String method,
       Properties header, Properties parms) {
     int[] imageIDs = null;
+    int selectionID = -1;
+    double[] bounds = new double[] { Double.NaN, Double.NaN, Double.NaN,
+        Double.NaN };
+    int offset = 0;
+    int limit = PAGE_SIZE;
     Enumeration<Object> parameters = parms.keys();
     while (parameters.hasMoreElements()) {
       String parameter = (String) parameters.nextElement();
       String value = parms.getProperty(parameter);
-      if (parameter.equals("ids")) { //$NON-NLS-1$
+      if (parameter.equals("selection")) { //$NON-NLS-1$
+        selectionID = Integer.parseInt(value.trim());
+      } else if (parameter.equals("ids")) { //$NON-NLS-1$
         StringTokenizer tokenizer = new StringTokenizer(value, ","); //$NON-NLS-1$
         imageIDs = new int[tokenizer.countTokens()];
         for (int index = 0; index < imageIDs.length; index++) {
-          imageIDs[index] = Integer.parseInt(tokenizer.nextToken());
+          imageIDs[index] = Integer.parseInt(tokenizer.nextToken().trim());
         }
+      } else if (parameter.equals("south")) { //$NON-NLS-1$
+        bounds[SOUTH] = Double.parseDouble(value);
+      } else if (parameter.equals("west")) { //$NON-NLS-1$
+        bounds[WEST] = Double.parseDouble(value);
+      } else if (parameter.equals("north")) { //$NON-NLS-1$
+        bounds[NORTH] = Double.parseDouble(value);
+      } else if (parameter.equals("east")) { //$NON-NLS-1$
+        bounds[EAST] = Double.parseDouble(value);
+      } else if (parameter.equals("offset")) { //$NON-NLS-1$
+        offset = Math.max(0, Integer.parseInt(value));
+      } else if (parameter.equals("limit")) { //$NON-NLS-1$
+        limit = Math.max(1, Math.min(PAGE_SIZE, Integer.parseInt(value)));
+      }
+    }
+    ImageSelection selection = null;
+    if (selectionID >= 0) {
+      selection = WebServer.getSelection(selectionID);
+      if (selection == null) {
+        return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
+            NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
+      }
+    } else if (imageIDs != null) {
+      selection = new ImageSelection(imageIDs);
+    }
+    if (SELECTION_URI.equals(uri)) {
+      if (selection == null) {
+        return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
+            NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
       }
+      final int[] selected = selection.getImageIDs();
+      return server.streamResponse(WebServer.JSON_MIME_TYPE, header,
+          new NanoHTTPD.ContentWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+              writeImageIDs(selected, out);
+            }
+          });
     }
-    if (imageIDs != null) {
-      // now that we have segments, create a response
-      return server.xmlResponse(imageInfoToXml(imageIDs));
+    boolean hasBounds = !Double.isNaN(bounds[SOUTH])
+        && !Double.isNaN(bounds[WEST]) && !Double.isNaN(bounds[NORTH])
+        && !Double.isNaN(bounds[EAST]);
+    if (selection == null && !hasBounds) {
+      return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
+          NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
     }
-    return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
-        NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
+    // images without location are shown where the map was last time
+    final double defaultLatitude = parseNumber(Settings.get(
+        SETTING.LAST_GOOGLE_MAPS_LATITUDE, null), Airy.LATITUDE);
+    final double defaultLongitude = parseNumber(Settings.get(
+        SETTING.LAST_GOOGLE_MAPS_LONGITUDE, null), Airy.LONGITUDE);
+    ImageLocationIndex index = ImageLocationIndex.getIndex();
+    int[] found;
+    if (selection == null) {
+      found = index.search(bounds[SOUTH], bounds[WEST], bounds[NORTH],
+          bounds[EAST]);
+    } else if (hasBounds) {
+      found = selection.getVisible(index, bounds, isWithin(bounds,
+          defaultLatitude, defaultLongitude));
+    } else {
+      found = selection.getImageIDs();
+    }
+    // the map needs the bounds of all given images to show them all - it
+    // only needs them once
+    final double[] imageBounds = selection == null || offset > 0 ? null
+        : selection.getBounds(index, defaultLatitude, defaultLongitude);
+    final int total = found.length;
+    int from = Math.min(offset, total);
+    int to = (int) Math.min((long) from + limit, total);
+    final int next = to < total ? to : -1;
+    final int[] page = Arrays.copyOfRange(found, from, to);
+    return server.streamResponse(WebServer.JSON_MIME_TYPE, header,
+        new NanoHTTPD.ContentWriter() {
+          @Override
+          public void writeTo(OutputStream out) throws IOException {
+            writeImageInfos(page, total, next, imageBounds, defaultLatitude,
+                defaultLongitude, out);
+          }
+        });
   }
 
   /**
-   * Assemble XML for a list of images.
+   * @param bounds
+   * @param latitude
+   * @param longitude
+   * @return True if the position is within the bounds - if west is greater
+   *         than east, the bounds cross the 180th meridian
+   */
+  private static boolean isWithin(double[] bounds, double latitude,
+      double longitude) {
+    if (latitude < bounds[SOUTH] || latitude > bounds[NORTH]) {
+      return false;
+    }
+    if (bounds[WEST] <= bounds[EAST]) {
+      return longitude >= bounds[WEST] && longitude <= bounds[EAST];
+    }
+    return longitude >= bounds[WEST] || longitude <= bounds[EAST];
+  }
+
+  /**
+   * Write the sequence numbers of the images in a selection as JSON.
    * 
    * @param imageIDs
-   *          The IDs of the images
-   * @return The XML sent back to Javascript as a String
+   *          The sequence numbers
+   * @param out
+   *          The stream to write to
+   * @throws IOException
    */
-  private String imageInfoToXml(int[] imageIDs) {
-    StringBuilder stringBuilder = new StringBuilder();
-    stringBuilder.append("<images>\n"); //$NON-NLS-1$
+  private void writeImageIDs(int[] imageIDs, OutputStream out)
+      throws IOException {
+    Writer writer = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+    writer.write("{\"ids\":["); //$NON-NLS-1$
+    for (int index = 0; index < imageIDs.length; index++) {
+      if (index > 0) {
+        writer.write(',');
+      }
+      writer.write(Integer.toString(imageIDs[index]));
+    }
+    writer.write("]}"); //$NON-NLS-1$
+    writer.close();
+  }
+
+  /**
+   * Write information about a page of images as JSON.
+   * 
+   * @param imageIDs
+   *          The IDs of the images on the page
+   * @param total
+   *          The number of images on all pages
+   * @param next
+   *          The offset of the next page or -1 if this is the last page
+   * @param bounds
+   *          The bounds of all images or null
+   * @param defaultLatitude
+   *          The latitude of images without location
+   * @param defaultLongitude
+   *          The longitude of images without location
+   * @param out
+   *          The stream to write to
+   * @throws IOException
+   */
+  private void writeImageInfos(int[] imageIDs, int total, int next,
+      double[] bounds, double defaultLatitude, double defaultLongitude,
+      OutputStream out) throws IOException {
+    Writer writer = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+    writer.write("{\"total\":"); //$NON-NLS-1$
+    writer.write(Integer.toString(total));
+    writer.write(",\"next\":"); //$NON-NLS-1$
+    writer.write(Integer.toString(next));
+    if (bounds != null) {
+      writer.write(",\"bounds\":["); //$NON-NLS-1$
+      for (int index = 0; index < bounds.length; index++) {
+        if (index > 0) {
+          writer.write(',');
+        }
+        writer.write(Double.toString(bounds[index]));
+      }
+      writer.write(']');
+    }
+    writer.write(",\"images\":["); //$NON-NLS-1$
+    boolean first = true;
     for (int index = 0; index < imageIDs.length; index++) {
       ImageInfo imageInfo = ImageInfo.getImageInfo(imageIDs[index]);
       if (imageInfo != null) {
-        stringBuilder.append(" <image id=\"" + imageInfo.getSequenceNumber() //$NON-NLS-1$
-            + "\""); //$NON-NLS-1$
-        stringBuilder.append(" name=\"" + imageInfo.getName() + "\""); //$NON-NLS-1$ //$NON-NLS-2$
+        if (!first) {
+          writer.write(',');
+        }
+        first = false;
+        writer.write("{\"id\":"); //$NON-NLS-1$
+        writer.write(Integer.toString(imageInfo.getSequenceNumber()));
+        writer.write(",\"name\":"); //$NON-NLS-1$
+        WebServer.writeJsonString(writer, imageInfo.getName());
         int width = 0;
         int height = 0;
         ImageIcon thumbnail = imageInfo.getThumbnail();
@@ -92,30 +277,53 @@ public class ImageInfoHandler implements ContextHandler {
           width = thumbnail.getIconWidth();
           height = thumbnail.getIconHeight();
         }
-        stringBuilder.append(" width=\"" + width + "\""); //$NON-NLS-1$ //$NON-NLS-2$
-        stringBuilder.append(" height=\"" + height + "\""); //$NON-NLS-1$ //$NON-NLS-2$
-        String latitude = Double.toString(Airy.LATITUDE);
-        String longitude = Double.toString(Airy.LONGITUDE);
-        latitude = Settings.get(SETTING.LAST_GOOGLE_MAPS_LATITUDE, latitude);
-        longitude = Settings.get(SETTING.LAST_GOOGLE_MAPS_LONGITUDE, longitude);
-        if (imageInfo.getGpsLatitude() != null
-            && imageInfo.getGpsLongitude() != null) {
-          latitude = imageInfo.getGpsLatitude();
-          longitude = imageInfo.getGpsLongitude();
+        writer.write(",\"width\":"); //$NON-NLS-1$
+        writer.write(Integer.toString(width));
+        writer.write(",\"height\":"); //$NON-NLS-1$
+        writer.write(Integer.toString(height));
+        double latitude = imageInfo.getLatitude();
+        double longitude = imageInfo.getLongitude();
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+          latitude = defaultLatitude;
+          longitude = defaultLongitude;
+        }
+        writer.write(",\"latitude\":"); //$NON-NLS-1$
+        writer.write(Double.toString(latitude));
+        writer.write(",\"longitude\":"); //$NON-NLS-1$
+        writer.write(Double.toString(longitude));
+        // -1 indicates 'no direction'
+        double direction = imageInfo.getDirection();
+        if (Double.isNaN(direction)) {
+          direction = -1;
         }
-        stringBuilder.append(" latitude=\"" + latitude + "\""); //$NON-NLS-1$ //$NON-NLS-2$
-        stringBuilder.append(" longitude=\"" + longitude + "\""); //$NON-NLS-1$ //$NON-NLS-2$
-        String direction = "-1.0"; // indicates 'no direction' //$NON-NLS-1$
-        if (imageInfo.getGpsImgDirection() != null) {
-          direction = imageInfo.getGpsImgDirection();
+        writer.write(",\"direction\":"); //$NON-NLS-1$
+        writer.write(Double.toString(direction));
+        writer.write('}');
+      }
+    }
+    writer.write("]}"); //$NON-NLS-1$
+    writer.close();
+  }
+
+  /**
+   * @param value
+   *          A coordinate as String - can be null
+   * @param defaultValue
+   * @return The value as double or the default value if it can't be parsed
+   */
+  private static double parseNumber(String value, double defaultValue) {
+    if (value != null) {
+      try {
+        double number = Double.parseDouble(value);
+        // JSON has no representation for these
+        if (!Double.isNaN(number) && !Double.isInfinite(number)) {
+          return number;
         }
-        stringBuilder.append(" direction=\"" + direction + "\""); //$NON-NLS-1$ //$NON-NLS-2$
-        stringBuilder.append(" />\n"); //$NON-NLS-1$
+      } catch (NumberFormatException e) {
+        // use the default
       }
     }
-    stringBuilder.append("</images>"); //$NON-NLS-1$
-    // System.out.println(stringBuilder.toString());
-    return stringBuilder.toString();
+    return defaultValue;
   }
 
 }
@@ -0,0 +1,164 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.webserver;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.fibs.geotag.data.ImageInfo;
+import org.fibs.geotag.track.SpatialIndex;
+
+/**
+ * An index of the images with a location, used to find the images on the
+ * visible part of a map. The index never changes - a new one is created when
+ * the location of an image has changed. Only the sequence numbers of the
+ * images are kept, so images no longer used can still be garbage collected.
+ *
+ * @author Andreas Schneider
+ *
+ */
+final class ImageLocationIndex {
+
+  /** The index created last. */
+  private static volatile ImageLocationIndex current = null;
+
+  /** The location generation of the images the index was created for. */
+  private final int generation;
+
+  /** The sequence numbers of the images with a location, ascending. */
+  private final int[] sequenceNumbers;
+
+  /** The latitudes of the images. */
+  private final double[] latitudes;
+
+  /** The longitudes of the images. */
+  private final double[] longitudes;
+
+  /** Finds the images within given bounds. */
+  private final SpatialIndex spatialIndex;
+
+  /**
+   * Create an index of the current image locations.
+   *
+   * @param generation
+   *          The location generation before the locations were looked at
+   */
+  private ImageLocationIndex(int generation) {
+    this.generation = generation;
+    // the images come in the order they were created, so the sequence
+    // numbers are ascending
+    List<ImageInfo> imageInfos = ImageInfo
+        .getImagesInfos(new ImageInfo.Filter() {
+          @Override
+          public boolean accept(ImageInfo imageInfo) {
+            return !Double.isNaN(imageInfo.getLatitude())
+                && !Double.isNaN(imageInfo.getLongitude());
+          }
+        });
+    int count = imageInfos.size();
+    sequenceNumbers = new int[count];
+    latitudes = new double[count];
+    longitudes = new double[count];
+    for (int index = 0; index < count; index++) {
+      ImageInfo imageInfo = imageInfos.get(index);
+      sequenceNumbers[index] = imageInfo.getSequenceNumber();
+      latitudes[index] = imageInfo.getLatitude();
+      longitudes[index] = imageInfo.getLongitude();
+    }
+    spatialIndex = new SpatialIndex(latitudes, longitudes, latitudes,
+        longitudes);
+  }
+
+  /**
+   * @return An index of the current image locations
+   */
+  static ImageLocationIndex getIndex() {
+    int generation = ImageInfo.getLocationGeneration();
+    ImageLocationIndex index = current;
+    if (index == null || index.generation != generation) {
+      // creating the index takes a while - make sure we only do it once
+      synchronized (ImageLocationIndex.class) {
+        index = current;
+        if (index == null || index.generation != generation) {
+          index = new ImageLocationIndex(generation);
+          current = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Find the images within given bounds. If west is greater than east, the
+   * bounds cross the 180th meridian.
+   *
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return The sequence numbers of the images in ascending order
+   */
+  int[] search(double south, double west, double north, double east) {
+    int[] found;
+    if (west <= east) {
+      found = spatialIndex.search(south, west, north, east);
+    } else {
+      // search both sides of the 180th meridian - no image is on both
+      final double maxLongitude = 180;
+      int[] western = spatialIndex.search(south, west, north, maxLongitude);
+      int[] eastern = spatialIndex.search(south, -maxLongitude, north, east);
+      found = Arrays.copyOf(western, western.length + eastern.length);
+      System.arraycopy(eastern, 0, found, western.length, eastern.length);
+      Arrays.sort(found);
+    }
+    // the positions are ascending, and so are the sequence numbers
+    for (int index = 0; index < found.length; index++) {
+      found[index] = sequenceNumbers[found[index]];
+    }
+    return found;
+  }
+
+  /**
+   * @param sequenceNumber
+   * @return The position of the image in the index or -1 if the image has no
+   *         location
+   */
+  int find(int sequenceNumber) {
+    int position = Arrays.binarySearch(sequenceNumbers, sequenceNumber);
+    return position >= 0 ? position : -1;
+  }
+
+  /**
+   * @param position
+   *          The position of an image in the index
+   * @return The latitude of the image
+   */
+  double getLatitude(int position) {
+    return latitudes[position];
+  }
+
+  /**
+   * @param position
+   *          The position of an image in the index
+   * @return The longitude of the image
+   */
+  double getLongitude(int position) {
+    return longitudes[position];
+  }
+}
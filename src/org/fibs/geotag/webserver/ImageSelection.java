@@ -0,0 +1,178 @@
+/**
+ * Geotag
+ * Copyright (C) 2007-2017 Andreas Schneider
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fibs.geotag.webserver;
+
+import java.util.Arrays;
+
+/**
+ * The images shown together on a map, registered with
+ * {@link WebServer#registerSelection(int[])}. The map only sends the ID of the
+ * selection, so the sequence numbers of thousands of images are neither put
+ * in the URL nor parsed again for every request. The bounds of the images and
+ * the images found on the visible part of the map are kept until the image
+ * locations change or the map is moved.
+ *
+ * @author Andreas Schneider
+ *
+ */
+final class ImageSelection {
+
+  /** Index of the southern bound in bounds arrays. */
+  private static final int SOUTH = 0;
+
+  /** Index of the western bound in bounds arrays. */
+  private static final int WEST = 1;
+
+  /** Index of the northern bound in bounds arrays. */
+  private static final int NORTH = 2;
+
+  /** Index of the eastern bound in bounds arrays. */
+  private static final int EAST = 3;
+
+  /** The sequence numbers of the images, in the order they were given. */
+  private final int[] imageIDs;
+
+  /** The location index the bounds were calculated with. */
+  private ImageLocationIndex boundsIndex = null;
+
+  /** The latitude of images without location used for the bounds. */
+  private double boundsLatitude = Double.NaN;
+
+  /** The longitude of images without location used for the bounds. */
+  private double boundsLongitude = Double.NaN;
+
+  /** The bounds of the images - null if there are none. */
+  private double[] bounds = null;
+
+  /** The location index the visible images were found with. */
+  private ImageLocationIndex visibleIndex = null;
+
+  /** The part of the map the visible images were found for. */
+  private double[] visibleArea = null;
+
+  /** If images without location were visible. */
+  private boolean visibleDefault = false;
+
+  /** The images found on the visible part of the map. */
+  private int[] visible = null;
+
+  /**
+   * @param imageIDs
+   *          The sequence numbers of the images
+   */
+  ImageSelection(int[] imageIDs) {
+    this.imageIDs = imageIDs.clone();
+  }
+
+  /**
+   * @return The sequence numbers of the images, in the order they were given
+   */
+  int[] getImageIDs() {
+    return imageIDs;
+  }
+
+  /**
+   * @param index
+   *          The current image locations
+   * @param defaultLatitude
+   *          The latitude of images without location
+   * @param defaultLongitude
+   *          The longitude of images without location
+   * @return The bounds of the images or null if there are none
+   */
+  synchronized double[] getBounds(ImageLocationIndex index,
+      double defaultLatitude, double defaultLongitude) {
+    if (index != boundsIndex || defaultLatitude != boundsLatitude
+        || defaultLongitude != boundsLongitude) {
+      bounds = calculateBounds(index, defaultLatitude, defaultLongitude);
+      boundsIndex = index;
+      boundsLatitude = defaultLatitude;
+      boundsLongitude = defaultLongitude;
+    }
+    return bounds;
+  }
+
+  /**
+   * @param index
+   * @param defaultLatitude
+   * @param defaultLongitude
+   * @return The bounds of the images or null if there are none
+   */
+  private double[] calculateBounds(ImageLocationIndex index,
+      double defaultLatitude, double defaultLongitude) {
+    if (imageIDs.length == 0) {
+      return null;
+    }
+    double[] result = new double[] { Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        Double.NEGATIVE_INFINITY };
+    for (int imageID : imageIDs) {
+      int position = index.find(imageID);
+      double latitude = defaultLatitude;
+      double longitude = defaultLongitude;
+      if (position >= 0) {
+        latitude = index.getLatitude(position);
+        longitude = index.getLongitude(position);
+      }
+      result[SOUTH] = Math.min(result[SOUTH], latitude);
+      result[WEST] = Math.min(result[WEST], longitude);
+      result[NORTH] = Math.max(result[NORTH], latitude);
+      result[EAST] = Math.max(result[EAST], longitude);
+    }
+    return result;
+  }
+
+  /**
+   * Find the images of the selection on the visible part of the map. The
+   * result is kept, as the map asks for it once for every page.
+   *
+   * @param index
+   *          The current image locations
+   * @param area
+   *          The visible part of the map - south, west, north and east
+   * @param defaultVisible
+   *          True if images without location are visible
+   * @return The sequence numbers of the visible images, in the order they
+   *         were given
+   */
+  synchronized int[] getVisible(ImageLocationIndex index, double[] area,
+      boolean defaultVisible) {
+    if (index != visibleIndex || !Arrays.equals(area, visibleArea)
+        || defaultVisible != visibleDefault) {
+      int[] found = index.search(area[SOUTH], area[WEST], area[NORTH],
+          area[EAST]);
+      visible = new int[imageIDs.length];
+      int count = 0;
+      for (int imageID : imageIDs) {
+        boolean isVisible = defaultVisible;
+        if (index.find(imageID) >= 0) {
+          isVisible = Arrays.binarySearch(found, imageID) >= 0;
+        }
+        if (isVisible) {
+          visible[count++] = imageID;
+        }
+      }
+      visible = Arrays.copyOf(visible, count);
+      visibleIndex = index;
+      visibleArea = area.clone();
+      visibleDefault = defaultVisible;
+    }
+    return visible;
+  }
+}
@@ -19,12 +19,13 @@
 package org.fibs.geotag.webserver;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.xnap.commons.i18n.I18n;
 import org.xnap.commons.i18n.I18nFactory;
@@ -35,7 +36,8 @@ import fi.iki.elonen.NanoHTTPD.Response;
 /**
  * A ContextHandler that serves files our Map HTMl/Javascript. It 'includes' the
  * Javascript file in the HTML page. This is ugly, and only done to satisfy
- * Internet Explorer.
+ * Internet Explorer. Each page is assembled once and then kept in memory -
+ * the translated strings don't change while the program is running.
  * 
  * @author Andreas Schneider
  * 
@@ -45,6 +47,9 @@ public class MapHandler implements ContextHandler {
   /** Create i18n support */
   private static final I18n i18n = I18nFactory.getI18n(MapHandler.class);
 
+  /** The pages assembled so far, by URI. */
+  private final ConcurrentMap<String, CachedResource> pages = new ConcurrentHashMap<String, CachedResource>();
+
   /**
    * @see org.fibs.geotag.webserver.ContextHandler#serve(org.fibs.geotag.webserver.WebServer,
    *      java.lang.String, java.lang.String, java.util.Properties,
@@ -54,16 +59,20 @@ public class MapHandler implements ContextHandler {
   public Response serve(WebServer server, String uri, String method,
       Properties header, Properties parms) {
 
-    InputStream stream = createPage(uri);
-    if (stream != null) {
-      Response response = server.new Response(NanoHTTPD.HTTP_OK, server.mimeType(uri),
-          stream);
-      try {
-        stream.close();
-      } catch (IOException e) {
-        e.printStackTrace();
+    CachedResource page = pages.get(uri);
+    if (page == null) {
+      byte[] content = createPageContent(uri);
+      if (content != null) {
+        page = new CachedResource(server.mimeType(uri), content);
+        // if another thread was faster, use its copy
+        CachedResource existing = pages.putIfAbsent(uri, page);
+        if (existing != null) {
+          page = existing;
+        }
       }
-      return response;
+    }
+    if (page != null) {
+      return page.createResponse(server, header);
     }
     return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
         NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
@@ -74,13 +83,16 @@ public class MapHandler implements ContextHandler {
    * files.
    * 
    * @param uri
-   * @return The page as InputStream
+   * @return The assembled page or null if there is no such page
    */
-  public InputStream createPage(String uri) {
+  private byte[] createPageContent(String uri) {
     StringBuilder page = new StringBuilder();
     try {
       InputStream stream = this.getClass().getClassLoader()
           .getResourceAsStream("htdocs" + uri); //$NON-NLS-1$
+      if (stream == null) {
+        return null;
+      }
       BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
           stream));
       String line;
@@ -120,8 +132,7 @@ public class MapHandler implements ContextHandler {
     } catch (IOException e) {
       e.printStackTrace();
     }
-    // convert the page into an InputStream
-    return new ByteArrayInputStream(page.toString().getBytes());
+    return page.toString().getBytes();
   }
 
   @SuppressWarnings("all")
@@ -18,21 +18,31 @@
 
 package org.fibs.geotag.webserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fibs.geotag.util.Constants;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.NanoHTTPD.Response;
 
 /**
- * A ContextHandler that serves files that are jar resources.
+ * A ContextHandler that serves files that are jar resources. The resources
+ * don't change while the program runs, so each one is read only once and
+ * kept in memory.
  * 
  * @author Andreas Schneider
  * 
  */
 public class ResourceHandler implements ContextHandler {
 
+  /** The resources read so far, by URI. */
+  private final ConcurrentMap<String, CachedResource> resources = new ConcurrentHashMap<String, CachedResource>();
+
   /**
    * @see org.fibs.geotag.webserver.ContextHandler#serve(org.fibs.geotag.webserver.WebServer,
    *      java.lang.String, java.lang.String, java.util.Properties,
@@ -41,19 +51,55 @@ public class ResourceHandler implements ContextHandler {
   @Override
   public Response serve(WebServer server, String uri, String method,
       Properties header, Properties parms) {
+    CachedResource resource = resources.get(uri);
+    if (resource == null) {
+      byte[] content = readResource("htdocs" + uri); //$NON-NLS-1$
+      if (content != null) {
+        resource = new CachedResource(server.mimeType(uri), content);
+        // if another thread was faster, use its copy
+        CachedResource existing = resources.putIfAbsent(uri, resource);
+        if (existing != null) {
+          resource = existing;
+        }
+      }
+    }
+    if (resource != null) {
+      return resource.createResponse(server, header);
+    }
+    return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
+        NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
+  }
+
+  /**
+   * Read a jar resource.
+   * 
+   * @param name
+   *          The name of the resource
+   * @return The contents of the resource or null if it can't be read
+   */
+  static byte[] readResource(String name) {
     InputStream stream = WebServer.class.getClassLoader().getResourceAsStream(
-        "htdocs" + uri); //$NON-NLS-1$
-    if (stream != null) {
-      Response response = server.new Response(NanoHTTPD.HTTP_OK, server.mimeType(uri),
-          stream);
+        name);
+    if (stream == null) {
+      return null;
+    }
+    try {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      byte[] buffer = new byte[Constants.ONE_K * 8];
+      int read;
+      while ((read = stream.read(buffer)) >= 0) {
+        content.write(buffer, 0, read);
+      }
+      return content.toByteArray();
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
       try {
         stream.close();
       } catch (IOException e) {
         e.printStackTrace();
       }
-      return response;
     }
-    return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
-        NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
   }
 }
@@ -21,23 +21,54 @@ package org.fibs.geotag.webserver;
 import java.awt.image.RenderedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Properties;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 
+import org.fibs.geotag.Settings;
+import org.fibs.geotag.Settings.SETTING;
 import org.fibs.geotag.data.ImageInfo;
+import org.fibs.geotag.image.ThumbnailCache;
+import org.fibs.geotag.util.Constants;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.NanoHTTPD.Response;
 
 /**
+ * Serves the thumbnails of the images. Encoding a thumbnail as JPEG takes a
+ * while, so the encoded thumbnails are kept (up to a limit), until the
+ * thumbnail of an image changes. Each thumbnail is sent with an ETag, so
+ * browsers only need to ask if their copy is still valid.
+ * 
  * @author Andreas Schneider
  * 
  */
 public class ThumbnailHandler implements ContextHandler {
 
+  /** The maximum memory used by the encoded thumbnails in bytes. */
+  private static final long MAX_CACHE_SIZE = 16L * Constants.ONE_K
+      * Constants.ONE_K;
+
+  /**
+   * Part of each ETag, so thumbnails from an earlier run of the program are
+   * never mistaken for current ones.
+   */
+  private static final String ETAG_PREFIX = Long.toString(System
+      .currentTimeMillis(), Character.MAX_RADIX);
+
+  /** The encoded thumbnails by sequence number, least recently used first. */
+  private final LinkedHashMap<Integer, EncodedThumbnail> encodedThumbnails = new LinkedHashMap<Integer, EncodedThumbnail>(
+      16, 0.75f, true);
+
+  /** The memory used by the encoded thumbnails in bytes. */
+  private long cacheSize = 0;
+
   /**
    * @see org.fibs.geotag.webserver.ContextHandler#serve(org.fibs.geotag.webserver.WebServer,
    *      java.lang.String, java.lang.String, java.util.Properties,
@@ -52,19 +83,38 @@ public class ThumbnailHandler implements ContextHandler {
         // least one digit
         int sequenceNumber = Integer.parseInt(uri.substring(1, dotPosition));
         ImageInfo imageInfo = ImageInfo.getImageInfo(sequenceNumber);
-        ImageIcon thumbnail = imageInfo.getThumbnail();
-        if (thumbnail != null) {
-          ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-          try {
-            ImageIO.write((RenderedImage) thumbnail.getImage(),
-                "jpg", byteArrayOutputStream); //$NON-NLS-1$
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(
-                byteArrayOutputStream.toByteArray());
-            return server.new Response(NanoHTTPD.HTTP_OK, server.mimeType(uri),
-                byteArrayInputStream);
-          } catch (IOException e) {
-            e.printStackTrace();
+        if (imageInfo == null) {
+          return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
+              NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
+        }
+        // the version must be read before the thumbnail
+        int version = imageInfo.getThumbnailVersion();
+        String etag = '"' + ETAG_PREFIX + '-' + sequenceNumber + '-' + version
+            + '"';
+        Response response = null;
+        if (etag.equals(header.getProperty("if-none-match"))) { //$NON-NLS-1$
+          // the browser's copy is still up to date - no need to encode
+          // the thumbnail at all
+          response = server.new Response(NanoHTTPD.HTTP_NOT_MODIFIED, null,
+              (InputStream) null);
+        } else {
+          byte[] jpegBytes = getEncodedThumbnail(sequenceNumber, version);
+          if (jpegBytes == null) {
+            jpegBytes = encodeThumbnail(imageInfo);
+            if (jpegBytes != null) {
+              putEncodedThumbnail(sequenceNumber, version, jpegBytes);
+            }
           }
+          if (jpegBytes != null) {
+            response = server.new Response(NanoHTTPD.HTTP_OK, server
+                .mimeType(uri), new ByteArrayInputStream(jpegBytes));
+          }
+        }
+        if (response != null) {
+          response.addHeader("ETag", etag); //$NON-NLS-1$
+          // the thumbnail can change, so the browser has to ask every time
+          response.addHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+          return response;
         }
       }
     } catch (RuntimeException e) {
@@ -74,4 +124,94 @@ public class ThumbnailHandler implements ContextHandler {
         NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
   }
 
+  /**
+   * Encode the thumbnail of an image as JPEG.
+   * 
+   * @param imageInfo
+   * @return The encoded thumbnail or null if there is none
+   */
+  private byte[] encodeThumbnail(ImageInfo imageInfo) {
+    ImageIcon thumbnail = imageInfo.getThumbnail();
+    if (thumbnail == null) {
+      // the thumbnail might not be loaded yet, but created before
+      ThumbnailCache.CachedThumbnail cachedThumbnail = ThumbnailCache.get(
+          new File(imageInfo.getPath()), Settings.get(SETTING.THUMBNAIL_SIZE,
+              Settings.DEFAULT_THUMBNAIL_SIZE));
+      if (cachedThumbnail != null) {
+        return cachedThumbnail.getJpegBytes();
+      }
+      return null;
+    }
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    try {
+      ImageIO.write((RenderedImage) thumbnail.getImage(),
+          "jpg", byteArrayOutputStream); //$NON-NLS-1$
+      return byteArrayOutputStream.toByteArray();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * @param sequenceNumber
+   * @param version
+   *          The current version of the thumbnail
+   * @return The encoded thumbnail or null if it isn't known or is outdated
+   */
+  private synchronized byte[] getEncodedThumbnail(int sequenceNumber,
+      int version) {
+    EncodedThumbnail encodedThumbnail = encodedThumbnails.get(Integer
+        .valueOf(sequenceNumber));
+    if (encodedThumbnail == null || encodedThumbnail.version != version) {
+      return null;
+    }
+    return encodedThumbnail.jpegBytes;
+  }
+
+  /**
+   * Keep an encoded thumbnail, dropping the least recently used ones if they
+   * take up too much memory.
+   * 
+   * @param sequenceNumber
+   * @param version
+   * @param jpegBytes
+   */
+  private synchronized void putEncodedThumbnail(int sequenceNumber,
+      int version, byte[] jpegBytes) {
+    EncodedThumbnail previous = encodedThumbnails.put(Integer
+        .valueOf(sequenceNumber), new EncodedThumbnail(version, jpegBytes));
+    if (previous != null) {
+      cacheSize -= previous.jpegBytes.length;
+    }
+    cacheSize += jpegBytes.length;
+    Iterator<EncodedThumbnail> iterator = encodedThumbnails.values()
+        .iterator();
+    // never drop the thumbnail we just added
+    while (cacheSize > MAX_CACHE_SIZE && encodedThumbnails.size() > 1) {
+      cacheSize -= iterator.next().jpegBytes.length;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * A thumbnail encoded as JPEG.
+   */
+  private static class EncodedThumbnail {
+
+    /** The version of the thumbnail. */
+    final int version;
+
+    /** The thumbnail as JPEG. */
+    final byte[] jpegBytes;
+
+    /**
+     * @param version
+     * @param jpegBytes
+     */
+    EncodedThumbnail(int version, byte[] jpegBytes) {
+      this.version = version;
+      this.jpegBytes = jpegBytes;
+    }
+  }
 }
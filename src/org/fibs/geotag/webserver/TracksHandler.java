@@ -18,19 +18,22 @@
 
 package org.fibs.geotag.webserver;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
 
+import org.fibs.geotag.track.TrackSegment;
 import org.fibs.geotag.track.TrackStore;
 import org.fibs.geotag.util.BoundsTypeUtil;
 
 import com.topografix.gpx._1._0.BoundsType;
 import com.topografix.gpx._1._0.ObjectFactory;
-import com.topografix.gpx._1._0.Gpx.Trk.Trkseg;
-import com.topografix.gpx._1._0.Gpx.Trk.Trkseg.Trkpt;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.NanoHTTPD.Response;
@@ -41,6 +44,9 @@ import fi.iki.elonen.NanoHTTPD.Response;
  */
 public class TracksHandler implements ContextHandler {
 
+  /** Coordinates in encoded polylines are multiplied by this. */
+  private static final double POLYLINE_FACTOR = 1e5;
+
   /**
    * @see org.fibs.geotag.webserver.ContextHandler#serve(org.fibs.geotag.webserver.WebServer,
    *      java.lang.String, java.lang.String, java.util.Properties,
@@ -82,53 +88,78 @@ public class TracksHandler implements ContextHandler {
       mapBounds.setMaxlat(new BigDecimal(north));
       mapBounds.setMinlon(new BigDecimal(west));
       mapBounds.setMaxlon(new BigDecimal(east));
-      List<Trkseg> segments = new ArrayList<Trkseg>();
-      for (Trkseg segment : TrackStore.getTrackStore()
-          .getIntersectingTrackSegments(mapBounds)) {
-        segments.add(segment);
-      }
+      List<TrackSegment> segments = TrackStore.getTrackStore()
+          .getIntersectingTrackSegments(south.doubleValue(),
+              west.doubleValue(), north.doubleValue(), east.doubleValue());
       // trim down the tracks to bare minimum
-      List<Trkseg> filteredSegments = filterSegments(mapBounds, segments,
-          width, height);
+      final List<TrackSegment> filteredSegments = filterSegments(mapBounds,
+          segments, width, height);
       // now that we have segments, create a response
-      return server.xmlResponse(tracksToXml(filteredSegments));
+      return server.streamResponse(WebServer.JSON_MIME_TYPE, header,
+          new NanoHTTPD.ContentWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+              writeTracks(filteredSegments, out);
+            }
+          });
     }
     return server.new Response(NanoHTTPD.HTTP_NOTFOUND,
         NanoHTTPD.MIME_PLAINTEXT, WebServer.FILE_NOT_FOUND);
   }
 
   /**
-   * @param trackPoint
-   * @param mapBounds
-   * @return True if the traclPoint is within the mapBounds
+   * @param segment
+   * @param index
+   *          The index of the track point in the segment
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return True if the track point is within the map bounds
    */
-  private boolean isOnMap(Trkpt trackPoint, BoundsType mapBounds) {
-    BigDecimal latitude = trackPoint.getLat();
-    BigDecimal longitude = trackPoint.getLon();
+  private boolean isOnMap(TrackSegment segment, int index, double south,
+      double west, double north, double east) {
+    double latitude = segment.getLatitude(index);
+    double longitude = segment.getLongitude(index);
     // check the scenarios where the track point is not on the map
-    if (latitude.compareTo(mapBounds.getMinlat()) < 0) {
+    if (latitude < south) {
       // latitude is smaller that the smallest map latitude
       return false;
     }
-    if (latitude.compareTo(mapBounds.getMaxlat()) > 0) {
+    if (latitude > north) {
       // latitude is bigger than biggest latitude on map
       return false;
     }
     // now the same check for longitudes
-    if (longitude.compareTo(mapBounds.getMinlon()) < 0) {
+    if (longitude < west) {
       return false;
     }
-    if (longitude.compareTo(mapBounds.getMaxlon()) > 0) {
+    if (longitude > east) {
       return false;
     }
     // no condition for being within the map violated
     return true;
   }
 
+  /**
+   * Add a track point of a segment to a filtered segment.
+   * 
+   * @param filteredSegment
+   * @param segment
+   * @param index
+   */
+  private void addTrackPoint(TrackSegment.Builder filteredSegment,
+      TrackSegment segment, int index) {
+    filteredSegment.add(segment.getTime(index), segment.getLatitude(index),
+        segment.getLongitude(index), segment.getElevation(index));
+  }
+
   /**
    * This is where we filter the tracks. There is no need to send parts of the
    * tracks that are off screen and we also want to avoid sending consecutive
-   * track points that at the current zoom factor are too close together.
+   * track points that at the current zoom factor are too close together. The
+   * filtering starts from the simplified segments matching the zoom factor,
+   * so long tracks don't need to be looked at point by point.
    * 
    * @param mapBounds
    * @param segments
@@ -136,61 +167,95 @@ public class TracksHandler implements ContextHandler {
    * @param mapHeight
    * @return the filtered list of tracks
    */
-  private List<Trkseg> filterSegments(BoundsType mapBounds,
-      List<Trkseg> segments, int mapWidth, int mapHeight) {
+  private List<TrackSegment> filterSegments(BoundsType mapBounds,
+      List<TrackSegment> segments, int mapWidth, int mapHeight) {
     int numberUnfiltered = 0;
     int numberFiltered = 0;
-    List<Trkseg> filteredList = new ArrayList<Trkseg>();
-    ObjectFactory gpxObjectFactory = new ObjectFactory();
+    List<TrackSegment> filteredList = new ArrayList<TrackSegment>();
+    double south = mapBounds.getMinlat().doubleValue();
+    double west = mapBounds.getMinlon().doubleValue();
+    double north = mapBounds.getMaxlat().doubleValue();
+    double east = mapBounds.getMaxlon().doubleValue();
+    // use simplified segments that look the same at this zoom level
+    int level = TrackSegment.chooseLevel(Math.min((north - south) / mapHeight,
+        (east - west) / mapWidth));
     // loop over all tracks
-    for (Trkseg segment : segments) {
-      Trkseg filteredSegment = gpxObjectFactory.createGpxTrkTrkseg();
+    for (TrackSegment fullSegment : segments) {
+      TrackSegment segment = fullSegment.getLevel(level);
+      TrackSegment.Builder filteredSegment = new TrackSegment.Builder(segment
+          .getTrack());
       // go through the track points
       // we want to add the last point off the map to the track
       // to get a line that starts off the map if possible
-      Trkpt lastPointOffMap = null;
+      int lastPointOffMap = -1;
       // we need to compare the pixel distance to the last point on the map
-      Trkpt lastPointOnMap = null;
+      int lastPointOnMap = -1;
       // we need to keep track of the last point added to see how close it is to
       // the current one
-      Trkpt lastPointAdded = null;
-      for (Trkpt trackPoint : segment.getTrkpt()) {
-        numberUnfiltered++;
-        if (isOnMap(trackPoint, mapBounds)) {
-          lastPointOnMap = trackPoint;
-          // if we got here from a point off the map we use that point
-          if (lastPointOffMap != null) {
-            filteredSegment.getTrkpt().add(lastPointOffMap);
-            lastPointAdded = lastPointOffMap;
-            // don't add that point again
-            lastPointOffMap = null;
-          }
-          // this point is on the map, but it might me too close to the last
-          // point added
-          final int tooClose = 10;
-          if (lastPointAdded == null
-              || BoundsTypeUtil.pixelDistance(lastPointAdded, trackPoint,
-                  mapBounds, mapWidth, mapHeight) > tooClose) {
-            filteredSegment.getTrkpt().add(trackPoint);
-            lastPointAdded = trackPoint;
+      int lastPointAdded = -1;
+      numberUnfiltered += segment.size();
+      // only the blocks of track points found by the segment can be on the
+      // map, the points in between are all off the map
+      int[] blocks = segment.findBlocks(south, west, north, east);
+      int nextPoint = 0;
+      for (int blockIndex = 0; blockIndex <= blocks.length; blockIndex++) {
+        int blockStart = segment.size();
+        if (blockIndex < blocks.length) {
+          blockStart = blocks[blockIndex] * TrackSegment.BLOCK_SIZE;
+        }
+        if (nextPoint < blockStart) {
+          // the same as looking at the points off the map one by one
+          if (lastPointOnMap >= 0) {
+            addTrackPoint(filteredSegment, segment, nextPoint);
+            lastPointOnMap = -1;
           }
-        } else {
-          // point is not on map
-          lastPointOffMap = trackPoint;
-          if (lastPointOnMap != null) {
-            // this is the first off map point after one or more on map points -
-            // keep it
-            filteredSegment.getTrkpt().add(trackPoint);
-            // don't add any more off map points
-            lastPointOnMap = null;
+          lastPointOffMap = blockStart - 1;
+        }
+        int blockEnd = Math.min(blockStart + TrackSegment.BLOCK_SIZE, segment
+            .size());
+        for (int trackPoint = blockStart; trackPoint < blockEnd; trackPoint++) {
+          if (isOnMap(segment, trackPoint, south, west, north, east)) {
+            lastPointOnMap = trackPoint;
+            // if we got here from a point off the map we use that point
+            if (lastPointOffMap >= 0) {
+              addTrackPoint(filteredSegment, segment, lastPointOffMap);
+              lastPointAdded = lastPointOffMap;
+              // don't add that point again
+              lastPointOffMap = -1;
+            }
+            // this point is on the map, but it might me too close to the
+            // last point added
+            final int tooClose = 10;
+            if (lastPointAdded < 0
+                || BoundsTypeUtil.pixelDistance(segment
+                    .getLatitude(lastPointAdded), segment
+                    .getLongitude(lastPointAdded), segment
+                    .getLatitude(trackPoint),
+                    segment.getLongitude(trackPoint), mapBounds, mapWidth,
+                    mapHeight) > tooClose) {
+              addTrackPoint(filteredSegment, segment, trackPoint);
+              lastPointAdded = trackPoint;
+            }
+          } else {
+            // point is not on map
+            lastPointOffMap = trackPoint;
+            if (lastPointOnMap >= 0) {
+              // this is the first off map point after one or more on map
+              // points - keep it
+              addTrackPoint(filteredSegment, segment, trackPoint);
+              // don't add any more off map points
+              lastPointOnMap = -1;
+            }
           }
         }
+        nextPoint = blockEnd;
       }
       // only add the segment to the list if its not empty after all the
       // filtering
-      if (filteredSegment.getTrkpt().size() > 0) {
-        filteredList.add(filteredSegment);
-        numberFiltered += filteredSegment.getTrkpt().size();
+      TrackSegment filtered = filteredSegment.build();
+      if (filtered != null) {
+        filteredList.add(filtered);
+        numberFiltered += filtered.size();
       }
     }
     System.out.println("Filter: " + numberUnfiltered + "->" + numberFiltered); //$NON-NLS-1$ //$NON-NLS-2$
@@ -198,32 +263,81 @@ public class TracksHandler implements ContextHandler {
   }
 
   /**
-   * Convert a list of segments to a string in XML format.
+   * Write a list of segments as JSON. Each segment is a string in the encoded
+   * polyline format also used by Google Maps: the coordinates are rounded to
+   * five decimals and only the differences to the previous point are sent,
+   * taking up a few characters per point.
    * 
    * @param segments
    *          the list of segments
-   * @return The XML representation of the track segment list
+   * @param out
+   *          The stream to write to
+   * @throws IOException
    */
-  private String tracksToXml(List<Trkseg> segments) {
-    StringBuilder stringBuilder = new StringBuilder();
-    stringBuilder.append("<tracks>\n"); //$NON-NLS-1$
-    @SuppressWarnings("unused")
-    int trackPoints = 0;
-    for (Trkseg trkseg : segments) {
-      trackPoints += trkseg.getTrkpt().size();
-      stringBuilder.append(" <track>\n"); //$NON-NLS-1$
-      for (Trkpt trackPoint : trkseg.getTrkpt()) {
-        stringBuilder.append("  <point latitude=\""); //$NON-NLS-1$
-        stringBuilder.append(trackPoint.getLat().toString());
-        stringBuilder.append("\" longitude=\""); //$NON-NLS-1$
-        stringBuilder.append(trackPoint.getLon().toString());
-        // we could specify colour and opacity here as well, but not yet
-        stringBuilder.append("\"/>\n"); //$NON-NLS-1$
+  private void writeTracks(List<TrackSegment> segments, OutputStream out)
+      throws IOException {
+    Writer writer = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+    writer.write("{\"tracks\":["); //$NON-NLS-1$
+    for (int segmentIndex = 0; segmentIndex < segments.size(); segmentIndex++) {
+      TrackSegment segment = segments.get(segmentIndex);
+      if (segmentIndex > 0) {
+        writer.write(',');
       }
-      stringBuilder.append(" </track>\n"); //$NON-NLS-1$
+      writer.write('"');
+      long previousLatitude = 0;
+      long previousLongitude = 0;
+      for (int index = 0; index < segment.size(); index++) {
+        long latitude = Math.round(segment.getLatitude(index)
+            * POLYLINE_FACTOR);
+        long longitude = Math.round(segment.getLongitude(index)
+            * POLYLINE_FACTOR);
+        writePolylineValue(writer, latitude - previousLatitude);
+        writePolylineValue(writer, longitude - previousLongitude);
+        previousLatitude = latitude;
+        previousLongitude = longitude;
+      }
+      writer.write('"');
+    }
+    writer.write("]}"); //$NON-NLS-1$
+    writer.close();
+  }
+
+  /**
+   * Write a value in the encoded polyline format: the sign goes into the
+   * lowest bit, then the value is sent in groups of five bits, lowest first.
+   * 
+   * @param writer
+   * @param value
+   * @throws IOException
+   */
+  private static void writePolylineValue(Writer writer, long value)
+      throws IOException {
+    final int bitsPerCharacter = 5;
+    final int moreFollows = 0x20;
+    final int mask = 0x1f;
+    final int offset = 63;
+    long bits = value < 0 ? ~(value << 1) : value << 1;
+    while (bits >= moreFollows) {
+      writePolylineCharacter(writer,
+          (char) ((moreFollows | (bits & mask)) + offset));
+      bits >>= bitsPerCharacter;
+    }
+    writePolylineCharacter(writer, (char) (bits + offset));
+  }
+
+  /**
+   * @param writer
+   * @param character
+   *          A character of an encoded polyline - the backslash is among those
+   *          and needs to be escaped in JSON
+   * @throws IOException
+   */
+  private static void writePolylineCharacter(Writer writer, char character)
+      throws IOException {
+    if (character == '\\') {
+      writer.write('\\');
     }
-    stringBuilder.append("</tracks>"); //$NON-NLS-1$
-    return stringBuilder.toString();
+    writer.write(character);
   }
 
 }
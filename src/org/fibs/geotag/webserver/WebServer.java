@@ -21,11 +21,15 @@ package org.fibs.geotag.webserver;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
 
 import org.fibs.geotag.table.ImagesTableModel;
 import org.xnap.commons.i18n.I18n;
@@ -50,6 +54,9 @@ public class WebServer extends NanoHTTPD {
   /** The MIME type for XML files. */
   public static final String XML_MIME_TYPE = "application/xml"; //$NON-NLS-1$
 
+  /** The MIME type for JSON data. */
+  public static final String JSON_MIME_TYPE = "application/json"; //$NON-NLS-1$
+
   /** Message to send if file or resource not found. */
   public static final String FILE_NOT_FOUND = i18n
       .tr("Error 404, file not found."); //$NON-NLS-1$
@@ -60,6 +67,28 @@ public class WebServer extends NanoHTTPD {
   /** The context handlers registered for the context keys. */
   private Map<String, ContextHandler> contextHandlers = new HashMap<String, ContextHandler>();
 
+  /** The maximum number of image selections remembered. */
+  private static final int MAX_SELECTIONS = 32;
+
+  /**
+   * The image selections shown on maps by their ID, oldest first. Only the
+   * most recent ones are kept.
+   */
+  private static Map<Integer, ImageSelection> selections =
+      new LinkedHashMap<Integer, ImageSelection>() {
+        /***/
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<Integer, ImageSelection> eldest) {
+          return size() > MAX_SELECTIONS;
+        }
+      };
+
+  /** The ID of the next image selection. */
+  private static int nextSelectionID = 1;
+
   /**
    * Constructor.
    * 
@@ -72,6 +101,30 @@ public class WebServer extends NanoHTTPD {
     super(port);
   }
 
+  /**
+   * Register images to be shown together on a map. The map asks for them
+   * with the returned ID instead of sending all their sequence numbers.
+   * 
+   * @param imageIDs
+   *          The sequence numbers of the images
+   * @return The ID of the selection
+   */
+  public static synchronized int registerSelection(int[] imageIDs) {
+    int selectionID = nextSelectionID++;
+    selections.put(Integer.valueOf(selectionID),
+        new ImageSelection(imageIDs));
+    return selectionID;
+  }
+
+  /**
+   * @param selectionID
+   * @return The selection with that ID or null if it is unknown or has been
+   *         forgotten
+   */
+  static synchronized ImageSelection getSelection(int selectionID) {
+    return selections.get(Integer.valueOf(selectionID));
+  }
+
   /**
    * Create a context. If the context path doesn't start with a slash or the
    * context already exists, this method does nothing.
@@ -152,6 +205,92 @@ public class WebServer extends NanoHTTPD {
     return type;
   }
 
+  /**
+   * @param header
+   *          The request header
+   * @return True if the client accepts gzip compressed responses
+   */
+  public static boolean acceptsGzip(Properties header) {
+    String acceptEncoding = header.getProperty("accept-encoding"); //$NON-NLS-1$
+    return acceptEncoding != null
+        && acceptEncoding.toLowerCase().indexOf("gzip") >= 0; //$NON-NLS-1$
+  }
+
+  /**
+   * @param content
+   * @return The content compressed with gzip or null if that failed
+   */
+  public static byte[] gzip(byte[] content) {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    try {
+      GZIPOutputStream gzipStream = new GZIPOutputStream(byteArrayOutputStream);
+      gzipStream.write(content);
+      gzipStream.close();
+      return byteArrayOutputStream.toByteArray();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Create a response that is written directly to the connection while it is
+   * created. It is compressed with gzip if the client accepts that.
+   * 
+   * @param mimeType
+   *          The MIME type of the response
+   * @param header
+   *          The request header
+   * @param contentWriter
+   *          Writes the content of the response
+   * @return The response
+   */
+  public Response streamResponse(String mimeType, Properties header,
+      final ContentWriter contentWriter) {
+    if (!acceptsGzip(header)) {
+      return new Response(HTTP_OK, mimeType, contentWriter);
+    }
+    Response response = new Response(HTTP_OK, mimeType, new ContentWriter() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        final int bufferSize = 8192;
+        GZIPOutputStream gzipStream = new GZIPOutputStream(out, bufferSize);
+        contentWriter.writeTo(gzipStream);
+        gzipStream.close();
+      }
+    });
+    response.addHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+    response.addHeader("Vary", "Accept-Encoding"); //$NON-NLS-1$ //$NON-NLS-2$
+    return response;
+  }
+
+  /**
+   * Write a string as a JSON string literal, with quotes and escapes.
+   * 
+   * @param writer
+   * @param string
+   * @throws IOException
+   */
+  public static void writeJsonString(Writer writer, String string)
+      throws IOException {
+    writer.write('"');
+    for (int index = 0; index < string.length(); index++) {
+      char character = string.charAt(index);
+      if (character == '"' || character == '\\') {
+        writer.write('\\');
+        writer.write(character);
+      } else if (character < ' ') {
+        final int hexBase = 0x10000;
+        writer.write("\\u"); //$NON-NLS-1$
+        // add leading zeros
+        writer.write(Integer.toHexString(character + hexBase).substring(1));
+      } else {
+        writer.write(character);
+      }
+    }
+    writer.write('"');
+  }
+
   /**
    * Convenience method.
    * 